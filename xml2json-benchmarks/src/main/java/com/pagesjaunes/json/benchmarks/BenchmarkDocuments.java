@@ -0,0 +1,122 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.Random;
+
+/**
+ * The documents measured by the conversion benchmarks: a list of listings,
+ * in three sizes and three shapes. The documents are built from a fixed
+ * seed, so every run measures the same text. Their typed paths are mapped
+ * in <code>benchmark-mapping.properties</code>.
+ *
+ * @author pagesjaunes
+ */
+public final class BenchmarkDocuments {
+
+	/** The name of the type mapping of the documents. */
+	public static final String MAPPING = "benchmark-mapping.properties";
+
+	private static final String[] CITIES = { "Paris", "Lyon", "Marseille",
+			"Toulouse", "Nantes", "Lille" };
+
+	private BenchmarkDocuments() {
+	}
+
+	/**
+	 * Get the number of listings of a size.
+	 *
+	 * @param size
+	 *            small (about 1 KB), medium (about 64 KB) or large (about
+	 *            4 MB).
+	 * @return The number of listings.
+	 */
+	public static int listings(String size) {
+		if ("small".equals(size)) {
+			return 4;
+		} else if ("medium".equals(size)) {
+			return 256;
+		} else if ("large".equals(size)) {
+			return 16384;
+		}
+		throw new IllegalArgumentException("Unknown size " + size);
+	}
+
+	/**
+	 * Build a document.
+	 *
+	 * @param size
+	 *            See {@link #listings(String)}.
+	 * @param shape
+	 *            attributes for listings made of attributes, text for
+	 *            listings holding paragraphs of text with a few entities,
+	 *            typed for listings whose values are numbers, booleans, dates
+	 *            and arrays.
+	 * @return The XML text.
+	 */
+	public static String build(String size, String shape) {
+		int listings = listings(size);
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder(listings * 256 + 32);
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<listings>\n");
+		for (int i = 0; i < listings; i += 1) {
+			if ("attributes".equals(shape)) {
+				attributes(sb, i, random);
+			} else if ("text".equals(shape)) {
+				text(sb, i, random);
+			} else if ("typed".equals(shape)) {
+				typed(sb, i, random);
+			} else {
+				throw new IllegalArgumentException("Unknown shape " + shape);
+			}
+		}
+		sb.append("</listings>\n");
+		return sb.toString();
+	}
+
+	private static void attributes(StringBuilder sb, int i, Random random) {
+		sb.append("  <listing id=\"").append(i)
+				.append("\" type=\"shop\" rating=\"")
+				.append(random.nextInt(5)).append('.')
+				.append(random.nextInt(10)).append("\" open=\"")
+				.append(random.nextBoolean()).append("\">\n");
+		sb.append("    <address street=\"").append(random.nextInt(200))
+				.append(" rue de la Paix\" city=\"")
+				.append(CITIES[random.nextInt(CITIES.length)])
+				.append("\" zip=\"750").append(10 + random.nextInt(10))
+				.append("\"/>\n");
+		sb.append("    <phone number=\"01").append(10000000 + random.nextInt(
+				89999999)).append("\" kind=\"landline\"/>\n");
+		sb.append("  </listing>\n");
+	}
+
+	private static void text(StringBuilder sb, int i, Random random) {
+		sb.append("  <listing>\n    <name>Listing ").append(i)
+				.append("</name>\n    <description>");
+		for (int j = 0; j < 200; j += 1) {
+			int r = random.nextInt(100);
+			if (r == 0) {
+				sb.append("&amp;");
+			} else if (r < 15) {
+				sb.append(' ');
+			} else {
+				sb.append((char) ('a' + random.nextInt(26)));
+			}
+		}
+		sb.append("</description>\n  </listing>\n");
+	}
+
+	private static void typed(StringBuilder sb, int i, Random random) {
+		sb.append("  <listing>\n    <id>").append(100000 + i)
+				.append("</id>\n    <price>").append(random.nextInt(1000))
+				.append('.').append(10 + random.nextInt(90))
+				.append("</price>\n    <open>").append(random.nextBoolean())
+				.append("</open>\n    <updated>2014-")
+				.append(10 + random.nextInt(3)).append('-')
+				.append(10 + random.nextInt(19)).append("</updated>\n");
+		int tags = 1 + random.nextInt(3);
+		for (int j = 0; j < tags; j += 1) {
+			sb.append("    <tag>tag").append(random.nextInt(50))
+					.append("</tag>\n");
+		}
+		sb.append("  </listing>\n");
+	}
+}
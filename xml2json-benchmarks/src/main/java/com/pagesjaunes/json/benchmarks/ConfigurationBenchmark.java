@@ -0,0 +1,34 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+
+/**
+ * Measures the loading of a type mapping from the classpath.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+	@Benchmark
+	public Map<String, JsonConf> load() {
+		return new ConfigurationMapEnumTypes(BenchmarkDocuments.MAPPING)
+				.getProperties();
+	}
+}
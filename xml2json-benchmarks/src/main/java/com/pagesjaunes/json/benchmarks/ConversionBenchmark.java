@@ -0,0 +1,68 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures {@link XmlToJsonService#toJSONObject(String)} and the JSON text
+ * it leads to, over the documents of {@link BenchmarkDocuments}, with each
+ * engine.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+	@Param({ "small", "medium", "large" })
+	public String size;
+
+	@Param({ "attributes", "text", "typed" })
+	public String shape;
+
+	@Param({ "DEFAULT", "INDEXED" })
+	public Engine engine;
+
+	private String xml;
+
+	private XmlToJsonService service;
+
+	@Setup
+	public void setup() {
+		service = new XmlToJsonService(new ConfigurationMapEnumTypes(
+				BenchmarkDocuments.MAPPING).getProperties());
+		service.setEngine(engine);
+		xml = BenchmarkDocuments.build(size, shape);
+	}
+
+	@Benchmark
+	public JSONObject toJSONObject() throws JSONException {
+		return service.toJSONObject(xml);
+	}
+
+	@Benchmark
+	public String toJSONString() throws JSONException {
+		return service.toJSONString(xml);
+	}
+}
@@ -0,0 +1,123 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.pagesjaunes.json.config.JsonConf;
+
+/**
+ * The documents measured by the command line tools of the module: the
+ * <code>.xml</code> files of a directory, or documents made by
+ * {@link CorpusGenerator}.
+ *
+ * @author pagesjaunes
+ */
+final class Corpus {
+
+	final String[] names;
+
+	final String[] documents;
+
+	private Corpus(List<String> pNames, List<String> pDocuments) {
+		names = pNames.toArray(new String[pNames.size()]);
+		documents = pDocuments.toArray(new String[pDocuments.size()]);
+	}
+
+	/**
+	 * Load a corpus.
+	 *
+	 * @param directory
+	 *            The directory of the documents, in file name order, or null
+	 *            to generate them.
+	 * @param mapping
+	 *            The type mapping the documents are generated from.
+	 * @param count
+	 *            The number of documents to generate.
+	 * @return The corpus.
+	 * @throws IOException
+	 *             If the directory cannot be read or holds no document.
+	 */
+	static Corpus load(String directory, Map<String, JsonConf> mapping,
+			int count) throws IOException {
+		List<String> names = new ArrayList<String>();
+		List<String> documents = new ArrayList<String>();
+		if (directory != null) {
+			File[] files = new File(directory).listFiles();
+			if (files == null) {
+				throw new IOException("Cannot list " + directory);
+			}
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile() && file.getName().endsWith(".xml")) {
+					names.add(file.getName());
+					documents.add(read(file));
+				}
+			}
+			if (documents.isEmpty()) {
+				throw new IOException("No .xml file in " + directory);
+			}
+		} else {
+			CorpusGenerator generator = new CorpusGenerator(mapping, 42);
+			for (int i = 0; i < count; i += 1) {
+				names.add("generated-" + i);
+				documents.add(generator.next());
+			}
+		}
+		return new Corpus(names, documents);
+	}
+
+	/**
+	 * Get the number of bytes of the documents, encoded in UTF-8.
+	 *
+	 * @return The size of the corpus.
+	 */
+	long bytes() {
+		long bytes = 0;
+		for (String document : documents) {
+			bytes += utf8Length(document);
+		}
+		return bytes;
+	}
+
+	static long utf8Length(String s) {
+		long length = 0;
+		for (int i = 0; i < s.length(); i += 1) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c)) {
+				length += 4;
+				i += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static String read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream input = new FileInputStream(file);
+		try {
+			int n = 0;
+			while (n < bytes.length) {
+				int read = input.read(bytes, n, bytes.length - n);
+				if (read < 0) {
+					break;
+				}
+				n += read;
+			}
+		} finally {
+			input.close();
+		}
+		return new String(bytes, "UTF-8");
+	}
+}
@@ -0,0 +1,79 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures the conversion of a corpus made by {@link CorpusGenerator} from
+ * a type mapping of the classpath. Each operation converts the next
+ * document of the corpus.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CorpusBenchmark {
+
+	@Param({ BenchmarkDocuments.MAPPING })
+	public String mapping;
+
+	@Param({ "42" })
+	public long seed;
+
+	/** Approximate number of characters of each document. */
+	@Param({ "4096", "262144" })
+	public int size;
+
+	@Param({ "DEFAULT", "INDEXED" })
+	public Engine engine;
+
+	private String[] corpus;
+
+	private int next;
+
+	private XmlToJsonService service;
+
+	@Setup
+	public void setup() {
+		Map<String, JsonConf> configuration = new ConfigurationMapEnumTypes(
+				mapping).getProperties();
+		service = new XmlToJsonService(configuration);
+		service.setEngine(engine);
+		CorpusGenerator generator = new CorpusGenerator(configuration, seed);
+		generator.setSize(size);
+		corpus = new String[32];
+		for (int i = 0; i < corpus.length; i += 1) {
+			corpus[i] = generator.next();
+		}
+	}
+
+	@Benchmark
+	public JSONObject toJSONObject() throws JSONException {
+		String xml = corpus[next];
+		next = (next + 1) % corpus.length;
+		return service.toJSONObject(xml);
+	}
+}
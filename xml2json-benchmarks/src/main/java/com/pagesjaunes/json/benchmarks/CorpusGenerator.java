@@ -0,0 +1,430 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.config.Types;
+
+/**
+ * Generates random but well-formed XML documents shaped by a type mapping:
+ * the elements and attributes are those of the mapped paths, the elements
+ * mapped as <code>array</code> are repeated, and the values of the paths
+ * mapped as numbers, booleans and dates are written so that the service
+ * converts them to that type. The other values are free text.
+ * <p>
+ * The documents only depend on the mapping, the seed and the knobs, so a
+ * corpus can be made again anywhere:
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.pagesjaunes.json.benchmarks.CorpusGenerator \
+ *     mapping=xml2json-datatype-mapping.properties directory=corpus count=100 \
+ *     seed=42 size=65536
+ * </pre>
+ *
+ * A generator is not thread safe.
+ *
+ * @author pagesjaunes
+ */
+public class CorpusGenerator {
+
+	private static final String[] WORDS = { "rue", "de", "la", "paix",
+			"boulangerie", "ouvert", "le", "dimanche", "Paris", "Lyon",
+			"horaires", "caf\u00e9", "centre", "ville", "parking" };
+
+	private static final String[] ENTITIES = { "&amp;", "&lt;", "&gt;",
+			"&quot;", "&apos;" };
+
+	private final Random random;
+
+	/** The top level elements of the mapping. */
+	private final List<Node> roots = new ArrayList<Node>();
+
+	/**
+	 * The formats of the dates of the mapping, in UTC so that a seed makes
+	 * the same documents whatever the time zone of the machine.
+	 */
+	private final Map<JsonConf, SimpleDateFormat> dateFormats = new IdentityHashMap<JsonConf, SimpleDateFormat>();
+
+	private int size = 4096;
+
+	private int depth = 2;
+
+	private int fanOut = 4;
+
+	private double attributeRatio = 0.8;
+
+	private int entityDensity = 5;
+
+	private double cdataRatio = 0.05;
+
+	/**
+	 * @param pMapping
+	 *            The type mapping, as loaded by
+	 *            {@link ConfigurationMapEnumTypes}.
+	 * @param pSeed
+	 *            The seed of the random values.
+	 */
+	public CorpusGenerator(Map<String, JsonConf> pMapping, long pSeed) {
+		random = new Random(pSeed);
+		// Sorted, so that the documents do not depend on the order of a
+		// HashMap.
+		for (Map.Entry<String, JsonConf> entry : new TreeMap<String, JsonConf>(
+				pMapping).entrySet()) {
+			add(entry.getKey().split("\\."), entry.getValue());
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @param pSize
+	 *            The approximate number of characters of a document. The
+	 *            children of the document element are repeated until it is
+	 *            reached.
+	 */
+	public void setSize(int pSize) {
+		size = pSize;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @param pDepth
+	 *            The number of levels of unmapped elements that may be added
+	 *            below the mapped ones.
+	 */
+	public void setDepth(int pDepth) {
+		depth = pDepth;
+	}
+
+	public int getFanOut() {
+		return fanOut;
+	}
+
+	/**
+	 * @param pFanOut
+	 *            The largest number of repetitions of an element mapped as
+	 *            an array, and of unmapped children of an element.
+	 */
+	public void setFanOut(int pFanOut) {
+		fanOut = pFanOut;
+	}
+
+	public double getAttributeRatio() {
+		return attributeRatio;
+	}
+
+	/**
+	 * @param pAttributeRatio
+	 *            The probability, between 0 and 1, that a mapped attribute
+	 *            is present on its element.
+	 */
+	public void setAttributeRatio(double pAttributeRatio) {
+		attributeRatio = pAttributeRatio;
+	}
+
+	public int getEntityDensity() {
+		return entityDensity;
+	}
+
+	/**
+	 * @param pEntityDensity
+	 *            The number of entities per thousand characters of free
+	 *            text.
+	 */
+	public void setEntityDensity(int pEntityDensity) {
+		entityDensity = pEntityDensity;
+	}
+
+	public double getCdataRatio() {
+		return cdataRatio;
+	}
+
+	/**
+	 * @param pCdataRatio
+	 *            The probability, between 0 and 1, that a free text is
+	 *            written as a CDATA section.
+	 */
+	public void setCdataRatio(double pCdataRatio) {
+		cdataRatio = pCdataRatio;
+	}
+
+	/**
+	 * Generate the next document of the corpus, whose document element is
+	 * one of the top level elements of the mapping.
+	 *
+	 * @return The XML text.
+	 */
+	public String next() {
+		if (roots.isEmpty()) {
+			throw new IllegalStateException("The mapping has no path");
+		}
+		Node root = roots.get(random.nextInt(roots.size()));
+		StringBuilder sb = new StringBuilder(size + 256);
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		openTag(sb, root);
+		int start = sb.length();
+		do {
+			content(sb, root, 1);
+		} while (sb.length() - start < size && !root.isLeaf());
+		sb.append("</").append(root.name).append(">\n");
+		return sb.toString();
+	}
+
+	private void element(StringBuilder sb, Node node, int level) {
+		indent(sb, level);
+		openTag(sb, node);
+		content(sb, node, level + 1);
+		if (!node.isLeaf()) {
+			indent(sb, level);
+		}
+		sb.append("</").append(node.name).append(">\n");
+	}
+
+	private void openTag(StringBuilder sb, Node node) {
+		sb.append('<').append(node.name);
+		for (Map.Entry<String, JsonConf> attribute : node.attributes
+				.entrySet()) {
+			if (random.nextDouble() < attributeRatio) {
+				sb.append(' ').append(attribute.getKey()).append("=\"");
+				value(sb, attribute.getValue(), '"');
+				sb.append('"');
+			}
+		}
+		sb.append('>');
+		if (!node.isLeaf()) {
+			sb.append('\n');
+		}
+	}
+
+	private void content(StringBuilder sb, Node node, int level) {
+		if (node.isLeaf()) {
+			value(sb, node.content, (char) 0);
+			return;
+		}
+		if (node.content != null) {
+			indent(sb, level);
+			value(sb, node.content, (char) 0);
+			sb.append('\n');
+		}
+		for (Node child : node.children.values()) {
+			int count = child.array ? 1 + random.nextInt(fanOut) : 1;
+			for (int i = 0; i < count; i += 1) {
+				element(sb, child, level);
+			}
+		}
+		if (depth > 0) {
+			int count = random.nextInt(fanOut + 1);
+			for (int i = 0; i < count; i += 1) {
+				unmapped(sb, level, 1);
+			}
+		}
+	}
+
+	/**
+	 * Write an element that is not in the mapping, with free text or
+	 * unmapped children.
+	 */
+	private void unmapped(StringBuilder sb, int level, int unmappedLevel) {
+		String name = "x" + random.nextInt(8);
+		indent(sb, level);
+		sb.append('<').append(name).append('>');
+		if (unmappedLevel < depth && random.nextBoolean()) {
+			sb.append('\n');
+			int count = 1 + random.nextInt(fanOut);
+			for (int i = 0; i < count; i += 1) {
+				unmapped(sb, level + 1, unmappedLevel + 1);
+			}
+			indent(sb, level);
+		} else {
+			value(sb, null, (char) 0);
+		}
+		sb.append("</").append(name).append(">\n");
+	}
+
+	/**
+	 * Write a value of the type of a path.
+	 *
+	 * @param quote
+	 *            The quote of an attribute value, or 0 for the content of an
+	 *            element.
+	 */
+	private void value(StringBuilder sb, JsonConf jsonConf, char quote) {
+		Types type = jsonConf == null ? null : jsonConf.getTypes();
+		if (type == Types.NUMBER) {
+			if (random.nextInt(4) == 0) {
+				sb.append('-');
+			}
+			sb.append(random.nextInt(100000));
+			if (random.nextBoolean()) {
+				sb.append('.').append(random.nextInt(100));
+			}
+		} else if (type == Types.BOOLEAN) {
+			sb.append(random.nextBoolean() ? "true" : "false");
+		} else if (type == Types.DATE && jsonConf.getFormat() != null) {
+			// Any instant between 2000 and 2030.
+			long time = 946684800000L + (long) (random.nextDouble() * 946684800000L);
+			sb.append(dateFormats.get(jsonConf).format(new Date(time)));
+		} else if (quote == 0 && random.nextDouble() < cdataRatio) {
+			sb.append("<![CDATA[");
+			text(sb, false);
+			sb.append("]]>");
+		} else {
+			text(sb, true);
+		}
+	}
+
+	private void text(StringBuilder sb, boolean entities) {
+		int words = 1 + random.nextInt(12);
+		for (int i = 0; i < words; i += 1) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			String word = WORDS[random.nextInt(WORDS.length)];
+			sb.append(word);
+			if (entities
+					&& random.nextInt(1000) < entityDensity * (word.length() + 1)) {
+				sb.append(' ').append(ENTITIES[random.nextInt(ENTITIES.length)]);
+			}
+		}
+	}
+
+	private static void indent(StringBuilder sb, int level) {
+		for (int i = 0; i < level; i += 1) {
+			sb.append("  ");
+		}
+	}
+
+	private void add(String[] segments, JsonConf jsonConf) {
+		if (jsonConf != null && jsonConf.getTypes() == Types.DATE
+				&& jsonConf.getFormat() != null) {
+			SimpleDateFormat format = new SimpleDateFormat(
+					jsonConf.getFormat(), Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			dateFormats.put(jsonConf, format);
+		}
+		Node node = null;
+		for (int i = 0; i < segments.length; i += 1) {
+			String segment = segments[i];
+			if (node != null && i == segments.length - 1) {
+				if (segment.startsWith("@")) {
+					node.attributes.put(segment.substring(1), jsonConf);
+					return;
+				} else if ("$content".equals(segment)) {
+					node.content = jsonConf;
+					return;
+				}
+			}
+			Node child = null;
+			if (node != null) {
+				child = node.children.get(segment);
+			} else {
+				for (Node root : roots) {
+					if (root.name.equals(segment)) {
+						child = root;
+					}
+				}
+			}
+			if (child == null) {
+				child = new Node(segment);
+				if (node != null) {
+					node.children.put(segment, child);
+				} else {
+					roots.add(child);
+				}
+			}
+			node = child;
+		}
+		if (jsonConf != null && Types.ARRAY.equals(jsonConf.getTypes())) {
+			node.array = true;
+		}
+	}
+
+	/**
+	 * An element of the mapping.
+	 */
+	private static final class Node {
+
+		final String name;
+
+		final Map<String, Node> children = new TreeMap<String, Node>();
+
+		final Map<String, JsonConf> attributes = new TreeMap<String, JsonConf>();
+
+		JsonConf content;
+
+		boolean array;
+
+		Node(String pName) {
+			name = pName;
+		}
+
+		boolean isLeaf() {
+			return children.isEmpty();
+		}
+	}
+
+	/**
+	 * Write a corpus to a directory, as files named
+	 * <code>doc-00000.xml</code>, <code>doc-00001.xml</code>...
+	 *
+	 * @param args
+	 *            <code>name=value</code> pairs: mapping (a resource of the
+	 *            classpath), directory, count, seed, and the knobs size,
+	 *            depth, fanOut, attributeRatio, entityDensity and cdataRatio.
+	 * @throws IOException
+	 *             If a file cannot be written.
+	 */
+	public static void main(String[] args) throws IOException {
+		Options options = new Options(args);
+		String mapping = options.take("mapping", BenchmarkDocuments.MAPPING);
+		File directory = new File(options.take("directory", "corpus"));
+		int count = options.take("count", 100);
+		CorpusGenerator generator = new CorpusGenerator(
+				new ConfigurationMapEnumTypes(mapping).getProperties(),
+				Long.parseLong(options.take("seed", "42")));
+		generator.setSize(options.take("size", 4096));
+		generator.setDepth(options.take("depth", 2));
+		generator.setFanOut(options.take("fanOut", 4));
+		generator.setAttributeRatio(Double.parseDouble(options.take(
+				"attributeRatio", "0.8")));
+		generator.setEntityDensity(options.take("entityDensity", 5));
+		generator.setCdataRatio(Double.parseDouble(options.take("cdataRatio",
+				"0.05")));
+		options.checkTaken();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		for (int i = 0; i < count; i += 1) {
+			File file = new File(directory, String.format("doc-%05d.xml",
+					Integer.valueOf(i)));
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+					"UTF-8");
+			try {
+				writer.write(generator.next());
+			} finally {
+				writer.close();
+			}
+		}
+		System.out.println(count + " documents written to " + directory);
+	}
+}
@@ -0,0 +1,202 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.EngineSelector;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures the default, indexed and parallel engines of
+ * {@link XmlToJsonService} on documents of growing sizes, and prints the
+ * sizes from which the indexed and the parallel engines are faster, as the
+ * properties of an {@link EngineSelector}:
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.pagesjaunes.json.benchmarks.EngineCalibration \
+ *     mapping=benchmark-mapping.properties recordSize=2048 maxSize=8388608 \
+ *     &gt; engine.properties
+ * </pre>
+ *
+ * A document is a list of records made by {@link CorpusGenerator}, under a
+ * document element without attributes, the shape the parallel engine
+ * splits, mapped as the documents of the mapping are. A threshold is the
+ * smallest size from which an engine is the faster one at every size
+ * measured; an engine that never is gets
+ * {@link Integer#MAX_VALUE}. The table of the measures is printed as
+ * comments.
+ *
+ * @author pagesjaunes
+ */
+public class EngineCalibration {
+
+	/** The name of the document element. */
+	private static final String RECORDS = "records";
+
+	private final Map<String, JsonConf> configuration;
+
+	private final CorpusGenerator generator;
+
+	private final int recordSize;
+
+	private final long measureNanos;
+
+	/**
+	 * @param pConfiguration
+	 *            The type mapping.
+	 * @param seed
+	 *            The seed of the documents.
+	 * @param pRecordSize
+	 *            The approximate number of characters of a record.
+	 * @param measureMillis
+	 *            The time spent converting each size with each engine.
+	 */
+	public EngineCalibration(Map<String, JsonConf> pConfiguration, long seed,
+			int pRecordSize, int measureMillis) {
+		// The records are under the document element.
+		configuration = new HashMap<String, JsonConf>();
+		for (Map.Entry<String, JsonConf> entry : pConfiguration.entrySet()) {
+			configuration.put(RECORDS + "." + entry.getKey(), entry.getValue());
+		}
+		generator = new CorpusGenerator(pConfiguration, seed);
+		recordSize = pRecordSize;
+		measureNanos = measureMillis * 1000000L;
+	}
+
+	/**
+	 * Make a document of records.
+	 *
+	 * @param size
+	 *            The approximate number of characters of the document.
+	 * @return The XML text.
+	 */
+	public String document(int size) {
+		generator.setSize(Math.min(size, recordSize));
+		StringBuilder sb = new StringBuilder(size + recordSize);
+		sb.append('<').append(RECORDS).append(">\n");
+		do {
+			String record = generator.next();
+			// Without the XML declaration.
+			sb.append(record, record.indexOf('\n') + 1, record.length());
+		} while (sb.length() < size);
+		sb.append("</").append(RECORDS).append(">\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Measure the mean time of a conversion with an engine.
+	 *
+	 * @return The time, in nanoseconds.
+	 * @throws JSONException
+	 *             If the document is rejected.
+	 */
+	public double measure(Engine engine, String xml) throws JSONException {
+		XmlToJsonService service = new XmlToJsonService(configuration);
+		service.setEngine(engine);
+		service.getEngineSelector().setMinRecords(1);
+		// Warm up, then convert for the time of a measure.
+		long end = System.nanoTime() + measureNanos / 2;
+		do {
+			service.toJSONObject(xml);
+		} while (System.nanoTime() < end);
+		long start = System.nanoTime();
+		long now;
+		int count = 0;
+		do {
+			service.toJSONObject(xml);
+			count += 1;
+			now = System.nanoTime();
+		} while (now - start < measureNanos);
+		return (double) (now - start) / count;
+	}
+
+	/**
+	 * Measure the engines on every size and set the thresholds of a
+	 * selector.
+	 *
+	 * @param selector
+	 *            The selector to calibrate.
+	 * @param minSize
+	 *            The size of the smallest document.
+	 * @param maxSize
+	 *            The size of the largest document; the sizes double from
+	 *            the smallest.
+	 * @param table
+	 *            Where to print the measures.
+	 * @throws JSONException
+	 *             If a document is rejected.
+	 */
+	public void calibrate(EngineSelector selector, int minSize, int maxSize,
+			Appendable table) throws JSONException, IOException {
+		int indexed = Integer.MAX_VALUE;
+		int parallel = Integer.MAX_VALUE;
+		boolean indexedWins = true;
+		boolean parallelWins = true;
+		table.append(String.format("# %10s %12s %12s %12s%n", "characters",
+				"DEFAULT us", "INDEXED us", "PARALLEL us"));
+		int[] sizes = new int[32];
+		double[][] nanos = new double[32][];
+		int n = 0;
+		for (long size = minSize; size <= maxSize; size <<= 1) {
+			String xml = document((int) size);
+			sizes[n] = xml.length();
+			nanos[n] = new double[] { measure(Engine.DEFAULT, xml),
+					measure(Engine.INDEXED, xml), measure(Engine.PARALLEL, xml) };
+			table.append(String.format("# %10d %12.1f %12.1f %12.1f%n",
+					Integer.valueOf(sizes[n]),
+					Double.valueOf(nanos[n][0] / 1000),
+					Double.valueOf(nanos[n][1] / 1000),
+					Double.valueOf(nanos[n][2] / 1000)));
+			n += 1;
+		}
+		// From the largest size down, while the engine keeps winning.
+		for (int i = n - 1; i >= 0; i -= 1) {
+			double[] t = nanos[i];
+			indexedWins &= t[1] < t[0];
+			parallelWins &= t[2] < Math.min(t[0], t[1]);
+			if (indexedWins) {
+				indexed = sizes[i];
+			}
+			if (parallelWins) {
+				parallel = sizes[i];
+			}
+		}
+		selector.setIndexedCharacters(indexed);
+		selector.setParallelCharacters(parallel);
+	}
+
+	/**
+	 * @param args
+	 *            <code>name=value</code> pairs: mapping (a resource of the
+	 *            classpath), seed, recordSize, minSize, maxSize and millis
+	 *            (the time of a measure).
+	 * @throws Exception
+	 *             If a document is rejected.
+	 */
+	public static void main(String[] args) throws Exception {
+		Options options = new Options(args);
+		Map<String, JsonConf> configuration = new ConfigurationMapEnumTypes(
+				options.take("mapping", BenchmarkDocuments.MAPPING))
+				.getProperties();
+		long seed = Long.parseLong(options.take("seed", "42"));
+		int recordSize = options.take("recordSize", 2048);
+		int minSize = options.take("minSize", 1024);
+		int maxSize = options.take("maxSize", 8 << 20);
+		int millis = options.take("millis", 500);
+		options.checkTaken();
+
+		EngineCalibration calibration = new EngineCalibration(configuration,
+				seed, recordSize, millis);
+		EngineSelector selector = new EngineSelector();
+		calibration.calibrate(selector, minSize, maxSize, System.out);
+		selector.toProperties().store(System.out,
+				"Thresholds of Engine.AUTO on "
+						+ Runtime.getRuntime().availableProcessors()
+						+ " processors");
+	}
+}
@@ -0,0 +1,404 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Runs every engine and mode of {@link XmlToJsonService} over a corpus,
+ * checks that each one writes the JSON text of
+ * <code>toJSONObject(xml).toString()</code> with the default engine, and
+ * prints their throughput, allocation and latency:
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.pagesjaunes.json.benchmarks.EngineComparison \
+ *     directory=corpus mapping=benchmark-mapping.properties passes=5
+ * </pre>
+ *
+ * Without a directory, a corpus is made by {@link CorpusGenerator}. A
+ * document that the default engine rejects must be rejected by the others
+ * as well. The process exits with status 1 when a mode does not match.
+ *
+ * @author pagesjaunes
+ */
+public class EngineComparison {
+
+	/**
+	 * A way of converting a document to JSON text.
+	 */
+	public enum Mode {
+
+		DEFAULT {
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		INDEXED {
+			void configure(XmlToJsonService service) {
+				service.setEngine(Engine.INDEXED);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		/**
+		 * The children of the document element converted as records, from two
+		 * of them.
+		 */
+		PARALLEL {
+			void configure(XmlToJsonService service) {
+				service.setEngine(Engine.PARALLEL);
+				service.getEngineSelector().setMinRecords(2);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		/** The engine chosen by the size of each document. */
+		AUTO {
+			void configure(XmlToJsonService service) {
+				service.setEngine(Engine.AUTO);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		/** The JSON text written to the builder of the conversion context. */
+		DEFAULT_STRING {
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONString(xml);
+			}
+		},
+
+		/** A conversion context per document instead of per thread. */
+		DEFAULT_NO_CONTEXT {
+			void configure(XmlToJsonService service) {
+				service.setContextMaxChars(0);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		DEFAULT_SLICES {
+			void configure(XmlToJsonService service) {
+				service.setSliceValues(true);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		INDEXED_SLICES {
+			void configure(XmlToJsonService service) {
+				service.setEngine(Engine.INDEXED);
+				service.setSliceValues(true);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		DEFAULT_LAZY_NUMBERS {
+			void configure(XmlToJsonService service) {
+				service.setLazyNumbers(true);
+			}
+
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONObject(xml).toString();
+			}
+		},
+
+		ON_DEMAND {
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.onDemand(xml).toJSONObject().toString();
+			}
+		},
+
+		TAPE {
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONTape(xml, false).toString();
+			}
+		},
+
+		TAPE_DIRECT {
+			String convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONTape(xml, true).toString();
+			}
+		};
+
+		/**
+		 * Set the options of the mode on a new service.
+		 */
+		void configure(XmlToJsonService service) {
+		}
+
+		abstract String convert(XmlToJsonService service, String xml)
+				throws JSONException;
+	}
+
+	/**
+	 * The measures of a mode over a corpus.
+	 */
+	public static final class Result {
+
+		final Mode mode;
+
+		int documents;
+
+		long bytes;
+
+		long nanos;
+
+		/** The bytes allocated, or -1 if the JVM cannot tell. */
+		long allocated;
+
+		long[] latencies;
+
+		int mismatches;
+
+		String firstMismatch;
+
+		Result(Mode pMode) {
+			mode = pMode;
+		}
+
+		public double documentsPerSecond() {
+			return documents * 1e9 / nanos;
+		}
+
+		public double megabytesPerSecond() {
+			return bytes * 1e3 / nanos;
+		}
+
+		public long allocatedPerDocument() {
+			return allocated < 0 ? -1 : allocated / documents;
+		}
+
+		/**
+		 * @param percent
+		 *            A percentile, such as 50 or 99.
+		 * @return The latency of a document at that percentile, in
+		 *         microseconds.
+		 */
+		public double latency(double percent) {
+			int i = (int) Math.ceil(percent / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, i)] / 1e3;
+		}
+
+		public int getMismatches() {
+			return mismatches;
+		}
+	}
+
+	private final Map<String, JsonConf> configuration;
+
+	private final String[] names;
+
+	private final String[] documents;
+
+	private final long[] sizes;
+
+	private final String[] expected;
+
+	/**
+	 * @param pConfiguration
+	 *            The type mapping.
+	 * @param pNames
+	 *            The names of the documents, for the report.
+	 * @param pDocuments
+	 *            The XML texts of the corpus.
+	 */
+	public EngineComparison(Map<String, JsonConf> pConfiguration,
+			String[] pNames, String[] pDocuments) {
+		configuration = pConfiguration;
+		names = pNames;
+		documents = pDocuments;
+		sizes = new long[pDocuments.length];
+		expected = new String[pDocuments.length];
+		XmlToJsonService baseline = new XmlToJsonService(pConfiguration);
+		for (int i = 0; i < pDocuments.length; i += 1) {
+			sizes[i] = Corpus.utf8Length(pDocuments[i]);
+			try {
+				expected[i] = baseline.toJSONObject(pDocuments[i]).toString();
+			} catch (JSONException e) {
+				expected[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Check and measure a mode.
+	 *
+	 * @param mode
+	 *            The mode.
+	 * @param warmups
+	 *            The number of passes over the corpus before measuring.
+	 * @param passes
+	 *            The number of measured passes.
+	 * @return The measures.
+	 */
+	public Result run(Mode mode, int warmups, int passes) {
+		XmlToJsonService service = new XmlToJsonService(configuration);
+		mode.configure(service);
+		Result result = new Result(mode);
+		for (int i = 0; i < documents.length; i += 1) {
+			String json;
+			try {
+				json = mode.convert(service, documents[i]);
+			} catch (JSONException e) {
+				json = null;
+			}
+			if (json == null ? expected[i] != null : !json.equals(expected[i])) {
+				result.mismatches += 1;
+				if (result.firstMismatch == null) {
+					result.firstMismatch = names[i];
+				}
+			}
+		}
+		for (int n = 0; n < warmups; n += 1) {
+			pass(mode, service, null, 0);
+		}
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads)
+						.isThreadAllocatedMemorySupported() ? (com.sun.management.ThreadMXBean) threads
+				: null;
+		long thread = Thread.currentThread().getId();
+		long[] latencies = new long[documents.length * passes];
+		long allocated = allocation == null ? 0 : allocation
+				.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int n = 0; n < passes; n += 1) {
+			pass(mode, service, latencies, n * documents.length);
+		}
+		result.nanos = System.nanoTime() - start;
+		result.allocated = allocation == null ? -1 : allocation
+				.getThreadAllocatedBytes(thread) - allocated;
+		Arrays.sort(latencies);
+		result.latencies = latencies;
+		result.documents = documents.length * passes;
+		for (long size : sizes) {
+			result.bytes += size * passes;
+		}
+		return result;
+	}
+
+	private void pass(Mode mode, XmlToJsonService service, long[] latencies,
+			int offset) {
+		for (int i = 0; i < documents.length; i += 1) {
+			long start = System.nanoTime();
+			try {
+				mode.convert(service, documents[i]);
+			} catch (JSONException ignore) {
+				// Checked before measuring.
+			}
+			if (latencies != null) {
+				latencies[offset + i] = System.nanoTime() - start;
+			}
+		}
+	}
+
+	/**
+	 * Print the table of the results.
+	 *
+	 * @param out
+	 *            Where to print.
+	 * @param results
+	 *            The results of the modes.
+	 */
+	public static void print(PrintStream out, List<Result> results) {
+		out.println(String.format("%-22s %10s %9s %13s %10s %10s  %s",
+				"mode", "docs/s", "MB/s", "alloc B/doc", "p50 us", "p99 us",
+				"parity"));
+		for (Result result : results) {
+			out.println(String.format(
+					"%-22s %10.1f %9.2f %13d %10.1f %10.1f  %s",
+					result.mode, Double.valueOf(result.documentsPerSecond()),
+					Double.valueOf(result.megabytesPerSecond()),
+					Long.valueOf(result.allocatedPerDocument()),
+					Double.valueOf(result.latency(50)),
+					Double.valueOf(result.latency(99)),
+					result.mismatches == 0 ? "ok" : result.mismatches
+							+ " mismatches, first " + result.firstMismatch));
+		}
+	}
+
+	/**
+	 * @param args
+	 *            <code>name=value</code> pairs: directory (the corpus, as
+	 *            <code>.xml</code> files; generated when absent), mapping (a
+	 *            resource of the classpath), modes (a comma separated list,
+	 *            all of them by default), warmups and passes.
+	 * @throws IOException
+	 *             If the corpus cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		Options options = new Options(args);
+		Map<String, JsonConf> configuration = new ConfigurationMapEnumTypes(
+				options.take("mapping", BenchmarkDocuments.MAPPING))
+				.getProperties();
+		String directory = options.take("directory", null);
+		String modes = options.take("modes", null);
+		int warmups = options.take("warmups", 3);
+		int passes = options.take("passes", 5);
+		options.checkTaken();
+
+		Corpus corpus = Corpus.load(directory, configuration, 100);
+		EngineComparison comparison = new EngineComparison(configuration,
+				corpus.names, corpus.documents);
+		List<Mode> selected = new ArrayList<Mode>();
+		if (modes == null) {
+			selected.addAll(Arrays.asList(Mode.values()));
+		} else {
+			for (String mode : modes.split(",")) {
+				selected.add(Mode.valueOf(mode.trim()));
+			}
+		}
+		List<Result> results = new ArrayList<Result>();
+		boolean parity = true;
+		for (Mode mode : selected) {
+			Result result = comparison.run(mode, warmups, passes);
+			results.add(result);
+			parity &= result.mismatches == 0;
+		}
+		System.out.println(corpus.documents.length + " documents");
+		print(System.out, results);
+		if (!parity) {
+			System.exit(1);
+		}
+	}
+}
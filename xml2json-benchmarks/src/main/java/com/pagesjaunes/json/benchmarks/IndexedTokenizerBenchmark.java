@@ -0,0 +1,93 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.XMLStructuralIndex;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Compares the {@link Engine#DEFAULT} tokenizer with the two-stage
+ * {@link Engine#INDEXED} one, and measures the first stage on its own.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexedTokenizerBenchmark {
+
+	/** Number of listings in the document. */
+	@Param({ "10", "1000" })
+	public int listings;
+
+	/** Number of characters of free text in each listing. */
+	@Param({ "16", "1024" })
+	public int textLength;
+
+	private String xml;
+
+	private char[] buffer;
+
+	private XmlToJsonService defaultService;
+
+	private XmlToJsonService indexedService;
+
+	@Setup
+	public void setup() {
+		defaultService = new XmlToJsonService(new HashMap<String, JsonConf>());
+		indexedService = new XmlToJsonService(new HashMap<String, JsonConf>());
+		indexedService.setEngine(Engine.INDEXED);
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder("<listings>");
+		for (int i = 0; i < listings; i += 1) {
+			sb.append("<listing id=\"").append(i).append("\" type=\"shop\">");
+			sb.append("<name>Listing ").append(i).append("</name>");
+			sb.append("<address city=\"Paris\" zip=\"75001\"/>");
+			sb.append("<description>");
+			for (int j = 0; j < textLength; j += 1) {
+				sb.append(random.nextInt(6) == 0 ? ' '
+						: (char) ('a' + random.nextInt(26)));
+			}
+			sb.append("</description></listing>");
+		}
+		sb.append("</listings>");
+		xml = sb.toString();
+		buffer = xml.toCharArray();
+	}
+
+	@Benchmark
+	public JSONObject defaultEngine() throws JSONException {
+		return defaultService.toJSONObject(xml);
+	}
+
+	@Benchmark
+	public JSONObject indexedEngine() throws JSONException {
+		return indexedService.toJSONObject(xml);
+	}
+
+	@Benchmark
+	public XMLStructuralIndex indexOnly() {
+		return new XMLStructuralIndex(buffer, 0, buffer.length);
+	}
+}
@@ -0,0 +1,319 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Drives a service at a fixed rate from several threads and records the
+ * latency of each conversion in HdrHistograms, to see the tail latency
+ * under a real request rate:
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.pagesjaunes.json.benchmarks.LoadGenerator \
+ *     directory=corpus mapping=benchmark-mapping.properties rate=2000 threads=1,4,16
+ * </pre>
+ *
+ * The load is open: each thread starts its conversions on a schedule, one
+ * every <code>threads / rate</code> seconds, whether the previous one has
+ * completed or not. When a conversion is late, the next ones start as soon
+ * as possible and their latency is measured from the time they should have
+ * started, so that a pause of the JVM counts for every conversion it
+ * delayed, as it would for the requests queued behind it; measuring from
+ * the actual start would hide them (the coordinated omission). The service
+ * time, from the actual start, is reported as well.
+ *
+ * @author pagesjaunes
+ */
+public class LoadGenerator {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+	/**
+	 * The latencies of a run.
+	 */
+	public static final class Result {
+
+		final int threads;
+
+		/** The latency from the intended start of the conversions. */
+		final Histogram latency;
+
+		/** The latency from the actual start of the conversions. */
+		final Histogram serviceTime;
+
+		/** The time from the start of the recording to the last conversion. */
+		final long nanos;
+
+		/** The conversions of the recording that failed. */
+		final long errors;
+
+		Result(int pThreads, Histogram pLatency, Histogram pServiceTime,
+				long pNanos, long pErrors) {
+			threads = pThreads;
+			latency = pLatency;
+			serviceTime = pServiceTime;
+			nanos = pNanos;
+			errors = pErrors;
+		}
+
+		public Histogram getLatency() {
+			return latency;
+		}
+
+		public Histogram getServiceTime() {
+			return serviceTime;
+		}
+
+		/**
+		 * @return The number of conversions completed per second, from the
+		 *         start of the recording to the last conversion.
+		 */
+		public double achievedRate() {
+			return latency.getTotalCount() * 1e9 / nanos;
+		}
+	}
+
+	private final XmlToJsonService service;
+
+	private final EngineComparison.Mode mode;
+
+	private final String[] documents;
+
+	/**
+	 * @param pConfiguration
+	 *            The type mapping.
+	 * @param pMode
+	 *            How the documents are converted.
+	 * @param pDocuments
+	 *            The XML texts of the corpus, converted in turn by each
+	 *            thread.
+	 */
+	public LoadGenerator(Map<String, JsonConf> pConfiguration,
+			EngineComparison.Mode pMode, String[] pDocuments) {
+		service = new XmlToJsonService(pConfiguration);
+		pMode.configure(service);
+		mode = pMode;
+		documents = pDocuments;
+	}
+
+	/**
+	 * Run a load.
+	 *
+	 * @param threads
+	 *            The number of threads sharing the service.
+	 * @param rate
+	 *            The number of conversions started per second by all the
+	 *            threads.
+	 * @param warmup
+	 *            The duration of the load before recording, in seconds.
+	 * @param duration
+	 *            The duration of the recording, in seconds.
+	 * @return The latencies.
+	 * @throws InterruptedException
+	 *             If the calling thread is interrupted.
+	 */
+	public Result run(int threads, double rate, int warmup, int duration)
+			throws InterruptedException {
+		final Recorder latency = new Recorder(3);
+		final Recorder serviceTime = new Recorder(3);
+		final long interval = (long) (threads * 1e9 / rate);
+		final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+		final long recording = start + TimeUnit.SECONDS.toNanos(warmup);
+		final long end = recording + TimeUnit.SECONDS.toNanos(duration);
+		final long[] errors = new long[threads];
+		final long[] finished = new long[threads];
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t += 1) {
+			final int thread = t;
+			Thread worker = new Thread("load-" + t) {
+				public void run() {
+					try {
+						// The threads start their schedules evenly spread
+						// over the first interval.
+						long intended = start + interval * thread / threads;
+						int next = thread % documents.length;
+						while (intended < end) {
+							long now = waitUntil(intended);
+							boolean failed = false;
+							try {
+								mode.convert(service, documents[next]);
+							} catch (JSONException e) {
+								failed = true;
+							}
+							long completed = System.nanoTime();
+							if (intended >= recording) {
+								latency.recordValue(completed - intended);
+								serviceTime.recordValue(completed - now);
+								if (failed) {
+									errors[thread] += 1;
+								}
+							}
+							finished[thread] = completed;
+							next = (next + 1) % documents.length;
+							intended += interval;
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+		done.await();
+		long failed = 0;
+		for (long e : errors) {
+			failed += e;
+		}
+		// A thread running late still converts every slot of its schedule,
+		// so the rate is measured up to the last conversion completed.
+		long last = end;
+		for (long f : finished) {
+			last = Math.max(last, f);
+		}
+		return new Result(threads, latency.getIntervalHistogram(),
+				serviceTime.getIntervalHistogram(), last - recording, failed);
+	}
+
+	/**
+	 * Wait for a time, parking while it is far and spinning when it is
+	 * close, since a park may last longer than asked.
+	 *
+	 * @return The current time.
+	 */
+	private static long waitUntil(long time) {
+		long now = System.nanoTime();
+		while (now < time) {
+			long remaining = time - now;
+			if (remaining > 100000) {
+				LockSupport.parkNanos(remaining - 50000);
+			} else {
+				Thread.yield();
+			}
+			now = System.nanoTime();
+		}
+		return now;
+	}
+
+	/**
+	 * Print the table of the results, in microseconds.
+	 *
+	 * @param out
+	 *            Where to print.
+	 * @param rate
+	 *            The target rate.
+	 * @param results
+	 *            The results of the runs.
+	 */
+	public static void print(PrintStream out, double rate, List<Result> results) {
+		StringBuilder header = new StringBuilder(String.format(
+				"%-8s %-8s %10s %10s", "threads", "measure", "target/s",
+				"achieved/s"));
+		for (double percentile : PERCENTILES) {
+			header.append(String.format(" %10s", "p" + format(percentile)));
+		}
+		header.append(String.format(" %10s %8s", "max", "errors"));
+		out.println(header);
+		for (Result result : results) {
+			row(out, result, "latency", result.latency, rate);
+			row(out, result, "service", result.serviceTime, rate);
+		}
+	}
+
+	private static void row(PrintStream out, Result result, String measure,
+			Histogram histogram, double rate) {
+		StringBuilder sb = new StringBuilder(String.format(
+				"%-8d %-8s %10.0f %10.1f", Integer.valueOf(result.threads),
+				measure, Double.valueOf(rate),
+				Double.valueOf(result.achievedRate())));
+		for (double percentile : PERCENTILES) {
+			sb.append(String.format(" %10.1f", Double.valueOf(histogram
+					.getValueAtPercentile(percentile) / 1e3)));
+		}
+		sb.append(String.format(" %10.1f %8d",
+				Double.valueOf(histogram.getMaxValue() / 1e3),
+				Long.valueOf(result.errors)));
+		out.println(sb);
+	}
+
+	private static String format(double percentile) {
+		return percentile == Math.rint(percentile) ? String.valueOf((long) percentile)
+				: String.valueOf(percentile);
+	}
+
+	/**
+	 * @param args
+	 *            <code>name=value</code> pairs: directory (the corpus, as
+	 *            <code>.xml</code> files; generated when absent), mapping (a
+	 *            resource of the classpath), mode (one of
+	 *            {@link EngineComparison.Mode}), rate (the conversions per
+	 *            second of all the threads), threads (a comma separated list
+	 *            of thread counts, run in turn), warmup and duration (in
+	 *            seconds), and histograms (a prefix of the files where the
+	 *            percentile distributions are written, in the format of the
+	 *            HdrHistogram plotter).
+	 * @throws IOException
+	 *             If the corpus cannot be read.
+	 * @throws InterruptedException
+	 *             If the main thread is interrupted.
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		Options options = new Options(args);
+		Map<String, JsonConf> configuration = new ConfigurationMapEnumTypes(
+				options.take("mapping", BenchmarkDocuments.MAPPING))
+				.getProperties();
+		String directory = options.take("directory", null);
+		EngineComparison.Mode mode = EngineComparison.Mode.valueOf(options
+				.take("mode", "DEFAULT"));
+		double rate = Double.parseDouble(options.take("rate", "1000"));
+		String threads = options.take("threads", "1,2,4");
+		int warmup = options.take("warmup", 10);
+		int duration = options.take("duration", 30);
+		String histograms = options.take("histograms", null);
+		options.checkTaken();
+
+		Corpus corpus = Corpus.load(directory, configuration, 100);
+		LoadGenerator generator = new LoadGenerator(configuration, mode,
+				corpus.documents);
+		List<Result> results = new ArrayList<Result>();
+		for (String count : threads.split(",")) {
+			Result result = generator.run(Integer.parseInt(count.trim()),
+					rate, warmup, duration);
+			results.add(result);
+			if (histograms != null) {
+				write(histograms + "-" + result.threads + ".hgrm",
+						result.latency);
+			}
+		}
+		System.out.println(corpus.documents.length + " documents, mode "
+				+ mode + ", latencies in microseconds");
+		print(System.out, rate, results);
+	}
+
+	private static void write(String file, Histogram histogram)
+			throws FileNotFoundException {
+		PrintStream out = new PrintStream(file);
+		try {
+			// Microseconds, as the table.
+			histogram.outputPercentileDistribution(out, Double.valueOf(1e3));
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The <code>name=value</code> arguments of the command line tools of the
+ * module.
+ *
+ * @author pagesjaunes
+ */
+final class Options {
+
+	private final Map<String, String> values = new TreeMap<String, String>();
+
+	Options(String[] args) {
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq < 0) {
+				throw new IllegalArgumentException("Expected name=value: "
+						+ arg);
+			}
+			values.put(arg.substring(0, eq), arg.substring(eq + 1));
+		}
+	}
+
+	/**
+	 * Take an option.
+	 *
+	 * @return The value, or the default when the option is absent.
+	 */
+	String take(String name, String defaultValue) {
+		String value = values.remove(name);
+		return value == null ? defaultValue : value;
+	}
+
+	int take(String name, int defaultValue) {
+		String value = values.remove(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	/**
+	 * Check that every option was taken.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If an option is unknown.
+	 */
+	void checkTaken() {
+		if (!values.isEmpty()) {
+			throw new IllegalArgumentException("Unknown options "
+					+ values.keySet());
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures the heap retained by the converted documents of a corpus, for
+ * each of the representations the service can build, to size the caches
+ * that hold them:
+ *
+ * <pre>
+ * java -XX:+UseSerialGC -cp benchmarks.jar com.pagesjaunes.json.benchmarks.RetainedMemory \
+ *     directory=corpus mapping=benchmark-mapping.properties copies=10
+ * </pre>
+ *
+ * The corpus is converted <code>copies</code> times and every document is
+ * held; the retained heap is the difference of the used heap, read from the
+ * {@link MemoryMXBean} after full collections, before and after the
+ * conversions. The memory of the direct buffers is read from the
+ * {@link BufferPoolMXBean} of the direct pool. A {@link TreeSizeEstimator}
+ * walks the documents of another conversion of the corpus, to tell what the
+ * heap is made of and to check the measure.
+ * <p>
+ * The measure is only as precise as the heap usage reported by the
+ * collector; a serial collector and enough copies for the documents to fill
+ * a few tens of megabytes give stable numbers.
+ *
+ * @author pagesjaunes
+ */
+public class RetainedMemory {
+
+	/**
+	 * A representation of the converted documents.
+	 */
+	public enum Representation {
+
+		TREE,
+
+		TREE_LAZY_NUMBERS {
+			void configure(XmlToJsonService service) {
+				service.setLazyNumbers(true);
+			}
+		},
+
+		/** The values are slices of the source, which they keep reachable. */
+		TREE_SLICES {
+			void configure(XmlToJsonService service) {
+				service.setSliceValues(true);
+			}
+
+			boolean keepsSource() {
+				return true;
+			}
+		},
+
+		TAPE {
+			Object convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONTape(xml, false);
+			}
+		},
+
+		TAPE_DIRECT {
+			Object convert(XmlToJsonService service, String xml)
+					throws JSONException {
+				return service.toJSONTape(xml, true);
+			}
+		};
+
+		/**
+		 * Set the options of the representation on a new service.
+		 */
+		void configure(XmlToJsonService service) {
+		}
+
+		Object convert(XmlToJsonService service, String xml)
+				throws JSONException {
+			return service.toJSONObject(xml);
+		}
+
+		boolean keepsSource() {
+			return false;
+		}
+	}
+
+	/**
+	 * The memory retained by the documents of a representation.
+	 */
+	public static final class Result {
+
+		final Representation representation;
+
+		int documents;
+
+		long inputBytes;
+
+		long heapBytes;
+
+		long directBytes;
+
+		TreeSizeEstimator estimate;
+
+		int estimatedDocuments;
+
+		Result(Representation pRepresentation) {
+			representation = pRepresentation;
+		}
+
+		/** @return The measured heap retained by a document, in bytes. */
+		public double heapPerDocument() {
+			return (double) heapBytes / documents;
+		}
+
+		/** @return The measured heap retained per byte of UTF-8 input. */
+		public double heapPerInputByte() {
+			return (double) heapBytes / inputBytes;
+		}
+
+		/** @return The measured direct memory of a document, in bytes. */
+		public double directPerDocument() {
+			return (double) directBytes / documents;
+		}
+
+		/** @return The estimated heap retained by a document, in bytes. */
+		public double estimatePerDocument() {
+			return (double) estimate.getHeapBytes() / estimatedDocuments;
+		}
+
+		/** @return The estimated heap retained per byte of UTF-8 input. */
+		public double estimatePerInputByte() {
+			return estimatePerDocument() * documents / inputBytes;
+		}
+
+		/** @return The structure of the documents. */
+		public TreeSizeEstimator getEstimate() {
+			return estimate;
+		}
+	}
+
+	/** Keeps the documents reachable while the heap is measured. */
+	private static volatile Object held;
+
+	private final Map<String, JsonConf> configuration;
+
+	private final String[] documents;
+
+	private final long[] sizes;
+
+	/**
+	 * @param pConfiguration
+	 *            The type mapping.
+	 * @param pDocuments
+	 *            The XML texts of the corpus.
+	 */
+	public RetainedMemory(Map<String, JsonConf> pConfiguration,
+			String[] pDocuments) {
+		configuration = pConfiguration;
+		documents = pDocuments;
+		sizes = new long[pDocuments.length];
+		for (int i = 0; i < pDocuments.length; i += 1) {
+			sizes[i] = Corpus.utf8Length(pDocuments[i]);
+		}
+	}
+
+	/**
+	 * Measure a representation.
+	 *
+	 * @param representation
+	 *            The representation.
+	 * @param copies
+	 *            The number of times the corpus is converted and held.
+	 * @return The measures. The documents that cannot be converted are left
+	 *         out.
+	 */
+	public Result run(Representation representation, int copies) {
+		XmlToJsonService service = new XmlToJsonService(configuration);
+		representation.configure(service);
+		// The conversion context of the thread, its trie of paths and the
+		// names cached by the tokeners belong to the service, not to the
+		// documents: they are made before the first measure.
+		for (String document : documents) {
+			convert(representation, service, document);
+		}
+
+		Result result = new Result(representation);
+		Object[] documentsHeld = new Object[documents.length * copies];
+		collect();
+		long heap = usedHeap();
+		long direct = directMemory();
+		for (int n = 0; n < copies; n += 1) {
+			for (int i = 0; i < documents.length; i += 1) {
+				documentsHeld[n * documents.length + i] = convert(
+						representation, service, documents[i]);
+			}
+		}
+		held = documentsHeld;
+		collect();
+		result.heapBytes = usedHeap() - heap;
+		result.directBytes = directMemory() - direct;
+		for (int i = 0; i < documents.length; i += 1) {
+			if (documentsHeld[i] != null) {
+				result.documents += copies;
+				result.inputBytes += sizes[i] * copies;
+			}
+		}
+		held = null;
+		documentsHeld = null;
+
+		result.estimate = new TreeSizeEstimator();
+		for (String document : documents) {
+			Object converted = convert(representation, service, document);
+			if (converted != null) {
+				result.estimate.add(converted);
+				if (representation.keepsSource()) {
+					result.estimate.addCharArray(document.length());
+				}
+				result.estimatedDocuments += 1;
+			}
+		}
+		return result;
+	}
+
+	private static Object convert(Representation representation,
+			XmlToJsonService service, String document) {
+		try {
+			return representation.convert(service, document);
+		} catch (JSONException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Make full collections until neither the used heap nor the direct memory
+	 * shrink. The direct buffers are freed by their cleaners after the
+	 * collection that found them unreachable.
+	 */
+	private static void collect() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long heap = Long.MAX_VALUE;
+		long direct = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i += 1) {
+			memory.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			long usedHeap = usedHeap();
+			long usedDirect = directMemory();
+			if (usedHeap >= heap && usedDirect >= direct) {
+				return;
+			}
+			heap = usedHeap;
+			direct = usedDirect;
+		}
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	private static long directMemory() {
+		for (BufferPoolMXBean pool : ManagementFactory
+				.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Print the table of the results.
+	 *
+	 * @param out
+	 *            Where to print.
+	 * @param results
+	 *            The results of the representations.
+	 */
+	public static void print(PrintStream out, List<Result> results) {
+		out.println(String.format(
+				"%-18s %12s %8s %12s %8s %12s %9s %9s %9s %9s %9s",
+				"representation", "heap B/doc", "B/in", "estim B/doc",
+				"B/in", "direct B/doc", "objects", "arrays", "entries",
+				"strings", "numbers"));
+		for (Result result : results) {
+			TreeSizeEstimator estimate = result.estimate;
+			double n = result.estimatedDocuments;
+			out.println(String.format(
+					"%-18s %12.0f %8.2f %12.0f %8.2f %12.0f %9.1f %9.1f %9.1f %9.1f %9.1f",
+					result.representation,
+					Double.valueOf(result.heapPerDocument()),
+					Double.valueOf(result.heapPerInputByte()),
+					Double.valueOf(result.estimatePerDocument()),
+					Double.valueOf(result.estimatePerInputByte()),
+					Double.valueOf(result.directPerDocument()),
+					Double.valueOf(estimate.getObjects() / n),
+					Double.valueOf(estimate.getArrays() / n),
+					Double.valueOf(estimate.getEntries() / n),
+					Double.valueOf(estimate.getStrings() / n),
+					Double.valueOf(estimate.getNumbers() / n)));
+		}
+	}
+
+	/**
+	 * @param args
+	 *            <code>name=value</code> pairs: directory (the corpus, as
+	 *            <code>.xml</code> files; generated when absent), mapping (a
+	 *            resource of the classpath), representations (a comma
+	 *            separated list, all of them by default) and copies.
+	 * @throws IOException
+	 *             If the corpus cannot be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		Options options = new Options(args);
+		Map<String, JsonConf> configuration = new ConfigurationMapEnumTypes(
+				options.take("mapping", BenchmarkDocuments.MAPPING))
+				.getProperties();
+		String directory = options.take("directory", null);
+		String representations = options.take("representations", null);
+		int copies = options.take("copies", 10);
+		options.checkTaken();
+
+		Corpus corpus = Corpus.load(directory, configuration, 100);
+		RetainedMemory retainedMemory = new RetainedMemory(configuration,
+				corpus.documents);
+		List<Representation> selected = new ArrayList<Representation>();
+		if (representations == null) {
+			selected.addAll(Arrays.asList(Representation.values()));
+		} else {
+			for (String representation : representations.split(",")) {
+				selected.add(Representation.valueOf(representation.trim()));
+			}
+		}
+		List<Result> results = new ArrayList<Result>();
+		for (Representation representation : selected) {
+			results.add(retainedMemory.run(representation, copies));
+		}
+		System.out.println(corpus.documents.length + " documents, "
+				+ corpus.bytes() + " bytes, " + copies + " copies");
+		print(System.out, results);
+	}
+}
@@ -0,0 +1,98 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures the writing of JSON text on its own: {@link JSONObject#toString()}
+ * of converted documents, and {@link JSONObject#quote(String)} of strings
+ * needing more or less escaping.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Document {
+
+		@Param({ "attributes", "text", "typed" })
+		public String shape;
+
+		private JSONObject jsonObject;
+
+		@Setup
+		public void setup() throws JSONException {
+			XmlToJsonService service = new XmlToJsonService(
+					new ConfigurationMapEnumTypes(BenchmarkDocuments.MAPPING)
+							.getProperties());
+			jsonObject = service.toJSONObject(BenchmarkDocuments.build(
+					"medium", shape));
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Text {
+
+		/**
+		 * The characters of the string: plain ASCII, ASCII with quotes,
+		 * backslashes and control characters, or accented Latin-1 letters.
+		 */
+		@Param({ "plain", "escaped", "latin1" })
+		public String characters;
+
+		/** Number of characters of the string. */
+		@Param({ "16", "1024" })
+		public int length;
+
+		private String string;
+
+		@Setup
+		public void setup() {
+			Random random = new Random(42);
+			StringBuilder sb = new StringBuilder(length);
+			for (int i = 0; i < length; i += 1) {
+				char c = (char) ('a' + random.nextInt(26));
+				if ("escaped".equals(characters) && random.nextInt(8) == 0) {
+					c = "\"\\\n\t/".charAt(random.nextInt(5));
+				} else if ("latin1".equals(characters)
+						&& random.nextInt(4) == 0) {
+					c = (char) ('\u00e0' + random.nextInt(28));
+				}
+				sb.append(c);
+			}
+			string = sb.toString();
+		}
+	}
+
+	@Benchmark
+	public String toJSONString(Document document) {
+		return document.jsonObject.toString();
+	}
+
+	@Benchmark
+	public String quote(Text text) {
+		return JSONObject.quote(text.string);
+	}
+}
@@ -0,0 +1,104 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.XMLTokener;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures the conversion of text-heavy documents: a few elements holding
+ * long paragraphs, with a configurable share of entities in the text.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextContentBenchmark {
+
+	/** Number of characters in each text node. */
+	@Param({ "64", "4096" })
+	public int textLength;
+
+	/** Number of entities per thousand characters of text. */
+	@Param({ "0", "10" })
+	public int entityDensity;
+
+	private String xml;
+
+	private XmlToJsonService service;
+
+	private XmlToJsonService slicingService;
+
+	@Setup
+	public void setup() {
+		service = new XmlToJsonService(new HashMap<String, JsonConf>());
+		slicingService = new XmlToJsonService(new HashMap<String, JsonConf>());
+		slicingService.setSliceValues(true);
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder("<bloc>");
+		for (int i = 0; i < 32; i += 1) {
+			sb.append("<paragraph>\n    ");
+			for (int j = 0; j < textLength; j += 1) {
+				if (random.nextInt(1000) < entityDensity) {
+					sb.append("&amp;");
+				} else if (random.nextInt(8) == 0) {
+					sb.append(' ');
+				} else {
+					sb.append((char) ('a' + random.nextInt(26)));
+				}
+			}
+			sb.append("\n  </paragraph>");
+		}
+		sb.append("</bloc>");
+		xml = sb.toString();
+	}
+
+	@Benchmark
+	public JSONObject toJSONObject() throws JSONException {
+		return service.toJSONObject(xml);
+	}
+
+	@Benchmark
+	public String toJSONString() throws JSONException {
+		return service.toJSONObject(xml).toString();
+	}
+
+	@Benchmark
+	public String toJSONStringSliceValues() throws JSONException {
+		return slicingService.toJSONObject(xml).toString();
+	}
+
+	@Benchmark
+	public void nextContent(Blackhole blackhole) throws JSONException {
+		XMLTokener x = new XMLTokener(xml);
+		Object token;
+		while ((token = x.nextContent()) != null) {
+			blackhole.consume(token);
+			if (token == XmlToJsonService.LT) {
+				x.skipPast(">");
+			}
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.pagesjaunes.json.CharSlice;
+import com.pagesjaunes.json.JSONArray;
+import com.pagesjaunes.json.JSONBooleanArray;
+import com.pagesjaunes.json.JSONDoubleArray;
+import com.pagesjaunes.json.JSONLazyNumber;
+import com.pagesjaunes.json.JSONLongArray;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.JSONTape;
+
+/**
+ * Estimates the heap retained by converted documents by walking their trees
+ * and adding up the shallow sizes of the objects they are made of: the
+ * JSONObjects and their LinkedHashMap, table and entries, the JSONArrays and
+ * their ArrayList or primitive array, the Strings and their characters, the
+ * numbers, and so on. An object reachable from several documents, such as
+ * a key taken from the name cache of a tokener or Boolean.TRUE, is counted
+ * once.
+ * <p>
+ * The sizes are those of a 64 bit HotSpot JVM with compressed references,
+ * its default below 32 GB of heap: 12 byte headers, 4 byte references and
+ * objects aligned on 8 bytes. The capacities of the maps and lists are
+ * inferred from their sizes, as if they had grown one value at a time.
+ * <p>
+ * The walk calls the public methods of the values only, which may box a
+ * primitive or cache a text, so it should not be made on the trees whose
+ * retained heap is being measured.
+ *
+ * @author pagesjaunes
+ */
+public final class TreeSizeEstimator {
+
+	private static final boolean COMPACT_STRINGS = !System.getProperty(
+			"java.specification.version").startsWith("1.");
+
+	private final Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+
+	private long objects;
+
+	private long arrays;
+
+	private long entries;
+
+	private long strings;
+
+	private long numbers;
+
+	private long others;
+
+	private long heapBytes;
+
+	private long directBytes;
+
+	/**
+	 * Add a converted document.
+	 *
+	 * @param document
+	 *            A JSONObject, or a JSONTape.
+	 */
+	public void add(Object document) {
+		value(document);
+	}
+
+	/**
+	 * Add a character array kept reachable by the documents, such as the
+	 * source buffer that the {@link CharSlice} values of a document point
+	 * into.
+	 *
+	 * @param length
+	 *            The length of the array.
+	 */
+	public void addCharArray(int length) {
+		heapBytes += align(16 + 2L * length);
+	}
+
+	/** @return The number of JSONObjects. */
+	public long getObjects() {
+		return objects;
+	}
+
+	/** @return The number of JSONArrays. */
+	public long getArrays() {
+		return arrays;
+	}
+
+	/** @return The number of members of the JSONObjects. */
+	public long getEntries() {
+		return entries;
+	}
+
+	/** @return The number of Strings and slices. */
+	public long getStrings() {
+		return strings;
+	}
+
+	/** @return The number of numbers, including the primitive ones. */
+	public long getNumbers() {
+		return numbers;
+	}
+
+	/** @return The number of the other values, such as booleans and dates. */
+	public long getOthers() {
+		return others;
+	}
+
+	/** @return The estimated heap, in bytes. */
+	public long getHeapBytes() {
+		return heapBytes;
+	}
+
+	/** @return The memory of the direct buffers, in bytes. */
+	public long getDirectBytes() {
+		return directBytes;
+	}
+
+	private void value(Object value) {
+		if (value == null || seen.put(value, Boolean.TRUE) != null) {
+			return;
+		}
+		if (value instanceof JSONObject) {
+			object((JSONObject) value);
+		} else if (value instanceof JSONArray) {
+			array((JSONArray) value);
+		} else if (value instanceof String) {
+			strings += 1;
+			heapBytes += string(((String) value).length());
+		} else if (value instanceof CharSlice) {
+			// The characters are those of the source buffer.
+			strings += 1;
+			heapBytes += 32;
+		} else if (value instanceof JSONLazyNumber) {
+			numbers += 1;
+			heapBytes += 48 + string(value.toString().length());
+		} else if (value instanceof BigDecimal) {
+			numbers += 1;
+			heapBytes += 40;
+			BigInteger unscaled = ((BigDecimal) value).unscaledValue();
+			if (unscaled.bitLength() > 63) {
+				heapBytes += bigInteger(unscaled);
+			}
+		} else if (value instanceof BigInteger) {
+			numbers += 1;
+			heapBytes += bigInteger((BigInteger) value);
+		} else if (value instanceof Number) {
+			numbers += 1;
+			heapBytes += 16;
+		} else if (value instanceof Date) {
+			others += 1;
+			heapBytes += 24;
+		} else if (value instanceof JSONTape) {
+			JSONTape tape = (JSONTape) value;
+			// The tape, its ByteBuffer and, for a direct buffer, its
+			// cleaner.
+			others += 1;
+			if (tape.isDirect()) {
+				heapBytes += 24 + 64 + 48;
+				directBytes += tape.size();
+			} else {
+				heapBytes += 24 + 56 + align(16L + tape.size());
+			}
+		} else {
+			others += 1;
+			heapBytes += 16;
+		}
+	}
+
+	private void object(JSONObject jo) {
+		objects += 1;
+		int size = jo.length();
+		// The JSONObject and its LinkedHashMap.
+		heapBytes += 16 + 56;
+		if (size > 0) {
+			int capacity = 16;
+			while (size > capacity * 3 / 4) {
+				capacity <<= 1;
+			}
+			heapBytes += align(16 + 4L * capacity) + 40L * size;
+		}
+		entries += size;
+		Iterator<?> keys = jo.keys();
+		while (keys.hasNext()) {
+			Object key = keys.next();
+			value(key);
+			value(jo.opt(key.toString()));
+		}
+	}
+
+	private void array(JSONArray ja) {
+		arrays += 1;
+		int length = ja.length();
+		if (isPrimitive(ja)) {
+			// The JSONArray, its size and flags, and the primitives.
+			heapBytes += 24;
+			if (ja instanceof JSONBooleanArray) {
+				others += length;
+				heapBytes += 24 + align(16 + 8L * Math.max(1, (length + 63) / 64));
+			} else {
+				numbers += length;
+				int capacity = 8;
+				while (capacity < length) {
+					capacity <<= 1;
+				}
+				heapBytes += align(16 + 8L * capacity);
+			}
+			return;
+		}
+		// The JSONArray and its ArrayList.
+		heapBytes += 24 + 24;
+		if (length > 0) {
+			int capacity = 10;
+			while (capacity < length) {
+				capacity += capacity >> 1;
+			}
+			heapBytes += align(16 + 4L * capacity);
+		}
+		for (int i = 0; i < length; i += 1) {
+			value(ja.opt(i));
+		}
+	}
+
+	private static boolean isPrimitive(JSONArray ja) {
+		if (ja instanceof JSONLongArray) {
+			return ((JSONLongArray) ja).isPrimitive();
+		} else if (ja instanceof JSONDoubleArray) {
+			return ((JSONDoubleArray) ja).isPrimitive();
+		} else if (ja instanceof JSONBooleanArray) {
+			return ((JSONBooleanArray) ja).isPrimitive();
+		}
+		return false;
+	}
+
+	private static long string(int length) {
+		if (COMPACT_STRINGS) {
+			// Most of the texts are Latin-1, one byte per character.
+			return 24 + align(16L + length);
+		}
+		return 24 + align(16 + 2L * length);
+	}
+
+	private static long bigInteger(BigInteger value) {
+		return 40 + align(16 + 4L * ((value.bitLength() + 31) / 32));
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+}
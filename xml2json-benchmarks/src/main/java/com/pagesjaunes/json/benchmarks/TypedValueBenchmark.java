@@ -0,0 +1,98 @@
+package com.pagesjaunes.json.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.config.Types;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+/**
+ * Measures the typing of values according to the mapping. The typing is
+ * private to the service, so each type is measured through a document of
+ * {@link #VALUES} values of that type: the difference with the string type,
+ * which is not converted, is the cost of the conversion.
+ *
+ * @author pagesjaunes
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TypedValueBenchmark {
+
+	static final int VALUES = 256;
+
+	/**
+	 * The type of the values: string is not mapped, lazy-number is a number
+	 * kept as text by {@link XmlToJsonService#setLazyNumbers(boolean)}.
+	 */
+	@Param({ "string", "number", "lazy-number", "boolean", "date" })
+	public String type;
+
+	private String xml;
+
+	private XmlToJsonService service;
+
+	@Setup
+	public void setup() {
+		Map<String, JsonConf> configuration = new HashMap<String, JsonConf>();
+		JsonConf jsonConf = new JsonConf();
+		if ("number".equals(type) || "lazy-number".equals(type)) {
+			jsonConf.setTypes(Types.NUMBER);
+		} else if ("boolean".equals(type)) {
+			jsonConf.setTypes(Types.BOOLEAN);
+		} else if ("date".equals(type)) {
+			jsonConf.setTypes(Types.DATE);
+			jsonConf.setFormat("yyyy-MM-dd");
+		} else {
+			jsonConf.setTypes(Types.UNKNOW);
+		}
+		configuration.put("values.v.$content", jsonConf);
+		service = new XmlToJsonService(configuration);
+		service.setLazyNumbers("lazy-number".equals(type));
+
+		Random random = new Random(42);
+		StringBuilder sb = new StringBuilder("<values>");
+		for (int i = 0; i < VALUES; i += 1) {
+			sb.append("<v>");
+			if ("boolean".equals(type)) {
+				sb.append(random.nextBoolean());
+			} else if ("date".equals(type)) {
+				sb.append("2014-").append(10 + random.nextInt(3)).append('-')
+						.append(10 + random.nextInt(19));
+			} else if ("string".equals(type)) {
+				sb.append("value ").append(random.nextInt(100000));
+			} else {
+				sb.append(random.nextInt(100000)).append('.')
+						.append(10 + random.nextInt(90));
+			}
+			sb.append("</v>");
+		}
+		sb.append("</values>");
+		xml = sb.toString();
+	}
+
+	@Benchmark
+	public JSONObject toJSONObject() throws JSONException {
+		return service.toJSONObject(xml);
+	}
+}
@@ -0,0 +1,106 @@
+package com.pagesjaunes.json;
+
+/**
+ * A string value that is a slice of the source buffer of a tokener. It lets
+ * a text or attribute value with no entities to decode travel from the XML
+ * source to the JSON text without being copied: {@link JSONObject#quote(
+ * CharSequence, StringBuilder)} reads its characters straight from the
+ * buffer. A String is only made when {@link #toString()} is called, and is
+ * then kept.
+ * <p>
+ * A slice keeps the whole source buffer reachable, and reads it each time
+ * it is used, so the buffer must not be modified while slices of it are in
+ * use.
+ * @author pagesjaunes
+ */
+public final class CharSlice implements CharSequence {
+
+    private final char[] buffer;
+
+    private final int offset;
+
+    private final int length;
+
+    private String string;
+
+    /**
+     * Make a slice of a character buffer.
+     * @param buffer The source characters. The array is not copied.
+     * @param offset The offset of the first character of the slice.
+     * @param length The number of characters of the slice.
+     */
+    public CharSlice(char[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    char[] buffer() {
+        return this.buffer;
+    }
+
+    int offset() {
+        return this.offset;
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new StringIndexOutOfBoundsException(index);
+        }
+        return this.buffer[this.offset + index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end) {
+            throw new StringIndexOutOfBoundsException(start);
+        }
+        return new CharSlice(this.buffer, this.offset + start, end - start);
+    }
+
+    /**
+     * Two slices are equal when they hold the same characters, wherever
+     * they come from. A slice is never equal to a String: compare the
+     * result of {@link #toString()} instead.
+     */
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CharSlice)) {
+            return false;
+        }
+        CharSlice slice = (CharSlice) other;
+        if (slice.length != this.length) {
+            return false;
+        }
+        for (int i = 0; i < this.length; i += 1) {
+            if (this.buffer[this.offset + i]
+                    != slice.buffer[slice.offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The hash code is the one of the equivalent String.
+     */
+    public int hashCode() {
+        int h = 0;
+        for (int i = 0; i < this.length; i += 1) {
+            h = 31 * h + this.buffer[this.offset + i];
+        }
+        return h;
+    }
+
+    public String toString() {
+        if (this.string == null) {
+            this.string = new String(this.buffer, this.offset, this.length);
+        }
+        return this.string;
+    }
+}
@@ -0,0 +1,228 @@
+package com.pagesjaunes.json;
+
+/**
+ * An XMLTokener that walks an {@link XMLStructuralIndex} built beforehand
+ * over the same buffer. Content, quoted strings and skipPast() jump from one
+ * indexed markup character to the next instead of examining the characters
+ * in between, and {@link #skipElement()} steps over a whole subtree.
+ * <p>
+ * The tokens produced, and the syntax errors raised, are the same as those
+ * of an XMLTokener reading the same buffer.
+ * @author pagesjaunes
+ */
+public class IndexedXMLTokener extends XMLTokener {
+
+    private final XMLStructuralIndex index;
+
+    /**
+     * The rank in the index of the last structural character looked up.
+     * The tokener only moves forward, so lookups start from there.
+     */
+    private int cursor;
+
+    /**
+     * Construct an IndexedXMLTokener over an indexed buffer.
+     * @param index The structural index of the source characters.
+     */
+    public IndexedXMLTokener(XMLStructuralIndex index) {
+        super(index.buffer(), index.offset(), index.limit() - index.offset());
+        this.index = index;
+        this.cursor = 0;
+    }
+
+    /**
+     * Construct an IndexedXMLTokener over an indexed buffer, starting at a
+     * given offset. Positions reported in syntax errors are still counted
+     * from the start of the indexed buffer.
+     * @param index The structural index of the source characters.
+     * @param from The buffer offset of the first character to read.
+     */
+    public IndexedXMLTokener(XMLStructuralIndex index, int from) {
+        this(index);
+        this.skipBuffered(from);
+        // Found by a binary search, not by walking the index from its start.
+        this.cursor = index.rank(from);
+    }
+
+    /**
+     * Index another character array, reusing the arrays of the index, and
+     * start reading it, as a new tokener would.
+     * @param buffer The source characters.
+     * @param offset The offset of the first character to read.
+     * @param length The number of characters to read.
+     */
+    @Override
+    public void reset(char[] buffer, int offset, int length) {
+        super.reset(buffer, offset, length);
+        if (this.index != null) {
+            this.index.reset(buffer, offset, length);
+            this.cursor = 0;
+        }
+    }
+
+    /**
+     * Start reading the same buffer again at a given offset, as a tokener
+     * constructed with {@link #IndexedXMLTokener(XMLStructuralIndex, int)}
+     * would, but keeping the index and the names already read.
+     * @param from The buffer offset of the first character to read.
+     */
+    public void restart(int from) {
+        super.reset(this.index.buffer(), this.index.offset(),
+                this.index.limit() - this.index.offset());
+        this.skipBuffered(from);
+        this.cursor = this.index.rank(from);
+    }
+
+    /**
+     * Get the structural index walked by this tokener.
+     * @return The index.
+     */
+    public XMLStructuralIndex index() {
+        return this.index;
+    }
+
+    /**
+     * Move the cursor to the first structural character at or after a
+     * buffer offset.
+     * @param from A buffer offset.
+     * @return The rank of that character, or the size of the index.
+     */
+    private int seek(int from) {
+        XMLStructuralIndex ix = this.index;
+        int i = this.cursor;
+        if (i > 0 && ix.position(i - 1) >= from) {
+            i = ix.rank(from);
+        } else {
+            int size = ix.size();
+            while (i < size && ix.position(i) < from) {
+                i += 1;
+            }
+        }
+        this.cursor = i;
+        return i;
+    }
+
+    @Override
+    int scanContent(int from, int to) {
+        char[] buf = buffer();
+        XMLStructuralIndex ix = this.index;
+        int size = ix.size();
+        for (int i = this.seek(from); i < size; i += 1) {
+            int p = ix.position(i);
+            if (p >= to) {
+                break;
+            }
+            char c = buf[p];
+            if (c == '<' || c == '&' || c == 0) {
+                this.cursor = i;
+                return p;
+            }
+        }
+        return to;
+    }
+
+    @Override
+    int scanQuoted(int from, int to, char quote) {
+        char[] buf = buffer();
+        XMLStructuralIndex ix = this.index;
+        int size = ix.size();
+        for (int i = this.seek(from); i < size; i += 1) {
+            int p = ix.position(i);
+            if (p >= to) {
+                break;
+            }
+            char c = buf[p];
+            if (c == quote || c == '&' || c == 0) {
+                this.cursor = i;
+                return p;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Skip characters until past the requested string. When the last
+     * character of the string is a structural one, only the indexed
+     * occurrences of that character are compared.
+     * @param to A string to skip past.
+     * @return true if the string was found, false if the end of the source
+     *  was reached first.
+     * @throws JSONException
+     */
+    @Override
+    public boolean skipPast(String to) throws JSONException {
+        int length = to.length();
+        char last = length == 0 ? 0 : to.charAt(length - 1);
+        if (last != '<' && last != '>' && last != '"' && last != '\''
+                && last != '&') {
+            return super.skipPast(to);
+        }
+        int from = bufferPosition();
+        if (next() == 0) {
+            return false;
+        }
+        char[] buf = buffer();
+        XMLStructuralIndex ix = this.index;
+        int size = ix.size();
+        XMLReadCheck readCheck = this.getReadCheck();
+        int check = from + CHECK_CHARACTERS;
+        for (int i = this.seek(from); i < size; i += 1) {
+            int p = ix.position(i);
+            char c = buf[p];
+            if (p >= check && readCheck != null) {
+                readCheck.reading();
+                check = p + CHECK_CHARACTERS;
+            }
+            if (c == 0) {
+                this.skipBuffered(p);
+                next();
+                return false;
+            }
+            if (c == last && p - length + 1 >= from
+                    && this.matches(p - length + 1, to)) {
+                this.cursor = i + 1;
+                this.skipBuffered(p + 1);
+                return true;
+            }
+        }
+        this.skipBuffered(bufferLimit());
+        next();
+        return false;
+    }
+
+    /**
+     * Skip the content and the close tag of the element whose open tag has
+     * just been read up to and including its '&gt;'.
+     * @throws JSONException If the element is not closed.
+     */
+    public void skipElement() throws JSONException {
+        char[] buf = buffer();
+        int i = this.seek(bufferPosition()) - 1;
+        while (i >= 0 && buf[this.index.position(i)] != '<') {
+            i -= 1;
+        }
+        if (i < 0) {
+            throw syntaxError("Misplaced skipElement");
+        }
+        int start = this.index.position(i);
+        int end;
+        try {
+            end = this.index.elementEnd(start);
+        } catch (JSONException e) {
+            this.skipBuffered(bufferLimit());
+            throw syntaxError("Unclosed tag");
+        }
+        this.skipBuffered(end);
+    }
+
+    private boolean matches(int from, String s) {
+        char[] buf = buffer();
+        int length = s.length();
+        for (int i = 0; i < length; i += 1) {
+            if (buf[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -81,9 +81,11 @@ import java.util.Map;
 public class JSONArray {
 
     /**
-     * The arrayList where the JSONArray's properties are kept.
+     * The arrayList where the JSONArray's properties are kept. Only length,
+     * opt, put, remove and writeValue read or change it, so that a subclass
+     * overriding them can keep the values in another way.
      */
-    private final ArrayList myArrayList;
+    private ArrayList myArrayList;
 
     /**
      * Construct an empty JSONArray.
@@ -92,6 +94,15 @@ public class JSONArray {
         this.myArrayList = new ArrayList();
     }
 
+    /**
+     * Construct an empty JSONArray whose values are kept by a subclass until
+     * {@link #widen(int)} is called.
+     * @param list false to make no list.
+     */
+    JSONArray(boolean list) {
+        this.myArrayList = list ? new ArrayList() : null;
+    }
+
     /**
      * Construct a JSONArray from a JSONTokener.
      * @param x A JSONTokener
@@ -172,7 +183,8 @@ public class JSONArray {
     }
 
     /**
-     * Get the object value associated with an index.
+     * Get the object value associated with an index. A JSONLazyNumber is
+     * parsed, and its BigDecimal returned; opt returns it as is.
      * @param index
      *  The index must be between 0 and length() - 1.
      * @return An object value.
@@ -183,6 +195,9 @@ public class JSONArray {
         if (object == null) {
             throw new JSONException("JSONArray[" + index + "] not found.");
         }
+        if (object instanceof JSONLazyNumber) {
+            return ((JSONLazyNumber) object).bigDecimalValue();
+        }
         return object;
     }
 
@@ -306,6 +321,9 @@ public class JSONArray {
         if (object instanceof String) {
             return (String) object;
         }
+        if (object instanceof CharSlice) {
+            return object.toString();
+        }
         throw new JSONException("JSONArray[" + index + "] not a string.");
     }
 
@@ -334,7 +352,7 @@ public class JSONArray {
             if (i > 0) {
                 sb.append(separator);
             }
-            sb.append(JSONObject.valueToString(this.myArrayList.get(i)));
+            sb.append(JSONObject.valueToString(this.opt(i)));
         }
         return sb.toString();
     }
@@ -606,6 +624,14 @@ public class JSONArray {
         return this;
     }
 
+    /**
+     * Make the list of a JSONArray built without one.
+     * @param capacity The number of values that are going to be put.
+     */
+    final void widen(int capacity) {
+        this.myArrayList = new ArrayList(capacity);
+    }
+
     /**
      * Put or replace a boolean value in the JSONArray. If the index is greater
      * than the length of the JSONArray, then null elements will be added as
@@ -814,14 +840,25 @@ public class JSONArray {
      */
     StringBuilder write(StringBuilder sb, int indentFactor, int indent)
             throws JSONException {
+        return this.write(sb, indentFactor, indent, null);
+    }
+
+    /**
+     * Write the contents of the JSONArray as JSON text, calling a check after
+     * each element written.
+     */
+    StringBuilder write(StringBuilder sb, int indentFactor, int indent,
+            JSONWriteCheck check) throws JSONException {
         try {
             boolean commanate = false;
             int length = this.length();
             sb.append('[');
 
             if (length == 1) {
-                JSONObject.writeValue(sb, this.myArrayList.get(0),
-                        indentFactor, indent);
+                this.writeValue(sb, 0, indentFactor, indent, check);
+                if (check != null) {
+                    check.written(sb.length());
+                }
             } else if (length != 0) {
                 final int newindent = indent + indentFactor;
 
@@ -833,8 +870,10 @@ public class JSONArray {
                         sb.append('\n');
                     }
                     JSONObject.indent(sb, newindent);
-                    JSONObject.writeValue(sb, this.myArrayList.get(i),
-                            indentFactor, newindent);
+                    this.writeValue(sb, i, indentFactor, newindent, check);
+                    if (check != null) {
+                        check.written(sb.length());
+                    }
                     commanate = true;
                 }
                 if (indentFactor > 0) {
@@ -848,4 +887,13 @@ public class JSONArray {
             throw new JSONException(e);
         }
     }
+
+    /**
+     * Write the JSON text of the value at an index.
+     */
+    void writeValue(StringBuilder sb, int index, int indentFactor, int indent,
+            JSONWriteCheck check) throws JSONException, IOException {
+        JSONObject.writeValue(sb, this.myArrayList.get(index), indentFactor,
+                indent, check);
+    }
 }
@@ -0,0 +1,63 @@
+package com.pagesjaunes.json;
+
+import java.util.BitSet;
+
+/**
+ * A JSONArray of Booleans kept in a bit set. Any other value widens it into
+ * a plain JSONArray.
+ * @author pagesjaunes
+ */
+public class JSONBooleanArray extends JSONPrimitiveArray {
+
+    private BitSet values = new BitSet();
+
+    /**
+     * Construct an empty JSONBooleanArray.
+     */
+    public JSONBooleanArray() {
+        super();
+    }
+
+    boolean store(int index, Object value) {
+        if (!(value instanceof Boolean)) {
+            return false;
+        }
+        this.values.set(index, ((Boolean) value).booleanValue());
+        return true;
+    }
+
+    Object box(int index) {
+        return this.values.get(index) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    void write(StringBuilder sb, int index) {
+        sb.append(this.values.get(index));
+    }
+
+    void release() {
+        this.values = null;
+    }
+
+    /**
+     * Get the boolean value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The truth.
+     * @throws JSONException If there is no value for the index or if the
+     *  value is not convertible to boolean.
+     */
+    public boolean getBoolean(int index) throws JSONException {
+        return this.isPrimitive(index) ? this.values.get(index)
+                : super.getBoolean(index);
+    }
+
+    /**
+     * Get the optional boolean value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @param defaultValue A boolean default.
+     * @return The truth.
+     */
+    public boolean optBoolean(int index, boolean defaultValue) {
+        return this.isPrimitive(index) ? this.values.get(index)
+                : super.optBoolean(index, defaultValue);
+    }
+}
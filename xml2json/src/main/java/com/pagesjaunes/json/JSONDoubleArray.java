@@ -0,0 +1,66 @@
+package com.pagesjaunes.json;
+
+/**
+ * A JSONArray of Doubles kept in a <code>double[]</code>. Any other value
+ * widens it into a plain JSONArray.
+ * @author pagesjaunes
+ */
+public class JSONDoubleArray extends JSONPrimitiveArray {
+
+    private double[] values = new double[8];
+
+    /**
+     * Construct an empty JSONDoubleArray.
+     */
+    public JSONDoubleArray() {
+        super();
+    }
+
+    boolean store(int index, Object value) {
+        if (!(value instanceof Double)) {
+            return false;
+        }
+        if (index == this.values.length) {
+            double[] grown = new double[index << 1];
+            System.arraycopy(this.values, 0, grown, 0, index);
+            this.values = grown;
+        }
+        this.values[index] = ((Double) value).doubleValue();
+        return true;
+    }
+
+    Object box(int index) {
+        return Double.valueOf(this.values[index]);
+    }
+
+    void write(StringBuilder sb, int index) throws JSONException {
+        sb.append(JSONObject.numberToString(Double.valueOf(this.values[index])));
+    }
+
+    void release() {
+        this.values = null;
+    }
+
+    /**
+     * Get the double value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The value.
+     * @throws JSONException If the key is not found or if the value cannot
+     *  be converted to a number.
+     */
+    public double getDouble(int index) throws JSONException {
+        return this.isPrimitive(index) ? this.values[index]
+                : super.getDouble(index);
+    }
+
+    /**
+     * Get the optional double value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public double optDouble(int index, double defaultValue) {
+        return this.isPrimitive(index) ? this.values[index]
+                : super.optDouble(index, defaultValue);
+    }
+}
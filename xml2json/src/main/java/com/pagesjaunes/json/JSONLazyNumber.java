@@ -0,0 +1,215 @@
+package com.pagesjaunes.json;
+
+import java.math.BigDecimal;
+
+/**
+ * A decimal number kept as the text it was read from. Its JSON text is the
+ * one of the BigDecimal the text stands for, and when the text is already in
+ * that form, which is the common case, it is written as is. The text is only
+ * parsed when the value is asked for, with {@link #longValue()},
+ * {@link #doubleValue()} or {@link #bigDecimalValue()}, and the result is
+ * the one the BigDecimal would give.
+ * <p>
+ * Only plain decimal texts are kept lazily: an optional sign, digits and an
+ * optional fraction, whose BigDecimal is written without an exponent. See
+ * {@link #valueOf(String)}.
+ * @author pagesjaunes
+ */
+public final class JSONLazyNumber extends Number {
+
+    private static final long serialVersionUID = 0;
+
+    private final String source;
+
+    /**
+     * true when the source is the text of the BigDecimal.
+     */
+    private final boolean verbatim;
+
+    private final boolean negative;
+
+    /**
+     * The offsets in the source of the first significant digit and of the
+     * '.', or of the end of the digits when there is no fraction.
+     */
+    private final int first;
+
+    private final int point;
+
+    private final int scale;
+
+    private final int precision;
+
+    private transient String text;
+
+    private transient BigDecimal decimal;
+
+    private JSONLazyNumber(String source, boolean verbatim, boolean negative,
+            int first, int point, int scale, int precision) {
+        this.source = source;
+        this.verbatim = verbatim;
+        this.negative = negative;
+        this.first = first;
+        this.point = point;
+        this.scale = scale;
+        this.precision = precision;
+    }
+
+    /**
+     * Check the syntax of a decimal text and keep it. This only looks at
+     * each character once.
+     * @param s A text such as <code>-0042.50</code>.
+     * @return The lazy number, or null if the text is not a plain decimal
+     *  number, or if its BigDecimal is written with an exponent (a number
+     *  smaller than 10<sup>-6</sup> for instance). Such texts have to be
+     *  parsed with <code>new BigDecimal(s)</code>.
+     */
+    public static JSONLazyNumber valueOf(String s) {
+        int length = s.length();
+        int i = 0;
+        boolean negative = false;
+        boolean plus = false;
+        if (length > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            plus = !negative;
+            i = 1;
+        }
+        int start = i;
+        int first = -1;
+        while (i < length && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            if (first < 0 && s.charAt(i) != '0') {
+                first = i;
+            }
+            i += 1;
+        }
+        int point = i;
+        int digits = point - start;
+        int scale = 0;
+        if (i < length && s.charAt(i) == '.') {
+            i += 1;
+            while (i < length && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                if (first < 0 && s.charAt(i) != '0') {
+                    first = i;
+                }
+                i += 1;
+            }
+            scale = i - point - 1;
+        }
+        if (i != length || digits + scale == 0) {
+            return null;
+        }
+        int precision;
+        if (first < 0) {
+            precision = 1;
+        } else if (first < point) {
+            precision = point - first + scale;
+        } else {
+            precision = i - first;
+        }
+        if (precision - 1 - scale < -6) {
+            return null;
+        }
+        boolean verbatim = !plus && !(negative && first < 0)
+                && digits > 0 && (digits == 1 || s.charAt(start) != '0')
+                && (point == length || scale > 0);
+        return new JSONLazyNumber(s, verbatim, negative && first >= 0,
+                first, point, scale, precision);
+    }
+
+    /**
+     * Get the value as a BigDecimal, parsing the text the first time.
+     * @return <code>new BigDecimal(text)</code>.
+     */
+    public BigDecimal bigDecimalValue() {
+        if (this.decimal == null) {
+            this.decimal = new BigDecimal(this.source);
+        }
+        return this.decimal;
+    }
+
+    /**
+     * Tell whether the number is an integer that fits in a long.
+     */
+    boolean isLong() {
+        return this.scale == 0 && this.precision <= 18;
+    }
+
+    public long longValue() {
+        if (!this.isLong()) {
+            return this.bigDecimalValue().longValue();
+        }
+        long value = 0;
+        if (this.first >= 0) {
+            for (int i = this.first; i < this.point; i += 1) {
+                value = value * 10 + (this.source.charAt(i) - '0');
+            }
+        }
+        return this.negative ? -value : value;
+    }
+
+    public int intValue() {
+        return (int) this.longValue();
+    }
+
+    public double doubleValue() {
+        return Double.parseDouble(this.toString());
+    }
+
+    public float floatValue() {
+        return Float.parseFloat(this.toString());
+    }
+
+    /**
+     * Two lazy numbers are equal when their BigDecimals are, scale
+     * included. A lazy number is never equal to a BigDecimal: compare the
+     * result of {@link #bigDecimalValue()} instead.
+     */
+    public boolean equals(Object other) {
+        return other instanceof JSONLazyNumber
+                && this.toString().equals(other.toString());
+    }
+
+    public int hashCode() {
+        return this.toString().hashCode();
+    }
+
+    /**
+     * Get the text of the BigDecimal of the number, without parsing it.
+     * @return The source text when it is already in that form.
+     */
+    public String toString() {
+        if (this.verbatim) {
+            return this.source;
+        }
+        if (this.text == null) {
+            StringBuilder sb = new StringBuilder(this.precision + 8);
+            if (this.negative) {
+                sb.append('-');
+            }
+            if (this.first < 0) {
+                sb.append('0');
+                if (this.scale > 0) {
+                    sb.append('.');
+                    zeros(sb, this.scale);
+                }
+            } else if (this.scale == 0) {
+                sb.append(this.source, this.first, this.point);
+            } else if (this.first < this.point) {
+                sb.append(this.source, this.first, this.point);
+                sb.append(this.source, this.point, this.source.length());
+            } else {
+                sb.append("0.");
+                zeros(sb, this.scale - this.precision);
+                sb.append(this.source, this.first, this.source.length());
+            }
+            this.text = sb.toString();
+        }
+        return this.text;
+    }
+
+    private static void zeros(StringBuilder sb, int n) {
+        for (int i = 0; i < n; i += 1) {
+            sb.append('0');
+        }
+    }
+}
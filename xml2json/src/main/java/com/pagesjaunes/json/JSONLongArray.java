@@ -0,0 +1,126 @@
+package com.pagesjaunes.json;
+
+import java.math.BigDecimal;
+
+/**
+ * A JSONArray of integers kept in a <code>long[]</code>. It holds either
+ * BigDecimals of scale 0 and integral {@link JSONLazyNumber}s, as the
+ * conversion of a numeric XML content makes them, which are read back as
+ * BigDecimals, or Longs, Integers, Shorts and Bytes, which are read back as
+ * Longs.
+ * Any other value, a decimal number for instance, widens it into a plain
+ * JSONArray.
+ * @author pagesjaunes
+ */
+public class JSONLongArray extends JSONPrimitiveArray {
+
+    private long[] values = new long[8];
+
+    /**
+     * Whether the values were put as BigDecimals.
+     */
+    private boolean decimal;
+
+    /**
+     * Construct an empty JSONLongArray.
+     */
+    public JSONLongArray() {
+        super();
+    }
+
+    boolean store(int index, Object value) {
+        long v;
+        boolean d;
+        if (value instanceof BigDecimal) {
+            BigDecimal number = (BigDecimal) value;
+            if (number.scale() != 0 || number.unscaledValue().bitLength() > 63) {
+                return false;
+            }
+            v = number.longValue();
+            d = true;
+        } else if (value instanceof JSONLazyNumber) {
+            JSONLazyNumber number = (JSONLazyNumber) value;
+            if (!number.isLong()) {
+                return false;
+            }
+            v = number.longValue();
+            d = true;
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            v = ((Number) value).longValue();
+            d = false;
+        } else {
+            return false;
+        }
+        if (this.size > 0 && d != this.decimal) {
+            return false;
+        }
+        this.decimal = d;
+        if (index == this.values.length) {
+            long[] grown = new long[index << 1];
+            System.arraycopy(this.values, 0, grown, 0, index);
+            this.values = grown;
+        }
+        this.values[index] = v;
+        return true;
+    }
+
+    Object box(int index) {
+        long v = this.values[index];
+        return this.decimal ? BigDecimal.valueOf(v) : (Object) Long.valueOf(v);
+    }
+
+    void write(StringBuilder sb, int index) {
+        sb.append(this.values[index]);
+    }
+
+    void release() {
+        this.values = null;
+    }
+
+    /**
+     * Get the long value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The value.
+     * @throws JSONException If the key is not found or if the value cannot
+     *  be converted to a number.
+     */
+    public long getLong(int index) throws JSONException {
+        return this.isPrimitive(index) ? this.values[index]
+                : super.getLong(index);
+    }
+
+    /**
+     * Get the optional long value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public long optLong(int index, long defaultValue) {
+        return this.isPrimitive(index) ? this.values[index]
+                : super.optLong(index, defaultValue);
+    }
+
+    /**
+     * Get the double value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The value.
+     * @throws JSONException If the key is not found or if the value cannot
+     *  be converted to a number.
+     */
+    public double getDouble(int index) throws JSONException {
+        return this.isPrimitive(index) ? this.values[index]
+                : super.getDouble(index);
+    }
+
+    /**
+     * Get the optional double value associated with an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @param defaultValue The default value.
+     * @return The value.
+     */
+    public double optDouble(int index, double defaultValue) {
+        return this.isPrimitive(index) ? this.values[index]
+                : super.optDouble(index, defaultValue);
+    }
+}
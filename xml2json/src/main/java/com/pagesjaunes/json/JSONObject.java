@@ -442,7 +442,8 @@ public class JSONObject {
     }
 
     /**
-     * Get the value object associated with a key.
+     * Get the value object associated with a key. A JSONLazyNumber is
+     * parsed, and its BigDecimal returned; opt returns it as is.
      *
      * @param key   A key string.
      * @return      The object associated with the key.
@@ -457,6 +458,9 @@ public class JSONObject {
             throw new JSONException("JSONObject[" + quote(key) +
                     "] not found.");
         }
+        if (object instanceof JSONLazyNumber) {
+            return ((JSONLazyNumber) object).bigDecimalValue();
+        }
         return object;
     }
 
@@ -624,6 +628,9 @@ public class JSONObject {
         if (object instanceof String) {
             return (String) object;
         }
+        if (object instanceof CharSlice) {
+            return object.toString();
+        }
         throw new JSONException("JSONObject[" + quote(key) + "] not a string.");
     }
 
@@ -1127,7 +1134,17 @@ public class JSONObject {
         }
     }
 
-    public static StringBuilder quote(String string, StringBuilder sb) throws IOException {
+    /**
+     * Append a string in double quotes with backslash sequences in all the
+     * right places. The runs of characters that need no escaping are
+     * appended at once; those of a {@link CharSlice} are copied straight
+     * from its buffer, without making a String.
+     * @param string A String or another CharSequence
+     * @param sb The StringBuilder to append to.
+     * @return The StringBuilder.
+     * @throws IOException
+     */
+    public static StringBuilder quote(CharSequence string, StringBuilder sb) throws IOException {
         if (string == null || string.length() == 0) {
             sb.append("\"\"");
             return sb;
@@ -1138,11 +1155,31 @@ public class JSONObject {
         String hhhh;
         int i;
         int len = string.length();
+        char[] chars = null;
+        int base = 0;
+        if (string instanceof CharSlice) {
+            chars = ((CharSlice) string).buffer();
+            base = ((CharSlice) string).offset();
+        }
+        int run = 0;
 
         sb.append('"');
         for (i = 0; i < len; i += 1) {
             b = c;
-            c = string.charAt(i);
+            c = chars != null ? chars[base + i] : string.charAt(i);
+            if (c >= ' ' && c != '\\' && c != '"' && (c != '/' || b != '<')
+                    && (c < '\u0080' || c >= '\u00a0')
+                    && (c < '\u2000' || c >= '\u2100')) {
+                continue;
+            }
+            if (i > run) {
+                if (chars != null) {
+                    sb.append(chars, base + run, i - run);
+                } else {
+                    sb.append(string, run, i);
+                }
+            }
+            run = i + 1;
             switch (c) {
                 case '\\':
                 case '"':
@@ -1150,10 +1187,7 @@ public class JSONObject {
                     sb.append(c);
                     break;
                 case '/':
-                    if (b == '<') {
-                        sb.append('\\');
-                    }
-                    sb.append(c);
+                    sb.append("\\/");
                     break;
                 case '\b':
                     sb.append("\\b");
@@ -1171,15 +1205,17 @@ public class JSONObject {
                     sb.append("\\r");
                     break;
                 default:
-                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0')
-                            || (c >= '\u2000' && c < '\u2100')) {
-                        sb.append("\\u");
-                        hhhh = Integer.toHexString(c);
-                        sb.append("0000", 0, 4 - hhhh.length());
-                        sb.append(hhhh);
-                    } else {
-                        sb.append(c);
-                    }
+                    sb.append("\\u");
+                    hhhh = Integer.toHexString(c);
+                    sb.append("0000", 0, 4 - hhhh.length());
+                    sb.append(hhhh);
+            }
+        }
+        if (len > run) {
+            if (chars != null) {
+                sb.append(chars, base + run, len - run);
+            } else {
+                sb.append(string, run, len);
             }
         }
         sb.append('"');
@@ -1412,7 +1448,8 @@ public class JSONObject {
                     || object instanceof Short || object instanceof Integer
                     || object instanceof Long || object instanceof Boolean
                     || object instanceof Float || object instanceof Double
-                    || object instanceof String) {
+                    || object instanceof String
+                    || object instanceof JSONLazyNumber) {
                 return object;
             }
 
@@ -1453,21 +1490,64 @@ public class JSONObject {
         return this.write(sb, 0, 0);
     }
 
+    /**
+     * Write the JSON text of the JSONObject to a StringBuilder, as
+     * {@link #toString(boolean, int)} makes it. Appending to a builder that
+     * is reused saves copying the text from one builder to the next.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     *
+     * @param sb The StringBuilder.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param displayRoot false to write an object with a single key as its
+     *  value.
+     * @return The StringBuilder.
+     * @throws JSONException If the object contains an invalid number.
+     */
+    public StringBuilder write(StringBuilder sb, int indentFactor,
+            boolean displayRoot) throws JSONException {
+        return this.write(sb, indentFactor, 0, displayRoot, null);
+    }
+
+    /**
+     * Write the JSON text of the JSONObject to a StringBuilder, as
+     * {@link #write(StringBuilder, int, boolean)} does, calling a check
+     * after each member and each element written, so that the writing can
+     * be stopped as soon as the text is too long.
+     *
+     * @param sb The StringBuilder.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param displayRoot false to write an object with a single key as its
+     *  value.
+     * @param check The check, or null.
+     * @return The StringBuilder.
+     * @throws JSONException If the object contains an invalid number, or if
+     *  the check throws it.
+     */
+    public StringBuilder write(StringBuilder sb, int indentFactor,
+            boolean displayRoot, JSONWriteCheck check) throws JSONException {
+        return this.write(sb, indentFactor, 0, displayRoot, check);
+    }
+
     static final StringBuilder writeValue(StringBuilder sb, Object value,
-            int indentFactor, int indent) throws JSONException, IOException {
+            int indentFactor, int indent, JSONWriteCheck check)
+            throws JSONException, IOException {
         if (value == null || value.equals(null)) {
             sb.append("null");
         } else if (value instanceof JSONObject) {
-            ((JSONObject) value).write(sb, indentFactor, indent);
+            ((JSONObject) value).write(sb, indentFactor, indent, true, check);
         } else if (value instanceof JSONArray) {
-            ((JSONArray) value).write(sb, indentFactor, indent);
+            ((JSONArray) value).write(sb, indentFactor, indent, check);
         } else if (value instanceof Map) {
-            new JSONObject((Map) value).write(sb, indentFactor, indent);
+            new JSONObject((Map) value).write(sb, indentFactor, indent, true,
+                    check);
         } else if (value instanceof Collection) {
             new JSONArray((Collection) value).write(sb, indentFactor,
-                    indent);
+                    indent, check);
         } else if (value.getClass().isArray()) {
-            new JSONArray(value).write(sb, indentFactor, indent);
+            new JSONArray(value).write(sb, indentFactor, indent, check);
         } else if (value instanceof Number) {
             sb.append(numberToString((Number) value));
         } else if (value instanceof Boolean) {
@@ -1480,6 +1560,8 @@ public class JSONObject {
                 throw new JSONException(e);
             }
             sb.append(o != null ? o.toString() : quote(value.toString()));
+        } else if (value instanceof CharSlice) {
+            quote((CharSlice) value, sb);
         } else {
             quote(value.toString(), sb);
         }
@@ -1494,7 +1576,12 @@ public class JSONObject {
 
     StringBuilder write(StringBuilder sb, int indentFactor, int indent)
             throws JSONException {
-        return write(sb, indentFactor, indent, true);
+        return write(sb, indentFactor, indent, true, null);
+    }
+
+    StringBuilder write(StringBuilder sb, int indentFactor, int indent, boolean display)
+            throws JSONException {
+        return write(sb, indentFactor, indent, display, null);
     }
 
     /**
@@ -1506,8 +1593,8 @@ public class JSONObject {
      * @return The writer.
      * @throws JSONException
      */
-    StringBuilder write(StringBuilder sb, int indentFactor, int indent, boolean display)
-            throws JSONException {
+    StringBuilder write(StringBuilder sb, int indentFactor, int indent,
+            boolean display, JSONWriteCheck check) throws JSONException {
         try {
             boolean commanate = false;
             final int length = this.length();
@@ -1517,13 +1604,16 @@ public class JSONObject {
                 Object key = keys.next();
                 if (display) {
                     sb.append('{');
-                    sb.append(quote(key.toString()));
+                    quote(key.toString(), sb);
                     sb.append(':');
                     if (indentFactor > 0) {
                         sb.append(' ');
                     }
                 }
-                writeValue(sb, this.map.get(key), indentFactor, indent);
+                writeValue(sb, this.map.get(key), indentFactor, indent, check);
+                if (check != null) {
+                    check.written(sb.length());
+                }
                 if (display) {
                     sb.append('}');
                 }
@@ -1539,13 +1629,16 @@ public class JSONObject {
                         sb.append('\n');
                     }
                     indent(sb, newindent);
-                    sb.append(quote(key.toString()));
+                    quote(key.toString(), sb);
                     sb.append(':');
                     if (indentFactor > 0) {
                         sb.append(' ');
                     }
                     writeValue(sb, this.map.get(key), indentFactor,
-                            newindent);
+                            newindent, check);
+                    if (check != null) {
+                        check.written(sb.length());
+                    }
                     commanate = true;
                 }
                 if (indentFactor > 0) {
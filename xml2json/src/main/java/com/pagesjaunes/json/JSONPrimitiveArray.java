@@ -0,0 +1,158 @@
+package com.pagesjaunes.json;
+
+import java.io.IOException;
+
+/**
+ * A JSONArray keeping its values in an array of primitives as long as they
+ * all have the type it is made for. When a value of another type is put,
+ * the array widens: its values are boxed into the list of JSONArray, which
+ * keeps them from then on. Removing a value widens the array too.
+ * <p>
+ * Subclasses store, box and write the primitives; this class makes them
+ * behave as a JSONArray.
+ * @author pagesjaunes
+ */
+abstract class JSONPrimitiveArray extends JSONArray {
+
+    /**
+     * The number of primitives, until the array widens.
+     */
+    int size;
+
+    private boolean widened;
+
+    JSONPrimitiveArray() {
+        super(false);
+    }
+
+    /**
+     * Store a value as a primitive.
+     * @param index The index of the value, at most size.
+     * @param value The value.
+     * @return false if the value cannot be stored as a primitive.
+     */
+    abstract boolean store(int index, Object value);
+
+    /**
+     * Get the primitive at an index as the object it was put as.
+     */
+    abstract Object box(int index);
+
+    /**
+     * Write the JSON text of the primitive at an index.
+     */
+    abstract void write(StringBuilder sb, int index) throws JSONException;
+
+    /**
+     * Drop the primitives once they have been boxed.
+     */
+    abstract void release();
+
+    /**
+     * Tell whether the values are still primitives.
+     * @return false once the array has widened.
+     */
+    public boolean isPrimitive() {
+        return !this.widened;
+    }
+
+    /**
+     * Tell whether an index is that of a primitive.
+     */
+    final boolean isPrimitive(int index) {
+        return !this.widened && index >= 0 && index < this.size;
+    }
+
+    /**
+     * Get the number of values in the array.
+     * @return The length.
+     */
+    public int length() {
+        return this.widened ? super.length() : this.size;
+    }
+
+    /**
+     * Get the value at an index, boxing it if it is a primitive.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The value, or null if there is none.
+     */
+    public Object opt(int index) {
+        if (this.widened) {
+            return super.opt(index);
+        }
+        return index < 0 || index >= this.size ? null : this.box(index);
+    }
+
+    /**
+     * Append a value, widening the array if it cannot be stored as a
+     * primitive.
+     * @param value The value.
+     * @return this.
+     */
+    public JSONArray put(Object value) {
+        if (!this.widened && this.store(this.size, value)) {
+            this.size += 1;
+            return this;
+        }
+        this.widen();
+        return super.put(value);
+    }
+
+    /**
+     * Put or replace a value, widening the array if it cannot be stored as a
+     * primitive or if null values have to be added before it.
+     * @param index The subscript.
+     * @param value The value.
+     * @return this.
+     * @throws JSONException If the index is negative or if the value is an
+     *  invalid number.
+     */
+    public JSONArray put(int index, Object value) throws JSONException {
+        if (!this.widened && index >= 0 && index <= this.size) {
+            JSONObject.testValidity(value);
+            if (this.store(index, value)) {
+                if (index == this.size) {
+                    this.size += 1;
+                }
+                return this;
+            }
+        }
+        this.widen();
+        return super.put(index, value);
+    }
+
+    /**
+     * Remove an index and close the hole. The array widens first.
+     * @param index The index of the element to be removed.
+     * @return The value that was associated with the index.
+     */
+    public Object remove(int index) {
+        this.widen();
+        return super.remove(index);
+    }
+
+    void writeValue(StringBuilder sb, int index, int indentFactor, int indent,
+            JSONWriteCheck check) throws JSONException, IOException {
+        if (this.widened) {
+            super.writeValue(sb, index, indentFactor, indent, check);
+        } else {
+            this.write(sb, index);
+        }
+    }
+
+    /**
+     * Box the primitives into the list of JSONArray.
+     */
+    private void widen() {
+        if (this.widened) {
+            return;
+        }
+        this.widen(this.size + 8);
+        for (int i = 0; i < this.size; i += 1) {
+            super.put(this.box(i));
+        }
+        this.widened = true;
+        this.size = 0;
+        this.release();
+    }
+}
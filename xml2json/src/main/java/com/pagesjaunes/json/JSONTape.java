@@ -0,0 +1,514 @@
+package com.pagesjaunes.json;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A JSON document encoded in a single ByteBuffer, which may be allocated
+ * outside of the heap. It holds what a {@link JSONObject} tree holds in a
+ * fraction of the space and in a single object for the garbage collector:
+ * keys are ids of a shared {@link JSONTapeSymbols} table, numbers are
+ * stored as primitives and strings as UTF-8.
+ * <p>
+ * A tape is read-only. It is navigated with {@link #root()}, whose
+ * {@link JSONTapeObject} and {@link JSONTapeArray} views mirror the opt
+ * methods of JSONObject and JSONArray, and it writes the JSON text of the
+ * document straight from the buffer. It can be read by several threads at
+ * once.
+ * <p>
+ * Each value starts with a tag byte:
+ * <ul>
+ * <li>null, true and false are the tag alone;</li>
+ * <li>a long or a double is followed by its 8 bytes;</li>
+ * <li>a BigDecimal whose unscaled value fits in a long is followed by the
+ * unscaled value and the scale;</li>
+ * <li>a string, and a number that fits in none of the above, is followed by
+ * the length and the UTF-8 bytes of its text;</li>
+ * <li>an object or an array is followed by its number of members and the
+ * length in bytes of its members, so that it can be skipped. A member of an
+ * object is the id of its key followed by its value.</li>
+ * </ul>
+ * @author pagesjaunes
+ */
+public final class JSONTape {
+
+    static final byte NULL = 0;
+
+    static final byte TRUE = 1;
+
+    static final byte FALSE = 2;
+
+    static final byte LONG = 3;
+
+    static final byte DOUBLE = 4;
+
+    static final byte DECIMAL = 5;
+
+    static final byte NUMBER = 6;
+
+    static final byte STRING = 7;
+
+    /**
+     * A text written as is, produced by a {@link JSONString}.
+     */
+    static final byte RAW = 8;
+
+    static final byte OBJECT = 9;
+
+    static final byte ARRAY = 10;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    private final JSONTapeSymbols symbols;
+
+    private JSONTape(ByteBuffer buffer, JSONTapeSymbols symbols) {
+        this.buffer = buffer;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Encode a JSONObject.
+     * @param jo The JSONObject.
+     * @param symbols The table of keys, shared by the tapes of a cache.
+     * @param direct true to allocate the buffer outside of the heap.
+     * @return The tape.
+     * @throws JSONException If a value cannot be encoded.
+     */
+    public static JSONTape encode(JSONObject jo, JSONTapeSymbols symbols,
+            boolean direct) throws JSONException {
+        Encoder encoder = new Encoder(symbols);
+        encoder.value(jo);
+        ByteBuffer buffer = direct
+                ? ByteBuffer.allocateDirect(encoder.size)
+                : ByteBuffer.allocate(encoder.size);
+        buffer.put(encoder.bytes, 0, encoder.size);
+        buffer.flip();
+        return new JSONTape(buffer, symbols);
+    }
+
+    /**
+     * Get the root object of the document.
+     * @return The root object.
+     */
+    public JSONTapeObject root() {
+        return new JSONTapeObject(this, 0);
+    }
+
+    /**
+     * Get the number of bytes of the tape.
+     * @return The size of the tape.
+     */
+    public int size() {
+        return this.buffer.limit();
+    }
+
+    /**
+     * Tell whether the tape is outside of the heap.
+     * @return true if the buffer is direct.
+     */
+    public boolean isDirect() {
+        return this.buffer.isDirect();
+    }
+
+    /**
+     * Get the table of the keys of the tape.
+     * @return The symbol table.
+     */
+    public JSONTapeSymbols symbols() {
+        return this.symbols;
+    }
+
+    /**
+     * Make the JSON text of the document, as {@link JSONObject#toString()}
+     * does for the JSONObject it was encoded from.
+     * @return The JSON text.
+     */
+    public String toString() {
+        return this.root().toString();
+    }
+
+    byte tag(int p) {
+        return this.buffer.get(p);
+    }
+
+    int length(int p) {
+        return this.buffer.getInt(p + 1);
+    }
+
+    long longAt(int p) {
+        return this.buffer.getLong(p + 1);
+    }
+
+    int key(int p) {
+        return this.buffer.getInt(p);
+    }
+
+    String name(int id) {
+        return this.symbols.name(id);
+    }
+
+    int lookup(String key) {
+        return this.symbols.lookup(key);
+    }
+
+    /**
+     * Get the position of the first member of an object or an array.
+     */
+    static int first(int p) {
+        return p + 9;
+    }
+
+    /**
+     * Get the position just past a value.
+     */
+    int end(int p) {
+        switch (this.buffer.get(p)) {
+            case LONG:
+            case DOUBLE:
+                return p + 9;
+            case DECIMAL:
+                return p + 13;
+            case NUMBER:
+            case STRING:
+            case RAW:
+                return p + 5 + this.buffer.getInt(p + 1);
+            case OBJECT:
+            case ARRAY:
+                return p + 9 + this.buffer.getInt(p + 5);
+            default:
+                return p + 1;
+        }
+    }
+
+    /**
+     * Get the value at a position. Containers are returned as views, and
+     * numbers as the Long, Double or BigDecimal they were encoded from.
+     */
+    Object value(int p) {
+        switch (this.buffer.get(p)) {
+            case NULL:
+                return JSONObject.NULL;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case LONG:
+                return Long.valueOf(this.buffer.getLong(p + 1));
+            case DOUBLE:
+                return Double.valueOf(this.buffer.getDouble(p + 1));
+            case DECIMAL:
+                return BigDecimal.valueOf(this.buffer.getLong(p + 1),
+                        this.buffer.getInt(p + 9));
+            case NUMBER:
+                return new BigDecimal(this.text(p));
+            case OBJECT:
+                return new JSONTapeObject(this, p);
+            case ARRAY:
+                return new JSONTapeArray(this, p);
+            default:
+                return this.text(p);
+        }
+    }
+
+    /**
+     * Get the text of a string, a raw text or a number stored as text.
+     */
+    String text(int p) {
+        int length = this.buffer.getInt(p + 1);
+        if (this.buffer.hasArray()) {
+            return new String(this.buffer.array(),
+                    this.buffer.arrayOffset() + p + 5, length, UTF8);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer source = this.buffer.duplicate();
+        source.position(p + 5);
+        source.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Write the JSON text of the value at a position, following the
+     * writeValue method of JSONObject.
+     */
+    void write(StringBuilder sb, int p, int indentFactor, int indent)
+            throws JSONException {
+        switch (this.buffer.get(p)) {
+            case NULL:
+                sb.append("null");
+                break;
+            case TRUE:
+                sb.append("true");
+                break;
+            case FALSE:
+                sb.append("false");
+                break;
+            case LONG:
+                sb.append(this.buffer.getLong(p + 1));
+                break;
+            case OBJECT:
+                this.writeObject(sb, p, indentFactor, indent, true);
+                break;
+            case ARRAY:
+                this.writeArray(sb, p, indentFactor, indent);
+                break;
+            case STRING:
+                try {
+                    JSONObject.quote(this.text(p), sb);
+                } catch (IOException e) {
+                    throw new JSONException(e);
+                }
+                break;
+            case RAW:
+                sb.append(this.text(p));
+                break;
+            default:
+                sb.append(JSONObject.numberToString((Number) this.value(p)));
+        }
+    }
+
+    /**
+     * Write the JSON text of an object, following the write method of
+     * JSONObject: when display is false, an object with a single member is
+     * written as the value of the member.
+     */
+    void writeObject(StringBuilder sb, int p, int indentFactor, int indent,
+            boolean display) throws JSONException {
+        try {
+            int length = this.length(p);
+            int q = first(p);
+            if (length == 1) {
+                if (display) {
+                    sb.append('{');
+                    JSONObject.quote(this.name(this.key(q)), sb);
+                    sb.append(':');
+                    if (indentFactor > 0) {
+                        sb.append(' ');
+                    }
+                }
+                this.write(sb, q + 4, indentFactor, indent);
+                if (display) {
+                    sb.append('}');
+                }
+            } else if (length != 0) {
+                sb.append('{');
+                int newindent = indent + indentFactor;
+                for (int i = 0; i < length; i += 1) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    if (indentFactor > 0) {
+                        sb.append('\n');
+                    }
+                    JSONObject.indent(sb, newindent);
+                    JSONObject.quote(this.name(this.key(q)), sb);
+                    sb.append(':');
+                    if (indentFactor > 0) {
+                        sb.append(' ');
+                    }
+                    this.write(sb, q + 4, indentFactor, newindent);
+                    q = this.end(q + 4);
+                }
+                if (indentFactor > 0) {
+                    sb.append('\n');
+                }
+                JSONObject.indent(sb, indent);
+                sb.append('}');
+            }
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Write the JSON text of an array, following the write method of
+     * JSONArray.
+     */
+    void writeArray(StringBuilder sb, int p, int indentFactor, int indent)
+            throws JSONException {
+        try {
+            int length = this.length(p);
+            int q = first(p);
+            sb.append('[');
+            if (length == 1) {
+                this.write(sb, q, indentFactor, indent);
+            } else if (length != 0) {
+                int newindent = indent + indentFactor;
+                for (int i = 0; i < length; i += 1) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    if (indentFactor > 0) {
+                        sb.append('\n');
+                    }
+                    JSONObject.indent(sb, newindent);
+                    this.write(sb, q, indentFactor, newindent);
+                    q = this.end(q);
+                }
+                if (indentFactor > 0) {
+                    sb.append('\n');
+                }
+                JSONObject.indent(sb, indent);
+            }
+            sb.append(']');
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Encodes a tree of values in a growing byte array.
+     */
+    private static final class Encoder {
+
+        private final JSONTapeSymbols symbols;
+
+        private byte[] bytes = new byte[1024];
+
+        private int size;
+
+        Encoder(JSONTapeSymbols symbols) {
+            this.symbols = symbols;
+        }
+
+        void value(Object value) throws JSONException {
+            if (value instanceof JSONLazyNumber) {
+                value = ((JSONLazyNumber) value).bigDecimalValue();
+            }
+            if (value == null || value.equals(null)) {
+                this.tag(NULL);
+            } else if (value instanceof JSONObject) {
+                this.object((JSONObject) value);
+            } else if (value instanceof JSONArray) {
+                this.array((JSONArray) value);
+            } else if (value instanceof Map) {
+                this.object(new JSONObject((Map) value));
+            } else if (value instanceof Collection) {
+                this.array(new JSONArray((Collection) value));
+            } else if (value.getClass().isArray()) {
+                this.array(new JSONArray(value));
+            } else if (value instanceof Boolean) {
+                this.tag(((Boolean) value).booleanValue() ? TRUE : FALSE);
+            } else if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte) {
+                this.tag(LONG);
+                this.putLong(((Number) value).longValue());
+            } else if (value instanceof Double) {
+                JSONObject.testValidity(value);
+                this.tag(DOUBLE);
+                this.putLong(Double.doubleToRawLongBits(
+                        ((Double) value).doubleValue()));
+            } else if (value instanceof BigDecimal
+                    && ((BigDecimal) value).unscaledValue().bitLength() < 64) {
+                BigDecimal decimal = (BigDecimal) value;
+                this.tag(DECIMAL);
+                this.putLong(decimal.unscaledValue().longValue());
+                this.putInt(decimal.scale());
+            } else if (value instanceof BigDecimal
+                    || value instanceof BigInteger) {
+                this.text(NUMBER, value.toString());
+            } else if (value instanceof Number) {
+                this.text(RAW, JSONObject.numberToString((Number) value));
+            } else if (value instanceof JSONString) {
+                Object o;
+                try {
+                    o = ((JSONString) value).toJSONString();
+                } catch (Exception e) {
+                    throw new JSONException(e);
+                }
+                if (o != null) {
+                    this.text(RAW, o.toString());
+                } else {
+                    this.text(STRING, value.toString());
+                }
+            } else {
+                this.text(STRING, value.toString());
+            }
+        }
+
+        @SuppressWarnings(value = { "unchecked" })
+        private void object(JSONObject jo) throws JSONException {
+            int p = this.container(OBJECT, jo.length());
+            Iterator<String> keys = jo.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                this.putInt(this.symbols.intern(key));
+                this.value(jo.opt(key));
+            }
+            this.close(p);
+        }
+
+        private void array(JSONArray ja) throws JSONException {
+            int length = ja.length();
+            int p = this.container(ARRAY, length);
+            for (int i = 0; i < length; i += 1) {
+                this.value(ja.opt(i));
+            }
+            this.close(p);
+        }
+
+        private int container(byte tag, int length) {
+            int p = this.size;
+            this.tag(tag);
+            this.putInt(length);
+            this.putInt(0);
+            return p;
+        }
+
+        private void close(int p) {
+            int length = this.size - p - 9;
+            int q = p + 5;
+            this.bytes[q] = (byte) (length >>> 24);
+            this.bytes[q + 1] = (byte) (length >>> 16);
+            this.bytes[q + 2] = (byte) (length >>> 8);
+            this.bytes[q + 3] = (byte) length;
+        }
+
+        private void text(byte tag, String string) {
+            byte[] utf8 = string.getBytes(UTF8);
+            this.tag(tag);
+            this.putInt(utf8.length);
+            this.ensure(utf8.length);
+            System.arraycopy(utf8, 0, this.bytes, this.size, utf8.length);
+            this.size += utf8.length;
+        }
+
+        private void tag(byte tag) {
+            this.ensure(1);
+            this.bytes[this.size] = tag;
+            this.size += 1;
+        }
+
+        private void putInt(int i) {
+            this.ensure(4);
+            byte[] b = this.bytes;
+            int p = this.size;
+            b[p] = (byte) (i >>> 24);
+            b[p + 1] = (byte) (i >>> 16);
+            b[p + 2] = (byte) (i >>> 8);
+            b[p + 3] = (byte) i;
+            this.size = p + 4;
+        }
+
+        private void putLong(long l) {
+            this.putInt((int) (l >>> 32));
+            this.putInt((int) l);
+        }
+
+        private void ensure(int n) {
+            if (this.size + n > this.bytes.length) {
+                byte[] grown = new byte[Math.max(this.bytes.length << 1,
+                        this.size + n)];
+                System.arraycopy(this.bytes, 0, grown, 0, this.size);
+                this.bytes = grown;
+            }
+        }
+    }
+}
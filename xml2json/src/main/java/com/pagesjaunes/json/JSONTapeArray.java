@@ -0,0 +1,176 @@
+package com.pagesjaunes.json;
+
+/**
+ * A read-only view of an array of a {@link JSONTape}. Its methods mirror
+ * those of {@link JSONArray}. Values are stored one after the other, so
+ * getting the value at an index skips the values before it.
+ * @author pagesjaunes
+ */
+public final class JSONTapeArray {
+
+    private final JSONTape tape;
+
+    private final int position;
+
+    JSONTapeArray(JSONTape tape, int position) {
+        this.tape = tape;
+        this.position = position;
+    }
+
+    /**
+     * Get the number of values of the array.
+     * @return The length.
+     */
+    public int length() {
+        return this.tape.length(this.position);
+    }
+
+    /**
+     * Get the value at an index.
+     * @param index The index must be between 0 and length() - 1.
+     * @return The value, or null if the index is out of range. An object or
+     *  an array is returned as a {@link JSONTapeObject} or a
+     *  {@link JSONTapeArray}, an integer as a Long.
+     */
+    public Object opt(int index) {
+        int p = this.find(index);
+        return p < 0 ? null : this.tape.value(p);
+    }
+
+    /**
+     * Get an optional object at an index.
+     * @param index The index.
+     * @return The object, or null if there is no value at the index or if
+     *  it is not an object.
+     */
+    public JSONTapeObject optJSONTapeObject(int index) {
+        int p = this.find(index);
+        return p >= 0 && this.tape.tag(p) == JSONTape.OBJECT
+                ? new JSONTapeObject(this.tape, p)
+                : null;
+    }
+
+    /**
+     * Get an optional array at an index.
+     * @param index The index.
+     * @return The array, or null if there is no value at the index or if it
+     *  is not an array.
+     */
+    public JSONTapeArray optJSONTapeArray(int index) {
+        int p = this.find(index);
+        return p >= 0 && this.tape.tag(p) == JSONTape.ARRAY
+                ? new JSONTapeArray(this.tape, p)
+                : null;
+    }
+
+    /**
+     * Get an optional long value at an index. An integer is read from the
+     * tape without being boxed.
+     * @param index The index.
+     * @param defaultValue The default.
+     * @return The value, or the default if there is no value at the index
+     *  or if it is not a number.
+     */
+    public long optLong(int index, long defaultValue) {
+        int p = this.find(index);
+        return p < 0 ? defaultValue : longValue(this.tape, p, defaultValue);
+    }
+
+    /**
+     * Get an optional string at an index.
+     * @param index The index.
+     * @param defaultValue The default.
+     * @return The string, converted if the value is not a string, or the
+     *  default if there is no value at the index or if it is null.
+     */
+    public String optString(int index, String defaultValue) {
+        Object object = this.opt(index);
+        return JSONObject.NULL.equals(object) ? defaultValue
+                : object.toString();
+    }
+
+    /**
+     * Decode the array into a JSONArray.
+     * @return A new JSONArray.
+     * @throws JSONException If a value cannot be decoded.
+     */
+    public JSONArray toJSONArray() throws JSONException {
+        JSONArray ja = new JSONArray();
+        int p = JSONTape.first(this.position);
+        int length = this.length();
+        for (int i = 0; i < length; i += 1) {
+            ja.put(decode(this.tape.value(p)));
+            p = this.tape.end(p);
+        }
+        return ja;
+    }
+
+    /**
+     * Make the JSON text of the array, as {@link JSONArray#toString()} does.
+     * @return The JSON text.
+     */
+    public String toString() {
+        try {
+            return this.write(new StringBuilder(), 0).toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the JSON text of the array to a StringBuilder, straight from the
+     * tape.
+     * @param sb The StringBuilder.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @return The StringBuilder.
+     * @throws JSONException If a value cannot be written.
+     */
+    public StringBuilder write(StringBuilder sb, int indentFactor)
+            throws JSONException {
+        this.tape.writeArray(sb, this.position, indentFactor, 0);
+        return sb;
+    }
+
+    private int find(int index) {
+        int length = this.length();
+        if (index < 0 || index >= length) {
+            return -1;
+        }
+        int p = JSONTape.first(this.position);
+        for (int i = 0; i < index; i += 1) {
+            p = this.tape.end(p);
+        }
+        return p;
+    }
+
+    /**
+     * Turn the views returned by the tapes into JSONObjects and JSONArrays.
+     */
+    static Object decode(Object value) throws JSONException {
+        if (value instanceof JSONTapeObject) {
+            return ((JSONTapeObject) value).toJSONObject();
+        }
+        if (value instanceof JSONTapeArray) {
+            return ((JSONTapeArray) value).toJSONArray();
+        }
+        return value;
+    }
+
+    /**
+     * Read the value at a position of a tape as a long, as the getLong
+     * methods of JSONObject and JSONArray do.
+     */
+    static long longValue(JSONTape tape, int p, long defaultValue) {
+        if (tape.tag(p) == JSONTape.LONG) {
+            return tape.longAt(p);
+        }
+        Object value = tape.value(p);
+        try {
+            return value instanceof Number ? ((Number) value).longValue()
+                    : Long.parseLong((String) value);
+        } catch (Exception e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.pagesjaunes.json;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only view of an object of a {@link JSONTape}. Its methods mirror
+ * those of {@link JSONObject}: the values of the object are decoded from
+ * the tape when they are asked for, nested objects and arrays being
+ * returned as views. A view is a position in the tape, so making one costs
+ * nothing but the view itself.
+ * <p>
+ * Keys are found by comparing their symbol ids, and the values met on the
+ * way are skipped without being decoded.
+ * @author pagesjaunes
+ */
+public final class JSONTapeObject {
+
+    private final JSONTape tape;
+
+    private final int position;
+
+    JSONTapeObject(JSONTape tape, int position) {
+        this.tape = tape;
+        this.position = position;
+    }
+
+    /**
+     * Get the number of keys of the object.
+     * @return The number of keys.
+     */
+    public int length() {
+        return this.tape.length(this.position);
+    }
+
+    /**
+     * Get the value associated with a key.
+     * @param key A key string.
+     * @return The value, or null if there is no value. An object or an
+     *  array is returned as a {@link JSONTapeObject} or a
+     *  {@link JSONTapeArray}, an integer as a Long.
+     */
+    public Object opt(String key) {
+        int p = this.find(key);
+        return p < 0 ? null : this.tape.value(p);
+    }
+
+    /**
+     * Determine if the object contains a specific key.
+     * @param key A key string.
+     * @return true if the key exists in the object.
+     */
+    public boolean has(String key) {
+        return this.find(key) >= 0;
+    }
+
+    /**
+     * Determine if the value associated with the key is null or if there is
+     * no value.
+     * @param key A key string.
+     * @return true if there is no value or if the value is null.
+     */
+    public boolean isNull(String key) {
+        int p = this.find(key);
+        return p < 0 || this.tape.tag(p) == JSONTape.NULL;
+    }
+
+    /**
+     * Get an optional object associated with a key.
+     * @param key A key string.
+     * @return The object, or null if there is no such key or if its value
+     *  is not an object.
+     */
+    public JSONTapeObject optJSONTapeObject(String key) {
+        int p = this.find(key);
+        return p >= 0 && this.tape.tag(p) == JSONTape.OBJECT
+                ? new JSONTapeObject(this.tape, p)
+                : null;
+    }
+
+    /**
+     * Get an optional array associated with a key.
+     * @param key A key string.
+     * @return The array, or null if there is no such key or if its value is
+     *  not an array.
+     */
+    public JSONTapeArray optJSONTapeArray(String key) {
+        int p = this.find(key);
+        return p >= 0 && this.tape.tag(p) == JSONTape.ARRAY
+                ? new JSONTapeArray(this.tape, p)
+                : null;
+    }
+
+    /**
+     * Get an optional long value associated with a key. An integer is read
+     * from the tape without being boxed.
+     * @param key A key string.
+     * @param defaultValue The default.
+     * @return The value, or the default if there is no such key or if the
+     *  value is not a number.
+     */
+    public long optLong(String key, long defaultValue) {
+        int p = this.find(key);
+        return p < 0 ? defaultValue : JSONTapeArray.longValue(this.tape, p,
+                defaultValue);
+    }
+
+    /**
+     * Get an optional string associated with a key.
+     * @param key A key string.
+     * @return The string, converted if the value is not a string, or an
+     *  empty string if there is no such key.
+     */
+    public String optString(String key) {
+        return this.optString(key, "");
+    }
+
+    /**
+     * Get an optional string associated with a key.
+     * @param key A key string.
+     * @param defaultValue The default.
+     * @return The string, converted if the value is not a string, or the
+     *  default if there is no such key or if the value is null.
+     */
+    public String optString(String key, String defaultValue) {
+        Object object = this.opt(key);
+        return JSONObject.NULL.equals(object) ? defaultValue
+                : object.toString();
+    }
+
+    /**
+     * Get the keys of the object, in the order of the document.
+     * @return An iterator of the keys.
+     */
+    public Iterator<String> keys() {
+        final int length = this.length();
+        return new Iterator<String>() {
+            private int index;
+
+            private int p = JSONTape.first(JSONTapeObject.this.position);
+
+            public boolean hasNext() {
+                return this.index < length;
+            }
+
+            public String next() {
+                if (this.index >= length) {
+                    throw new NoSuchElementException();
+                }
+                JSONTape t = JSONTapeObject.this.tape;
+                String key = t.name(t.key(this.p));
+                this.p = t.end(this.p + 4);
+                this.index += 1;
+                return key;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Decode the object into a JSONObject.
+     * @return A new JSONObject.
+     * @throws JSONException If a value cannot be decoded.
+     */
+    public JSONObject toJSONObject() throws JSONException {
+        JSONObject jo = new JSONObject();
+        JSONTape t = this.tape;
+        int p = JSONTape.first(this.position);
+        int length = this.length();
+        for (int i = 0; i < length; i += 1) {
+            jo.put(t.name(t.key(p)), JSONTapeArray.decode(t.value(p + 4)));
+            p = t.end(p + 4);
+        }
+        return jo;
+    }
+
+    /**
+     * Make the JSON text of the object, as {@link JSONObject#toString()}
+     * does: an object with a single key is written as its value.
+     * @return The JSON text.
+     */
+    public String toString() {
+        try {
+            return this.toString(false, 0);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Make the JSON text of the object, as
+     * {@link JSONObject#toString(boolean, int)} does.
+     * @param displayRoot false to write an object with a single key as its
+     *  value.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @return The JSON text.
+     * @throws JSONException If a value cannot be written.
+     */
+    public String toString(boolean displayRoot, int indentFactor)
+            throws JSONException {
+        return this.write(new StringBuilder(), indentFactor, displayRoot)
+                .toString();
+    }
+
+    /**
+     * Write the JSON text of the object to a StringBuilder, straight from
+     * the tape.
+     * @param sb The StringBuilder.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param displayRoot false to write an object with a single key as its
+     *  value.
+     * @return The StringBuilder.
+     * @throws JSONException If a value cannot be written.
+     */
+    public StringBuilder write(StringBuilder sb, int indentFactor,
+            boolean displayRoot) throws JSONException {
+        this.tape.writeObject(sb, this.position, indentFactor, 0, displayRoot);
+        return sb;
+    }
+
+    /**
+     * Get the position of the value of a key.
+     * @return The position, or -1 if there is no such key.
+     */
+    private int find(String key) {
+        if (key == null) {
+            return -1;
+        }
+        int id = this.tape.lookup(key);
+        if (id < 0) {
+            return -1;
+        }
+        JSONTape t = this.tape;
+        int p = JSONTape.first(this.position);
+        int length = t.length(this.position);
+        for (int i = 0; i < length; i += 1) {
+            if (t.key(p) == id) {
+                return p + 4;
+            }
+            p = t.end(p + 4);
+        }
+        return -1;
+    }
+}
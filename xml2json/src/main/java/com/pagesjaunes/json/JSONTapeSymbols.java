@@ -0,0 +1,78 @@
+package com.pagesjaunes.json;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The table of the keys of the {@link JSONTape}s encoded with it. A tape
+ * stores each key as the id of its symbol, so a key shared by millions of
+ * documents is held once. The table only grows; it is meant to be shared by
+ * all the tapes of a cache, whose documents use a bounded set of keys.
+ * <p>
+ * A table can be used by several threads at once.
+ * @author pagesjaunes
+ */
+public class JSONTapeSymbols {
+
+    private final ConcurrentHashMap<String, Integer> ids =
+            new ConcurrentHashMap<String, Integer>();
+
+    private volatile String[] names = new String[64];
+
+    private int size;
+
+    /**
+     * Get the id of a key, adding it to the table if it is new.
+     * @param name A key.
+     * @return The id of the key.
+     */
+    public int intern(String name) {
+        Integer id = this.ids.get(name);
+        if (id != null) {
+            return id.intValue();
+        }
+        synchronized (this) {
+            id = this.ids.get(name);
+            if (id != null) {
+                return id.intValue();
+            }
+            String[] table = this.names;
+            if (this.size == table.length) {
+                String[] grown = new String[table.length << 1];
+                System.arraycopy(table, 0, grown, 0, this.size);
+                table = grown;
+            }
+            table[this.size] = name;
+            this.names = table;
+            this.ids.put(name, Integer.valueOf(this.size));
+            this.size += 1;
+            return this.size - 1;
+        }
+    }
+
+    /**
+     * Get the id of a key without adding it.
+     * @param name A key.
+     * @return The id of the key, or -1 if no tape uses it.
+     */
+    public int lookup(String name) {
+        Integer id = this.ids.get(name);
+        return id == null ? -1 : id.intValue();
+    }
+
+    /**
+     * Get the key of an id.
+     * @param id The id returned by {@link #intern(String)}.
+     * @return The key.
+     */
+    public String name(int id) {
+        return this.names[id];
+    }
+
+    /**
+     * Get the number of keys in the table.
+     * @return The number of keys.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+}
@@ -5,7 +5,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 
 
 /*
@@ -36,6 +35,12 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * A tokener built from a string or a character array only tracks its offset
+ * in the buffer while reading. The line and character reported by
+ * {@link #syntaxError(String)} are computed when the error is raised, by
+ * rescanning the characters read so far. A tokener built from a Reader
+ * cannot look back, so it keeps tracking them on every character.
  * @author JSON.org
  * @version 2012-02-16
  */
@@ -55,6 +60,28 @@ public class JSONTokener {
 
     private boolean usePrevious;
 
+    /**
+     * The source characters when the tokener was built from a string, or null
+     * when it reads from a Reader. Buffered tokeners let subclasses scan whole
+     * runs of characters instead of calling next() for each of them.
+     */
+    private char[] buffer;
+
+    private int offset;
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * The values of index at which a buffered tokener replayed a line break
+     * after back(). The Reader mode counts such a line break twice, so the
+     * position computed on demand has to do the same.
+     */
+    private long[] replays;
+
+    private int replayCount;
+
     /**
      * Construct a JSONTokener from a Reader.
      *
@@ -85,7 +112,44 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this(s.toCharArray(), 0, s.length());
+    }
+
+    /**
+     * Construct a JSONTokener reading directly from a character array. The
+     * array is not copied and must not be modified while the tokener is in
+     * use.
+     *
+     * @param buffer    The source characters.
+     * @param offset    The offset of the first character to read.
+     * @param length    The number of characters to read.
+     */
+    public JSONTokener(char[] buffer, int offset, int length) {
+        this.reset(buffer, offset, length);
+    }
+
+    /**
+     * Start reading another character array, as a new tokener would. The
+     * tokener and what it allocated while reading are kept, so a tokener
+     * can be reused for a sequence of documents.
+     *
+     * @param buffer    The source characters.
+     * @param offset    The offset of the first character to read.
+     * @param length    The number of characters to read.
+     */
+    public void reset(char[] buffer, int offset, int length) {
+        this.reader = null;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.position = offset;
+        this.limit = offset + length;
+        this.replayCount = 0;
+        this.eof = false;
+        this.usePrevious = false;
+        this.previous = 0;
+        this.index = 0;
+        this.character = 1;
+        this.line = 1;
     }
 
     /**
@@ -150,6 +214,19 @@ public class JSONTokener {
         if (this.usePrevious) {
             this.usePrevious = false;
             c = this.previous;
+            if (this.buffer != null && (c == '\n' || c == '\r')) {
+                this.recordReplay();
+            }
+        } else if (this.buffer != null) {
+            if (this.position < this.limit) {
+                c = this.buffer[this.position];
+                this.position += 1;
+            } else {
+                c = 0;
+            }
+            if (c == 0) { // End of buffer
+                this.eof = true;
+            }
         } else {
             try {
                 c = this.reader.read();
@@ -163,6 +240,10 @@ public class JSONTokener {
             }
         }
         this.index += 1;
+        if (this.buffer != null) {
+            this.previous = (char) c;
+            return this.previous;
+        }
         if (this.previous == '\r') {
             this.line += 1;
             this.character = c == '\n' ? 0 : 1;
@@ -390,6 +471,27 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
+        if (this.buffer != null) {
+            long startIndex = this.index;
+            int startPosition = this.position;
+            int startReplayCount = this.replayCount;
+            boolean startUsePrevious = this.usePrevious;
+            char startPrevious = this.previous;
+            do {
+                c = this.next();
+                if (c == 0) {
+                    this.position = startPosition;
+                    this.replayCount = startReplayCount;
+                    this.usePrevious = startUsePrevious;
+                    this.previous = startPrevious;
+                    this.eof = false;
+                    this.index = startIndex;
+                    return c;
+                }
+            } while (c != to);
+            this.back();
+            return c;
+        }
         try {
             long startIndex = this.index;
             long startCharacter = this.character;
@@ -413,6 +515,106 @@ public class JSONTokener {
         return c;
     }
 
+    /**
+     * Get the source buffer of a tokener built from a string or a character
+     * array.
+     *
+     * @return The source characters, or null if the tokener reads from a
+     *  Reader.
+     */
+    char[] buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Get the offset in the source buffer of the character the next call to
+     * next() will read. It is only meaningful for a buffered tokener that has
+     * no character pending after back().
+     *
+     * @return The buffer offset.
+     */
+    int bufferPosition() {
+        return this.usePrevious ? this.position - 1 : this.position;
+    }
+
+    /**
+     * Get the offset in the source buffer just past the last character.
+     *
+     * @return The buffer limit.
+     */
+    int bufferLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Consume every buffered character up to, but not including, the given
+     * offset, as if next() had been called for each of them. This is used to
+     * skip over a run of characters that has already been scanned. It must
+     * not be called while a character is pending after back().
+     *
+     * @param to The buffer offset of the next character to read.
+     */
+    void skipBuffered(int to) {
+        if (to > this.position) {
+            this.index += to - this.position;
+            this.position = to;
+            this.previous = this.buffer[to - 1];
+        }
+    }
+
+    private void recordReplay() {
+        if (this.replays == null) {
+            this.replays = new long[8];
+        } else if (this.replayCount == this.replays.length) {
+            long[] grown = new long[this.replayCount << 1];
+            System.arraycopy(this.replays, 0, grown, 0, this.replayCount);
+            this.replays = grown;
+        }
+        this.replays[this.replayCount] = this.index + 1;
+        this.replayCount += 1;
+    }
+
+    /**
+     * Compute the line and character of a buffered tokener by reading again
+     * the characters read so far, the way next() does for a Reader.
+     */
+    private void locate() {
+        long reads = this.usePrevious ? this.index + 1 : this.index;
+        long line = 1;
+        long character = 1;
+        char previous = 0;
+        int r = 0;
+        for (long k = 1; k <= reads; k += 1) {
+            long p = this.offset + k - 1;
+            char c = p < this.limit ? this.buffer[(int) p] : 0;
+            int times = 1;
+            while (r < this.replayCount && this.replays[r] == k) {
+                times += 1;
+                r += 1;
+            }
+            for (int t = 0; t < times; t += 1) {
+                if (t > 0) {
+                    character -= 1;
+                }
+                if (previous == '\r') {
+                    line += 1;
+                    character = c == '\n' ? 0 : 1;
+                } else if (c == '\n') {
+                    line += 1;
+                    character = 0;
+                } else {
+                    character += 1;
+                }
+                previous = c;
+            }
+        }
+        if (this.usePrevious) {
+            character -= 1;
+        }
+        this.line = line;
+        this.character = character;
+    }
+
     /**
      * Make a JSONException to signal a syntax error.
      *
@@ -430,6 +632,9 @@ public class JSONTokener {
      */
     @Override
     public String toString() {
+        if (this.buffer != null) {
+            this.locate();
+        }
         return " at " + this.index + " [character " + this.character + " line " + this.line + "]";
     }
 }
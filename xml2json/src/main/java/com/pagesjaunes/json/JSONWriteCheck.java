@@ -0,0 +1,22 @@
+package com.pagesjaunes.json;
+
+/**
+ * The <code>JSONWriteCheck</code> interface lets the writer of a JSON text
+ * be stopped midway, for instance when the text grows past a limit or its
+ * conversion runs past a deadline. <code>JSONObject.write</code> and
+ * <code>JSONArray.write</code> call it after each member and each element
+ * they write.
+ * @author pagesjaunes
+ */
+public interface JSONWriteCheck {
+
+    /**
+     * Check the text written so far.
+     *
+     * @param length The number of characters of the builder the text is
+     *  written to.
+     * @throws JSONException To stop writing.
+     */
+    public void written(int length) throws JSONException;
+
+}
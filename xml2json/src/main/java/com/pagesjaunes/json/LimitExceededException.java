@@ -0,0 +1,67 @@
+package com.pagesjaunes.json;
+
+/**
+ * The LimitExceededException is thrown when a document goes past one of the
+ * limits set on its conversion, before the oversized value is made.
+ * @author pagesjaunes
+ */
+public class LimitExceededException extends JSONException {
+
+    private static final long serialVersionUID = 0;
+
+    /**
+     * The limits a conversion can be given.
+     */
+    public enum Limit {
+
+        /** The number of characters of the document. */
+        INPUT_CHARACTERS,
+
+        /** The depth of an element, the document element being 1. */
+        DEPTH,
+
+        /** The number of attributes of an element. */
+        ATTRIBUTES,
+
+        /** The number of elements of the same name under a parent. */
+        SIBLINGS,
+
+        /** The number of characters of a text, CDATA or attribute value. */
+        TEXT_LENGTH,
+
+        /** The number of characters of the JSON text. */
+        OUTPUT_CHARACTERS
+    }
+
+    private final Limit limit;
+
+    private final long max;
+
+    /**
+     * Constructs a LimitExceededException.
+     * @param limit The limit that was exceeded.
+     * @param max The value of the limit.
+     * @param message Detail about where the limit was exceeded.
+     */
+    public LimitExceededException(Limit limit, long max, String message) {
+        super(message);
+        this.limit = limit;
+        this.max = max;
+    }
+
+    /**
+     * Get the limit that was exceeded.
+     * @return The limit.
+     */
+    public Limit getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Get the value of the limit that was exceeded.
+     * @return The largest value allowed.
+     */
+    public long getMax() {
+        return this.max;
+    }
+}
@@ -0,0 +1,20 @@
+package com.pagesjaunes.json;
+
+/**
+ * The <code>XMLReadCheck</code> interface lets the reading of an XML
+ * document be stopped midway, for instance when its conversion runs past a
+ * deadline, even inside a long comment, processing instruction or CDATA
+ * section. <code>XMLTokener</code> calls it every
+ * {@link XMLTokener#CHECK_CHARACTERS} characters it skips or copies there.
+ * @author pagesjaunes
+ */
+public interface XMLReadCheck {
+
+    /**
+     * Check the reading of the document.
+     *
+     * @throws JSONException To stop reading.
+     */
+    public void reading() throws JSONException;
+
+}
@@ -0,0 +1,350 @@
+package com.pagesjaunes.json;
+
+/**
+ * A compact index of the structural characters of an XML text. It is built
+ * in a single pass over a character buffer and records, in increasing order,
+ * the offset of every <code>&lt; &gt; " ' &amp;</code> and NUL character.
+ * <p>
+ * A tokener walking the index can jump from one markup character to the
+ * next instead of examining every character of the text between them, and
+ * can find the end of an element without tokenizing its content. See
+ * {@link IndexedXMLTokener}.
+ * @author pagesjaunes
+ */
+public class XMLStructuralIndex {
+
+    /**
+     * Bitmap of the structural characters, all of which are below 64.
+     */
+    private static final long STRUCTURAL = 1L | 1L << '<' | 1L << '>'
+            | 1L << '"' | 1L << '\'' | 1L << '&';
+
+    private char[] buffer;
+
+    private int offset;
+
+    private int limit;
+
+    private int[] positions;
+
+    private int size;
+
+    /**
+     * Build the index of a character buffer.
+     * @param buffer The source characters. The array is not copied.
+     * @param offset The offset of the first character to index.
+     * @param length The number of characters to index.
+     */
+    public XMLStructuralIndex(char[] buffer, int offset, int length) {
+        this.reset(buffer, offset, length);
+    }
+
+    /**
+     * Index another character buffer, reusing the array of positions of the
+     * previous one. An index in use by a tokener or an on-demand view must
+     * not be reset.
+     * @param buffer The source characters. The array is not copied.
+     * @param offset The offset of the first character to index.
+     * @param length The number of characters to index.
+     */
+    public void reset(char[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.limit = offset + length;
+        if (this.positions == null) {
+            this.positions = new int[Math.max(16, length >> 3)];
+        }
+        int[] pos = this.positions;
+        int n = 0;
+        for (int i = offset; i < this.limit; i += 1) {
+            char c = buffer[i];
+            if (c < 64 && (STRUCTURAL >>> c & 1L) != 0) {
+                if (n == pos.length) {
+                    int[] grown = new int[pos.length << 1];
+                    System.arraycopy(pos, 0, grown, 0, n);
+                    pos = grown;
+                }
+                pos[n] = i;
+                n += 1;
+            }
+        }
+        this.positions = pos;
+        this.size = n;
+    }
+
+    /**
+     * Get the indexed buffer.
+     * @return The source characters.
+     */
+    public char[] buffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Get the offset of the first indexed character.
+     * @return The offset.
+     */
+    public int offset() {
+        return this.offset;
+    }
+
+    /**
+     * Get the offset just past the last indexed character.
+     * @return The limit.
+     */
+    public int limit() {
+        return this.limit;
+    }
+
+    /**
+     * Get the number of structural characters.
+     * @return The size of the index.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the buffer offset of a structural character.
+     * @param i The rank of the character in the index.
+     * @return The buffer offset.
+     */
+    public int position(int i) {
+        return this.positions[i];
+    }
+
+    /**
+     * Get the rank of the first structural character at or after a buffer
+     * offset.
+     * @param from A buffer offset.
+     * @return The rank, or size() if there is no such character.
+     */
+    public int rank(int from) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.positions[mid] < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find the end of the element whose '&lt;' is at the given offset,
+     * without tokenizing its content. Comments, CDATA sections, processing
+     * instructions and quoted attribute values are honoured; names are not
+     * checked against each other.
+     * @param start The buffer offset of the '&lt;' opening the element.
+     * @return The buffer offset just past the '&gt;' that closes the element.
+     * @throws JSONException If the element is not closed.
+     */
+    public int elementEnd(int start) throws JSONException {
+        int depth = 0;
+        int i = this.rank(start);
+        while (i < this.size) {
+            int p = this.positions[i];
+            if (this.buffer[p] != '<') {
+                i += 1;
+                continue;
+            }
+            char c = p + 1 < this.limit ? this.buffer[p + 1] : 0;
+            if (c == '!' || c == '?') {
+                i = this.metaEnd(i) + 1;
+                continue;
+            }
+            i = this.tagEnd(i);
+            int gt = this.positions[i];
+            i += 1;
+            if (c == '/') {
+                depth -= 1;
+            } else if (this.buffer[gt - 1] != '/') {
+                depth += 1;
+            }
+            if (depth <= 0) {
+                return gt + 1;
+            }
+        }
+        throw new JSONException("Unclosed element at " + start);
+    }
+
+    /**
+     * Get the offsets of the '&lt;' opening each child element of an
+     * element. Text, comments, CDATA sections and processing instructions
+     * between the children are skipped. This is what a caller needs to split
+     * a document into records that can be converted independently.
+     * @param start The buffer offset of the '&lt;' opening the parent.
+     * @return The offsets of the children, in document order.
+     * @throws JSONException If an element is not closed.
+     */
+    public int[] childElements(int start) throws JSONException {
+        int[] children = new int[16];
+        int n = 0;
+        int from = this.contentStart(start);
+        while (from >= 0) {
+            int p = this.nextElement(from);
+            if (p < 0) {
+                break;
+            }
+            if (n == children.length) {
+                int[] grown = new int[n << 1];
+                System.arraycopy(children, 0, grown, 0, n);
+                children = grown;
+            }
+            children[n] = p;
+            n += 1;
+            from = this.elementEnd(p);
+        }
+        int[] result = new int[n];
+        System.arraycopy(children, 0, result, 0, n);
+        return result;
+    }
+
+    /**
+     * Get the name of an element, as the tokener reads it.
+     * @param start The buffer offset of the '&lt;' opening the element.
+     * @return The name.
+     */
+    public String name(int start) {
+        int end = start + 1;
+        while (end < this.limit) {
+            char c = this.buffer[end];
+            if (Character.isWhitespace(c) || c == '>' || c == '/'
+                    || c == '=' || c == '!' || c == '?' || c == '['
+                    || c == ']' || c == 0) {
+                break;
+            }
+            end += 1;
+        }
+        return new String(this.buffer, start + 1, end - start - 1);
+    }
+
+    /**
+     * Get the offset of the content of an element, just past its open tag.
+     * @param start The buffer offset of the '&lt;' opening the element.
+     * @return The offset of the content, or -1 if the element is empty
+     *  (<code>&lt;name/&gt;</code>).
+     * @throws JSONException If the open tag is not closed.
+     */
+    public int contentStart(int start) throws JSONException {
+        int gt = this.positions[this.tagEnd(this.rank(start))];
+        return this.buffer[gt - 1] == '/' ? -1 : gt + 1;
+    }
+
+    /**
+     * Find the next element starting at or after a buffer offset in the
+     * content of an element, skipping text, comments, CDATA sections and
+     * processing instructions. Call it with the offset just past the
+     * previous sibling to walk the children of an element one at a time.
+     * @param from A buffer offset in the content of an element, or at the
+     *  top level of the document.
+     * @return The offset of the '&lt;' opening the element, or -1 if a close
+     *  tag or the end of the buffer comes first.
+     * @throws JSONException If a comment or a CDATA section is not closed.
+     */
+    public int nextElement(int from) throws JSONException {
+        int i = this.rank(from);
+        while (i < this.size) {
+            int p = this.positions[i];
+            if (this.buffer[p] != '<') {
+                i += 1;
+                continue;
+            }
+            char c = p + 1 < this.limit ? this.buffer[p + 1] : 0;
+            if (c == '/') {
+                return -1;
+            } else if (c == '!' || c == '?') {
+                i = this.metaEnd(i) + 1;
+            } else {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the end of a tag, skipping quoted attribute values.
+     * @param i The rank of the '&lt;' opening the tag.
+     * @return The rank of the closing '&gt;'.
+     * @throws JSONException If the tag is not closed.
+     */
+    private int tagEnd(int i) throws JSONException {
+        int start = this.positions[i];
+        char quote = 0;
+        for (i += 1; i < this.size; i += 1) {
+            char c = this.buffer[this.positions[i]];
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        throw new JSONException("Unclosed tag at " + start);
+    }
+
+    /**
+     * Find the end of a comment, a CDATA section, a processing instruction
+     * or a declaration.
+     * @param i The rank of the '&lt;' opening it.
+     * @return The rank of the closing '&gt;'.
+     * @throws JSONException If it is not closed.
+     */
+    private int metaEnd(int i) throws JSONException {
+        int start = this.positions[i];
+        String open;
+        String end;
+        if (this.startsWith(start, "<!--")) {
+            open = "<!--";
+            end = "-->";
+        } else if (this.startsWith(start, "<![CDATA[")) {
+            open = "<![CDATA[";
+            end = "]]>";
+        } else if (this.startsWith(start, "<?")) {
+            open = "<?";
+            end = "?>";
+        } else {
+            int depth = 0;
+            for (; i < this.size; i += 1) {
+                char c = this.buffer[this.positions[i]];
+                if (c == '<') {
+                    depth += 1;
+                } else if (c == '>') {
+                    depth -= 1;
+                    if (depth == 0) {
+                        return i;
+                    }
+                }
+            }
+            throw new JSONException("Missing '>' after '<!' at " + start);
+        }
+        int from = start + open.length() + end.length() - 1;
+        for (i += 1; i < this.size; i += 1) {
+            int p = this.positions[i];
+            if (p >= from && this.buffer[p] == '>'
+                    && this.startsWith(p - end.length() + 1, end)) {
+                return i;
+            }
+        }
+        throw new JSONException("Unclosed " + end + " at " + start);
+    }
+
+    private boolean startsWith(int from, String s) {
+        int length = s.length();
+        if (from < this.offset || from + length > this.limit) {
+            return false;
+        }
+        for (int i = 0; i < length; i += 1) {
+            if (this.buffer[from + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -36,6 +36,12 @@ SOFTWARE.
 @SuppressWarnings(value = { "rawtypes", "unchecked" })
 public class XMLTokener extends JSONTokener {
 
+    /**
+     * The number of characters of a comment, processing instruction or
+     * CDATA section read between two calls of the {@link XMLReadCheck}.
+     */
+    public static final int CHECK_CHARACTERS = 1 << 16;
+
     /** The table of entity values. It initially contains Character values for
      * amp, apos, gt, lt, quot.
      */
@@ -50,6 +56,36 @@ public class XMLTokener extends JSONTokener {
         ENTITY.put("quot", XmlToJsonService.QUOT);
     }
 
+    /**
+     * Whether values with no entities are returned as {@link CharSlice}s of
+     * the source buffer instead of Strings.
+     */
+    private boolean sliceValues;
+
+    /**
+     * The longest text, CDATA or quoted value read, in characters.
+     */
+    private int maxTextLength = Integer.MAX_VALUE;
+
+    /**
+     * Called while skipping or reading a long run of characters, or null.
+     */
+    private XMLReadCheck readCheck;
+
+    /**
+     * The names read from the buffer, by hash of their characters. A name
+     * met again, in the same document or in the next ones when the tokener
+     * is reused, is not copied again.
+     */
+    private String[] names;
+
+    private static final int NAMES = 256;
+
+    /**
+     * Names longer than this are not kept in the cache.
+     */
+    private static final int NAME_LENGTH = 32;
+
     /**
      * Construct an XMLTokener from a string.
      * @param s A source string.
@@ -58,6 +94,74 @@ public class XMLTokener extends JSONTokener {
         super(s);
     }
 
+    /**
+     * Construct an XMLTokener reading directly from a character array.
+     * @param buffer The source characters.
+     * @param offset The offset of the first character to read.
+     * @param length The number of characters to read.
+     */
+    public XMLTokener(char[] buffer, int offset, int length) {
+        super(buffer, offset, length);
+    }
+
+    /**
+     * Tell whether content and quoted values are returned as slices.
+     * @return true if they are returned as {@link CharSlice}s.
+     */
+    public boolean isSliceValues() {
+        return this.sliceValues;
+    }
+
+    /**
+     * Return the content and the quoted values that have no entities to
+     * decode as {@link CharSlice}s of the source buffer instead of copying
+     * them into Strings. Names are still returned as Strings. This has no
+     * effect on a tokener reading from a Reader.
+     * @param sliceValues true to return slices.
+     */
+    public void setSliceValues(boolean sliceValues) {
+        this.sliceValues = sliceValues;
+    }
+
+    /**
+     * Get the longest text, CDATA or quoted value this tokener reads.
+     * @return The number of characters.
+     */
+    public int getMaxTextLength() {
+        return this.maxTextLength;
+    }
+
+    /**
+     * Stop reading a text, CDATA or quoted value longer than a number of
+     * characters with a {@link LimitExceededException}, as soon as its
+     * length is known and before it is copied. The length is counted before
+     * the text is trimmed and its entities decoded.
+     * @param maxTextLength The number of characters.
+     */
+    public void setMaxTextLength(int maxTextLength) {
+        this.maxTextLength = maxTextLength;
+    }
+
+    public XMLReadCheck getReadCheck() {
+        return this.readCheck;
+    }
+
+    /**
+     * Call a check every {@link #CHECK_CHARACTERS} characters of a comment,
+     * processing instruction or CDATA section, which are read in one call
+     * however long they are.
+     * @param readCheck The check, or null for none.
+     */
+    public void setReadCheck(XMLReadCheck readCheck) {
+        this.readCheck = readCheck;
+    }
+
+    private LimitExceededException textTooLong() {
+        return new LimitExceededException(LimitExceededException.Limit.TEXT_LENGTH,
+                this.maxTextLength, "Text longer than " + this.maxTextLength
+                + " characters" + this.toString());
+    }
+
     /**
      * Get the text in the CDATA block.
      * @return The string up to the <code>]]&gt;</code>.
@@ -78,6 +182,12 @@ public class XMLTokener extends JSONTokener {
                 sb.setLength(i);
                 return sb.toString();
             }
+            if (i >= this.maxTextLength) {
+                throw textTooLong();
+            }
+            if ((i & (CHECK_CHARACTERS - 1)) == 0 && this.readCheck != null) {
+                this.readCheck.reading();
+            }
         }
     }
 
@@ -87,7 +197,8 @@ public class XMLTokener extends JSONTokener {
      * text between markup tags.
      *
      * @return  A string, or a '<' Character, or null if there is no more
-     * source text.
+     * source text. The string is a {@link CharSlice} when slices are enabled
+     * and the content has no entities.
      * @throws JSONException
      */
     public Object nextContent() throws JSONException {
@@ -102,6 +213,9 @@ public class XMLTokener extends JSONTokener {
         if (c == '<') {
             return XmlToJsonService.LT;
         }
+        if (buffer() != null) {
+            return nextBufferedContent();
+        }
         sb = new StringBuffer();
         for (;;) {
             if (c == '<' || c == 0) {
@@ -113,10 +227,155 @@ public class XMLTokener extends JSONTokener {
             } else {
                 sb.append(c);
             }
+            if (sb.length() > this.maxTextLength) {
+                throw textTooLong();
+            }
             c = next();
         }
     }
 
+    /**
+     * Get the rest of a content token from the source buffer. The first
+     * character of the content has just been read. Runs of plain text are
+     * located with {@link #scanContent(int, int)} and copied at once, so only
+     * the entities are decoded one character at a time.
+     *
+     * @return The trimmed content string, or a slice of the buffer.
+     * @throws JSONException If an entity is badly formed.
+     */
+    private CharSequence nextBufferedContent() throws JSONException {
+        char[] buf = buffer();
+        int limit = bufferLimit();
+        int start = bufferPosition() - 1;
+        StringBuilder sb = null;
+        if (buf[start] == '&') {
+            sb = new StringBuilder();
+            sb.append(nextEntity('&'));
+            start = bufferPosition();
+        }
+        int end = scanContent(start, limit);
+        if ((sb == null ? 0 : sb.length()) + end - start > this.maxTextLength) {
+            throw textTooLong();
+        }
+        if (sb == null && (end == limit || buf[end] != '&')) {
+            skipBuffered(end);
+            while (start < end && buf[start] <= ' ') {
+                start += 1;
+            }
+            while (end > start && buf[end - 1] <= ' ') {
+                end -= 1;
+            }
+            if (this.sliceValues) {
+                return new CharSlice(buf, start, end - start);
+            }
+            return new String(buf, start, end - start);
+        }
+        if (sb == null) {
+            sb = new StringBuilder(end - start + 16);
+        }
+        for (;;) {
+            sb.append(buf, start, end - start);
+            skipBuffered(end);
+            if (end == limit || buf[end] != '&') {
+                return sb.toString().trim();
+            }
+            sb.append(nextEntity(next()));
+            start = bufferPosition();
+            end = scanContent(start, limit);
+            if (sb.length() + end - start > this.maxTextLength) {
+                throw textTooLong();
+            }
+        }
+    }
+
+    /**
+     * Find the end of a run of plain content text in the source buffer: the
+     * offset of the next '<', '&' or NUL character, or <code>to</code> if
+     * there is none.
+     *
+     * @param from The offset at which to start scanning.
+     * @param to The offset at which to stop scanning.
+     * @return The offset of the first markup character.
+     */
+    int scanContent(int from, int to) {
+        char[] buf = buffer();
+        int i = from;
+        for (; i < to; i += 1) {
+            char c = buf[i];
+            if (c <= '<' && (c == '<' || c == '&' || c == 0)) {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Get the rest of a quoted string from the source buffer. The opening
+     * quote has just been read. Runs of plain characters are located with
+     * {@link #scanQuoted(int, int, char)} and copied at once.
+     *
+     * @param quote The quote character.
+     * @return The string, without its quotes, or a slice of the buffer.
+     * @throws JSONException If the string is unterminated or if an entity is
+     *  badly formed.
+     */
+    private CharSequence nextBufferedString(char quote) throws JSONException {
+        char[] buf = buffer();
+        int limit = bufferLimit();
+        int start = bufferPosition();
+        StringBuilder sb = null;
+        for (;;) {
+            int end = scanQuoted(start, limit, quote);
+            if ((sb == null ? 0 : sb.length()) + end - start > this.maxTextLength) {
+                throw textTooLong();
+            }
+            if (end == limit || buf[end] == 0) {
+                skipBuffered(end);
+                next();
+                throw syntaxError("Unterminated string");
+            }
+            if (buf[end] == quote) {
+                skipBuffered(end + 1);
+                if (sb == null) {
+                    if (this.sliceValues) {
+                        return new CharSlice(buf, start, end - start);
+                    }
+                    return new String(buf, start, end - start);
+                }
+                return sb.append(buf, start, end - start).toString();
+            }
+            if (sb == null) {
+                sb = new StringBuilder(end - start + 16);
+            }
+            sb.append(buf, start, end - start);
+            skipBuffered(end + 1);
+            sb.append(nextEntity('&'));
+            start = bufferPosition();
+        }
+    }
+
+    /**
+     * Find the end of a run of plain characters in a quoted string: the
+     * offset of the next quote, '&' or NUL character, or <code>to</code> if
+     * there is none.
+     *
+     * @param from The offset at which to start scanning.
+     * @param to The offset at which to stop scanning.
+     * @param quote The quote character.
+     * @return The offset of the first character that ends the run.
+     */
+    int scanQuoted(int from, int to, char quote) {
+        char[] buf = buffer();
+        int i = from;
+        for (; i < to; i += 1) {
+            char c = buf[i];
+            if (c == quote || c == '&' || c == 0) {
+                return i;
+            }
+        }
+        return i;
+    }
+
     /**
      * Return the next entity. These entities are translated to Characters:
      *     <code>&amp;  &apos;  &gt;  &lt;  &quot;</code>.
@@ -212,7 +471,8 @@ public class XMLTokener extends JSONTokener {
      * brackets. It may be one of these characters: <code>/ > = ! ?</code> or it
      * may be a string wrapped in single quotes or double quotes, or it may be a
      * name.
-     * @return a String or a Character.
+     * @return a String or a Character. A quoted string is a
+     * {@link CharSlice} when slices are enabled and it has no entities.
      * @throws JSONException If the XML is not well formed.
      */
     public Object nextToken() throws JSONException {
@@ -243,6 +503,9 @@ public class XMLTokener extends JSONTokener {
             case '"':
             case '\'':
                 q = c;
+                if (buffer() != null) {
+                    return nextBufferedString(q);
+                }
                 sb = new StringBuffer();
                 for (;;) {
                     c = next();
@@ -257,11 +520,17 @@ public class XMLTokener extends JSONTokener {
                     } else {
                         sb.append(c);
                     }
+                    if (sb.length() > this.maxTextLength) {
+                        throw textTooLong();
+                    }
                 }
             default:
 
 // Name
 
+                if (buffer() != null) {
+                    return nextBufferedName();
+                }
                 sb = new StringBuffer();
                 for (;;) {
                     sb.append(c);
@@ -290,6 +559,92 @@ public class XMLTokener extends JSONTokener {
         }
     }
 
+    /**
+     * Get the rest of a name from the source buffer. The first character of
+     * the name has just been read. The name ends as it does in
+     * {@link #nextToken()}, and is taken from the cache of names when it was
+     * already read.
+     *
+     * @return The name.
+     * @throws JSONException If the name is followed by a bad character.
+     */
+    private String nextBufferedName() throws JSONException {
+        char[] buf = buffer();
+        int limit = bufferLimit();
+        int start = bufferPosition() - 1;
+        int end = start + 1;
+        while (end < limit && !isNameEnd(buf[end])) {
+            end += 1;
+        }
+        skipBuffered(end);
+        String name = name(buf, start, end - start);
+        char c = next();
+        switch (c) {
+            case '>':
+            case '/':
+            case '=':
+            case '!':
+            case '?':
+            case '[':
+            case ']':
+                back();
+                break;
+            case '<':
+            case '"':
+            case '\'':
+                throw syntaxError("Bad character in a name");
+        }
+        return name;
+    }
+
+    private static boolean isNameEnd(char c) {
+        switch (c) {
+            case 0:
+            case '>':
+            case '/':
+            case '=':
+            case '!':
+            case '?':
+            case '[':
+            case ']':
+            case '<':
+            case '"':
+            case '\'':
+                return true;
+        }
+        return Character.isWhitespace(c);
+    }
+
+    /**
+     * Get a name from the cache of names, adding it if it is not there.
+     */
+    private String name(char[] buf, int start, int length) {
+        if (length > NAME_LENGTH) {
+            return new String(buf, start, length);
+        }
+        int h = 0;
+        for (int i = start; i < start + length; i += 1) {
+            h = 31 * h + buf[i];
+        }
+        if (this.names == null) {
+            this.names = new String[NAMES];
+        }
+        int slot = (h ^ h >>> 8) & (NAMES - 1);
+        String name = this.names[slot];
+        if (name != null && name.length() == length) {
+            int i = 0;
+            while (i < length && name.charAt(i) == buf[start + i]) {
+                i += 1;
+            }
+            if (i == length) {
+                return name;
+            }
+        }
+        name = new String(buf, start, length);
+        this.names[slot] = name;
+        return name;
+    }
+
     /**
      * Skip characters until past the requested string.
      * If it is not found, we are left at the end of the source with a result of false.
@@ -303,6 +658,9 @@ public class XMLTokener extends JSONTokener {
         int j;
         int offset = 0;
         int length = to.length();
+        if (buffer() != null && length > 0) {
+            return skipBufferedPast(to);
+        }
         char[] circle = new char[length];
 
         /*
@@ -320,7 +678,7 @@ public class XMLTokener extends JSONTokener {
 
         /* We will loop, possibly for all of the remaining characters. */
 
-        for (;;) {
+        for (int n = 1;; n += 1) {
             j = offset;
             b = true;
 
@@ -358,6 +716,51 @@ public class XMLTokener extends JSONTokener {
             if (offset >= length) {
                 offset -= length;
             }
+            if ((n & (CHECK_CHARACTERS - 1)) == 0 && this.readCheck != null) {
+                this.readCheck.reading();
+            }
+        }
+    }
+
+    /**
+     * Skip characters of the source buffer until past the requested string,
+     * comparing them in place.
+     */
+    private boolean skipBufferedPast(String to) throws JSONException {
+        int length = to.length();
+        char last = to.charAt(length - 1);
+        int from = bufferPosition();
+        if (next() == 0) {
+            return false;
+        }
+        char[] buf = buffer();
+        int limit = bufferLimit();
+        int check = from + CHECK_CHARACTERS;
+        for (int p = from; p < limit; p += 1) {
+            char c = buf[p];
+            if (p == check && this.readCheck != null) {
+                this.readCheck.reading();
+                check = p + CHECK_CHARACTERS;
+            }
+            if (c == 0) {
+                skipBuffered(p);
+                next();
+                return false;
+            }
+            if (c == last && p - length + 1 >= from) {
+                int i = 0;
+                int q = p - length + 1;
+                while (i < length && buf[q + i] == to.charAt(i)) {
+                    i += 1;
+                }
+                if (i == length) {
+                    skipBuffered(p + 1);
+                    return true;
+                }
+            }
         }
+        skipBuffered(limit);
+        next();
+        return false;
     }
 }
@@ -0,0 +1,418 @@
+package com.pagesjaunes.json.service;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+
+/**
+ * Lets conversions into a {@link XmlToJsonService} only as long as the
+ * memory they are expected to take fits in a budget, so that a burst of
+ * large documents waits or fails instead of filling the heap.
+ *
+ * The cost of a document is its number of characters times a ratio of
+ * bytes per character. The ratio is learned from the bytes the converting
+ * thread allocates, when the JVM tells them (see
+ * {@link ConversionResult#getAllocatedBytes()}): each conversion moves it
+ * by {@link #LEARNING_RATE} of the gap. The allocated bytes include the
+ * garbage of the conversion, so the estimate errs on the safe side. With
+ * {@link Engine#PARALLEL}, the records are converted by other threads:
+ * {@link #convert(String)} adds up their allocations, and the other
+ * methods do not learn from such documents.
+ *
+ * A document is admitted if its cost fits in what is left of the budget,
+ * or if nothing else is running, so that a document larger than the whole
+ * budget still gets converted, alone. Otherwise the {@link Policy} decides.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class AdmissionController {
+
+	/** The share of the gap to a measured ratio the ratio moves by. */
+	static final double LEARNING_RATE = 0.1;
+
+	/** The default ratio, measured on typical documents. */
+	public static final double DEFAULT_RATIO = 12;
+
+	/**
+	 * What to do with a document that does not fit in the budget.
+	 */
+	public enum Policy {
+
+		/** Fail at once. */
+		REJECT,
+
+		/**
+		 * Wait for memory to be released. A smaller document may pass a
+		 * larger one waiting.
+		 */
+		BLOCK,
+
+		/**
+		 * Wait in line: the documents are admitted in the order they came,
+		 * and fail at once when {@link AdmissionController#getMaxQueued()}
+		 * are already waiting.
+		 */
+		QUEUE
+	}
+
+	private final XmlToJsonService service;
+
+	private final long budget;
+
+	private final Policy policy;
+
+	private long maxWaitNanos = Long.MAX_VALUE;
+
+	private int maxQueued = 64;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition released = lock.newCondition();
+
+	private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+
+	private volatile double ratio = DEFAULT_RATIO;
+
+	private long inUse;
+
+	private int running;
+
+	private int waiting;
+
+	private long admitted;
+
+	private long rejected;
+
+	private long waitNanos;
+
+	/**
+	 * @param pService
+	 *            The service that converts the documents.
+	 * @param pBudget
+	 *            The memory the conversions may take together, in bytes.
+	 * @param pPolicy
+	 *            What to do with a document that does not fit.
+	 */
+	public AdmissionController(XmlToJsonService pService, long pBudget,
+			Policy pPolicy) {
+		service = pService;
+		budget = pBudget;
+		policy = pPolicy;
+	}
+
+	public XmlToJsonService getService() {
+		return service;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitNanos == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS
+				.toMillis(maxWaitNanos);
+	}
+
+	/**
+	 * Reject the documents that waited longer than a time, with the BLOCK
+	 * and QUEUE policies.
+	 *
+	 * @param pMaxWaitMillis
+	 *            The longest wait, or 0 to wait as long as needed.
+	 */
+	public void setMaxWaitMillis(long pMaxWaitMillis) {
+		maxWaitNanos = pMaxWaitMillis <= 0 ? Long.MAX_VALUE
+				: TimeUnit.MILLISECONDS.toNanos(pMaxWaitMillis);
+	}
+
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * Set the number of documents that may wait in line with the QUEUE
+	 * policy.
+	 *
+	 * @param pMaxQueued
+	 *            The length of the line.
+	 */
+	public void setMaxQueued(int pMaxQueued) {
+		maxQueued = pMaxQueued;
+	}
+
+	/** @return The estimated bytes taken by a conversion per character. */
+	public double getRatio() {
+		return ratio;
+	}
+
+	/**
+	 * Set the estimated bytes taken by a conversion per character, for
+	 * instance from a previous run. It is then still learned.
+	 *
+	 * @param pRatio
+	 *            The bytes per character.
+	 */
+	public void setRatio(double pRatio) {
+		ratio = pRatio;
+	}
+
+	/**
+	 * Estimate the memory taken by the conversion of a document.
+	 *
+	 * @param characters
+	 *            The number of characters of the document.
+	 * @return The cost, in bytes.
+	 */
+	public long cost(int characters) {
+		return (long) Math.ceil(characters * ratio);
+	}
+
+	/**
+	 * Wait until a document fits in the budget, as the policy says, and
+	 * take its cost from the budget. The cost must be given back with
+	 * {@link #release(long)}. The conversion methods of the controller do
+	 * both.
+	 *
+	 * @param characters
+	 *            The number of characters of the document.
+	 * @return The cost taken from the budget, in bytes.
+	 * @throws ConversionRejectedException
+	 *             If the document is refused.
+	 */
+	public long admit(int characters) throws ConversionRejectedException {
+		long cost = cost(characters);
+		lock.lock();
+		try {
+			if (fits(cost) && (policy != Policy.QUEUE || queue.isEmpty())) {
+				take(cost);
+				return cost;
+			}
+			if (policy == Policy.REJECT) {
+				throw reject(cost, "Memory budget of " + budget
+						+ " bytes used up");
+			}
+			if (policy == Policy.QUEUE && queue.size() >= maxQueued) {
+				throw reject(cost, maxQueued + " documents already queued");
+			}
+			Object ticket = new Object();
+			if (policy == Policy.QUEUE) {
+				queue.addLast(ticket);
+			}
+			waiting += 1;
+			long start = System.nanoTime();
+			long remaining = maxWaitNanos;
+			try {
+				while (!fits(cost)
+						|| (policy == Policy.QUEUE && queue.peekFirst() != ticket)) {
+					if (remaining <= 0) {
+						throw reject(cost, "Waited longer than "
+								+ getMaxWaitMillis() + " ms");
+					}
+					remaining = released.awaitNanos(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw reject(cost, "Interrupted");
+			} finally {
+				waiting -= 1;
+				waitNanos += System.nanoTime() - start;
+				if (policy == Policy.QUEUE) {
+					queue.remove(ticket);
+					released.signalAll();
+				}
+			}
+			take(cost);
+			return cost;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean fits(long cost) {
+		return running == 0 || inUse + cost <= budget;
+	}
+
+	private void take(long cost) {
+		inUse += cost;
+		running += 1;
+		admitted += 1;
+	}
+
+	private ConversionRejectedException reject(long cost, String reason) {
+		rejected += 1;
+		return new ConversionRejectedException("Document of " + cost
+				+ " bytes rejected: " + reason, cost);
+	}
+
+	/**
+	 * Give back the cost of a document admitted by {@link #admit(int)}.
+	 *
+	 * @param cost
+	 *            The cost returned by {@link #admit(int)}.
+	 */
+	public void release(long cost) {
+		lock.lock();
+		try {
+			inUse -= cost;
+			running -= 1;
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Learn the ratio from the bytes a conversion allocated.
+	 */
+	private void learn(int characters, long allocated) {
+		if (allocated > 0 && characters > 0) {
+			double current = ratio;
+			ratio = current + LEARNING_RATE
+					* ((double) allocated / characters - current);
+		}
+	}
+
+	/**
+	 * Convert an XML string with {@link XmlToJsonService#toJSONObject(String)}
+	 * once it is admitted.
+	 *
+	 * @param string
+	 *            The XML source string.
+	 * @return A JSONObject containing the structured data from the XML
+	 *         string.
+	 * @throws ConversionRejectedException
+	 *             If the document is refused.
+	 * @throws JSONException
+	 */
+	public JSONObject toJSONObject(String string) throws JSONException {
+		long cost = admit(string.length());
+		try {
+			long start = service.mayConvertRecords(string.length()) ? -1
+					: ThreadAllocations.current();
+			JSONObject jo = service.toJSONObject(string);
+			if (start >= 0) {
+				learn(string.length(), ThreadAllocations.current() - start);
+			}
+			return jo;
+		} finally {
+			release(cost);
+		}
+	}
+
+	/**
+	 * Convert an XML string with {@link XmlToJsonService#toJSONString(String)}
+	 * once it is admitted.
+	 *
+	 * @param string
+	 *            The XML source string.
+	 * @return The JSON text.
+	 * @throws ConversionRejectedException
+	 *             If the document is refused.
+	 * @throws JSONException
+	 */
+	public String toJSONString(String string) throws JSONException {
+		long cost = admit(string.length());
+		try {
+			long start = service.mayConvertRecords(string.length()) ? -1
+					: ThreadAllocations.current();
+			String json = service.toJSONString(string);
+			if (start >= 0) {
+				learn(string.length(), ThreadAllocations.current() - start);
+			}
+			return json;
+		} finally {
+			release(cost);
+		}
+	}
+
+	/**
+	 * Convert an XML string with {@link XmlToJsonService#convert(String)}
+	 * once it is admitted.
+	 *
+	 * @param string
+	 *            The XML source string.
+	 * @return The result of the conversion.
+	 * @throws ConversionRejectedException
+	 *             If the document is refused.
+	 * @throws JSONException
+	 */
+	public ConversionResult convert(String string) throws JSONException {
+		long cost = admit(string.length());
+		try {
+			ConversionResult result = service.convert(string);
+			learn(string.length(), result.getAllocatedBytes());
+			return result;
+		} finally {
+			release(cost);
+		}
+	}
+
+	/** @return The bytes of the budget taken by the running conversions. */
+	public long getInUse() {
+		lock.lock();
+		try {
+			return inUse;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return The number of conversions admitted and not yet released. */
+	public int getRunning() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return The number of documents waiting to be admitted. */
+	public int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return The number of documents admitted. */
+	public long getAdmitted() {
+		lock.lock();
+		try {
+			return admitted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return The number of documents rejected. */
+	public long getRejected() {
+		lock.lock();
+		try {
+			return rejected;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** @return The time the documents waited to be admitted, in nanoseconds. */
+	public long getWaitNanos() {
+		lock.lock();
+		try {
+			return waitNanos;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
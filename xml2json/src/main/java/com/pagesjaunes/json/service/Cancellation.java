@@ -0,0 +1,78 @@
+package com.pagesjaunes.json.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a caller stop a conversion, either from another thread with
+ * {@link #cancel()} or by giving it a deadline. The conversion checks the
+ * token every {@link ConversionContext#CHECK_INTERVAL} tags, attributes,
+ * texts or written JSON values, and every
+ * {@link com.pagesjaunes.json.XMLTokener#CHECK_CHARACTERS} characters of a
+ * comment, processing instruction or CDATA section, and throws a
+ * {@link ConversionCancelledException} once it is cancelled or past its
+ * deadline. See
+ * {@link XmlToJsonService#toJSONObject(String, Cancellation)}.
+ *
+ * A token may be shared by the conversions of a request.
+ *
+ * @author pagesjaunes
+ *
+ */
+public final class Cancellation {
+
+	private volatile boolean cancelled;
+
+	private final boolean timed;
+
+	private final long deadline;
+
+	/**
+	 * Make a token without a deadline, stopped only by {@link #cancel()}.
+	 */
+	public Cancellation() {
+		timed = false;
+		deadline = 0;
+	}
+
+	private Cancellation(long pDeadline) {
+		timed = true;
+		deadline = pDeadline;
+	}
+
+	/**
+	 * Make a token that expires after a time.
+	 *
+	 * @param timeout
+	 *            The time the conversions have, from now.
+	 * @param unit
+	 *            The unit of the timeout.
+	 * @return The token.
+	 */
+	public static Cancellation within(long timeout, TimeUnit unit) {
+		return new Cancellation(System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/**
+	 * Stop the conversions using the token at their next check.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/** @return Whether the token has a deadline. */
+	public boolean isTimed() {
+		return timed;
+	}
+
+	/**
+	 * @return The value of {@link System#nanoTime()} at the deadline, if the
+	 *         token has one.
+	 */
+	public long getDeadlineNanos() {
+		return deadline;
+	}
+}
@@ -0,0 +1,39 @@
+package com.pagesjaunes.json.service;
+
+import com.pagesjaunes.json.JSONException;
+
+/**
+ * Thrown when a conversion is stopped by its {@link Cancellation} or by the
+ * timeout of the service, before the document is fully read. The buffers
+ * of the conversion are released as for any other failure.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class ConversionCancelledException extends JSONException {
+
+	private static final long serialVersionUID = 0;
+
+	private final boolean deadlineExceeded;
+
+	/**
+	 * @param message
+	 *            Detail about the reason for the exception.
+	 * @param pDeadlineExceeded
+	 *            true if the deadline passed, false if the conversion was
+	 *            cancelled.
+	 */
+	public ConversionCancelledException(String message,
+			boolean pDeadlineExceeded) {
+		super(message);
+		deadlineExceeded = pDeadlineExceeded;
+	}
+
+	/**
+	 * @return true if the deadline passed, false if the conversion was
+	 *         cancelled.
+	 */
+	public boolean isDeadlineExceeded() {
+		return deadlineExceeded;
+	}
+}
@@ -0,0 +1,594 @@
+package com.pagesjaunes.json.service;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.pagesjaunes.json.IndexedXMLTokener;
+import com.pagesjaunes.json.JSONWriteCheck;
+import com.pagesjaunes.json.LimitExceededException;
+import com.pagesjaunes.json.LimitExceededException.Limit;
+import com.pagesjaunes.json.XMLReadCheck;
+import com.pagesjaunes.json.XMLStructuralIndex;
+import com.pagesjaunes.json.XMLTokener;
+import com.pagesjaunes.json.config.Types;
+
+/**
+ * What a conversion needs besides the values it produces: the source buffer,
+ * the tokeners and their structural index, the dotted paths of the elements
+ * and attributes, the date formats and a builder for the JSON text. A thread
+ * keeps its context from one document to the next, so converting a small
+ * document allocates nothing but its values.
+ *
+ * The buffers are only kept for documents of at most {@link #maxChars}
+ * characters; larger ones are converted with buffers that are dropped
+ * afterwards, so that a single large document does not pin its buffers. The
+ * paths are kept in a trie of at most {@link #MAX_PATHS} nodes, past which
+ * new paths are made for each document.
+ *
+ * A context is used by one conversion at a time. See
+ * {@link XmlToJsonService#getContextMaxChars()}.
+ *
+ * @author pagesjaunes
+ *
+ */
+final class ConversionContext implements JSONWriteCheck, XMLReadCheck {
+
+	/** The default of {@link #maxChars}. */
+	static final int MAX_CHARS = 1 << 16;
+
+	static final int MAX_PATHS = 1024;
+
+	/**
+	 * The number of tags, attributes, texts and written JSON values between
+	 * two checks of the cancellation and deadline, a power of two. Long
+	 * comments, processing instructions and CDATA sections are also checked
+	 * every {@link XMLTokener#CHECK_CHARACTERS} characters.
+	 */
+	static final int CHECK_INTERVAL = 64;
+
+	private static final char[] EMPTY = new char[0];
+
+	/** The largest document whose buffers are kept. */
+	int maxChars;
+
+	/** Whether the context is in use by a conversion. */
+	boolean busy;
+
+	/** The number of elements read by the conversion. */
+	int elements;
+
+	/** The number of attributes read by the conversion. */
+	int attributes;
+
+	/** The depth of the deepest element, the document element being 1. */
+	int maxDepth;
+
+	/** The number of values converted, by type. */
+	final int[] typed = new int[Types.values().length];
+
+	/** The number of values that could not be converted, by type. */
+	final int[] typingFailures = new int[Types.values().length];
+
+	/** The duration of the conversion, in nanoseconds. */
+	long nanos;
+
+	/**
+	 * The number of warnings the conversion keeps, or -1 if it logs them
+	 * instead.
+	 */
+	int maxWarnings = -1;
+
+	/** The warnings kept, or null if none. */
+	List<ConversionWarning> warnings;
+
+	/** The number of warnings past {@link #maxWarnings}. */
+	int droppedWarnings;
+
+	/**
+	 * The bytes allocated by the threads that converted records of the
+	 * document, which the thread of the conversion does not see.
+	 */
+	long recordAllocatedBytes;
+
+	/** The engine of the tokener of the conversion. */
+	Engine engine;
+
+	/** The limits of the conversion. */
+	ConversionLimits limits;
+
+	/** The token the caller may cancel the conversion with, or null. */
+	Cancellation cancellation;
+
+	/** Whether the conversion has a {@link #deadline}. */
+	boolean timed;
+
+	/** The value of {@link System#nanoTime()} the conversion must end by. */
+	long deadline;
+
+	private int ticks;
+
+	private char[] chars;
+
+	private char[] scratch;
+
+	private XMLTokener tokener;
+
+	private IndexedXMLTokener indexedTokener;
+
+	private final Path root = new Path(this, null, null, 0, true);
+
+	private int paths;
+
+	private StringBuilder output;
+
+	private Map<String, SimpleDateFormat> dateFormats;
+
+	ConversionContext(int pMaxChars) {
+		maxChars = pMaxChars;
+	}
+
+	/**
+	 * Get a tokener reading an XML string. The characters are copied into
+	 * the buffer of the context, unless the values read may keep them
+	 * reachable.
+	 *
+	 * @param string
+	 *            The XML source string.
+	 * @param engine
+	 *            The engine that will read the document.
+	 * @param keep
+	 *            true if the values may be slices of the buffer, which must
+	 *            then not be reused.
+	 * @return A tokener at the start of the document.
+	 */
+	XMLTokener tokener(String string, Engine engine, boolean keep) {
+		int length = string.length();
+		char[] buffer;
+		if (keep || length > maxChars) {
+			buffer = string.toCharArray();
+		} else {
+			if (chars == null || chars.length < length) {
+				chars = new char[Math.min(maxChars,
+						Math.max(length, chars == null ? 256
+								: chars.length << 1))];
+			}
+			buffer = chars;
+			string.getChars(0, length, buffer, 0);
+		}
+		return tokener(buffer, 0, length, engine);
+	}
+
+	/**
+	 * Get a tokener reading the XML text held in a character array.
+	 *
+	 * @param buffer
+	 *            The XML source characters.
+	 * @param offset
+	 *            The offset of the first character of the document.
+	 * @param length
+	 *            The number of characters of the document.
+	 * @param engine
+	 *            The engine that will read the document.
+	 * @return A tokener at the start of the document.
+	 */
+	XMLTokener tokener(char[] buffer, int offset, int length, Engine engine) {
+		this.engine = engine;
+		if (engine == Engine.INDEXED || engine == Engine.PARALLEL) {
+			if (length > maxChars) {
+				return new IndexedXMLTokener(new XMLStructuralIndex(buffer,
+						offset, length));
+			}
+			if (indexedTokener == null) {
+				indexedTokener = new IndexedXMLTokener(new XMLStructuralIndex(
+						buffer, offset, length));
+			} else {
+				indexedTokener.reset(buffer, offset, length);
+			}
+			return indexedTokener;
+		}
+		if (length > maxChars) {
+			return new XMLTokener(buffer, offset, length);
+		}
+		if (tokener == null) {
+			tokener = new XMLTokener(buffer, offset, length);
+		} else {
+			tokener.reset(buffer, offset, length);
+		}
+		return tokener;
+	}
+
+	/**
+	 * Get the path of the virtual parent of the top level elements.
+	 *
+	 * @return The root of the trie of paths.
+	 */
+	Path root() {
+		return root;
+	}
+
+	/**
+	 * Get a path that is not kept in the trie, such as the path of the
+	 * parent of an element converted on its own.
+	 *
+	 * @param path
+	 *            The dotted path.
+	 * @return A path whose descendants are not kept either.
+	 */
+	Path path(String path) {
+		int depth = 1;
+		for (int i = path.indexOf('.'); i >= 0; i = path.indexOf('.', i + 1)) {
+			depth += 1;
+		}
+		return new Path(this, path, null, depth, false);
+	}
+
+	/**
+	 * Get the empty builder of the JSON text.
+	 *
+	 * @return The builder.
+	 */
+	StringBuilder output() {
+		if (output == null) {
+			output = new StringBuilder(256);
+		}
+		output.setLength(0);
+		return output;
+	}
+
+	/**
+	 * Get a scratch array of characters, such as the digits of a number
+	 * being parsed. Its content is not kept from one call to the next.
+	 *
+	 * @param length
+	 *            The number of characters needed.
+	 * @return An array of at least that length.
+	 */
+	char[] scratch(int length) {
+		if (scratch == null || scratch.length < length) {
+			scratch = new char[Math.max(length, 64)];
+		}
+		return scratch;
+	}
+
+	/**
+	 * Get a date format of the context. A SimpleDateFormat cannot be shared
+	 * by threads, but it can be reused by the conversions of a thread.
+	 *
+	 * @param pattern
+	 *            The pattern of the format.
+	 * @return The date format.
+	 */
+	SimpleDateFormat dateFormat(String pattern) {
+		if (dateFormats == null) {
+			dateFormats = new HashMap<String, SimpleDateFormat>();
+		}
+		SimpleDateFormat dateFormat = dateFormats.get(pattern);
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat(pattern);
+			dateFormats.put(pattern, dateFormat);
+		}
+		return dateFormat;
+	}
+
+	/**
+	 * Clear the counts of the previous conversion.
+	 */
+	void begin() {
+		elements = 0;
+		attributes = 0;
+		maxDepth = 0;
+		for (int i = 0; i < typed.length; i += 1) {
+			typed[i] = 0;
+			typingFailures[i] = 0;
+		}
+		nanos = 0;
+		maxWarnings = -1;
+		warnings = null;
+		droppedWarnings = 0;
+		recordAllocatedBytes = 0;
+		cancellation = null;
+		timed = false;
+		ticks = 0;
+		engine = null;
+	}
+
+	/**
+	 * Set the deadline of the conversion, the earlier of that of its
+	 * {@link #cancellation} and of the timeout of the service, and check
+	 * that it is not already past.
+	 *
+	 * @param start
+	 *            The value of {@link System#nanoTime()} at the start.
+	 * @param timeoutNanos
+	 *            The timeout of the service, or 0 for none.
+	 */
+	void start(long start, long timeoutNanos)
+			throws ConversionCancelledException {
+		timed = false;
+		if (timeoutNanos > 0) {
+			timed = true;
+			deadline = start + timeoutNanos;
+		}
+		if (cancellation != null && cancellation.isTimed()
+				&& (!timed || cancellation.getDeadlineNanos() - deadline < 0)) {
+			timed = true;
+			deadline = cancellation.getDeadlineNanos();
+		}
+		check(start);
+	}
+
+	/**
+	 * Count a markup token, attribute or text, and check the cancellation
+	 * and the deadline every {@link #CHECK_INTERVAL} of them.
+	 */
+	void tick() throws ConversionCancelledException {
+		if ((++ticks & (CHECK_INTERVAL - 1)) == 0
+				&& (timed || cancellation != null)) {
+			check(timed ? System.nanoTime() : 0);
+		}
+	}
+
+	/**
+	 * Stop writing the JSON text of the conversion as soon as it is longer
+	 * than the output limit, or once the conversion is cancelled or past its
+	 * deadline.
+	 */
+	public void written(int length) throws ConversionCancelledException,
+			LimitExceededException {
+		int maxOutput = limits.getMaxOutputCharacters();
+		if (length > maxOutput) {
+			throw new LimitExceededException(Limit.OUTPUT_CHARACTERS,
+					maxOutput, "JSON text longer than " + maxOutput
+							+ " characters");
+		}
+		tick();
+	}
+
+	/**
+	 * Stop reading a long comment, processing instruction or CDATA section
+	 * once the conversion is cancelled or past its deadline.
+	 */
+	public void reading() throws ConversionCancelledException {
+		if (timed || cancellation != null) {
+			check(timed ? System.nanoTime() : 0);
+		}
+	}
+
+	void check(long now) throws ConversionCancelledException {
+		if (cancellation != null && cancellation.isCancelled()) {
+			throw new ConversionCancelledException(
+					"Conversion cancelled after " + elements + " elements",
+					false);
+		}
+		if (timed && now - deadline > 0) {
+			throw new ConversionCancelledException(
+					"Conversion deadline exceeded after " + elements
+							+ " elements", true);
+		}
+	}
+
+	/**
+	 * Keep a warning, unless {@link #maxWarnings} are already kept.
+	 *
+	 * @return false if the conversion logs its warnings instead.
+	 */
+	boolean warn(ConversionWarning.Kind kind, Path path, Types type,
+			String value, String message) {
+		if (maxWarnings < 0) {
+			return false;
+		}
+		if (warnings == null) {
+			warnings = new ArrayList<ConversionWarning>(Math.min(maxWarnings, 8));
+		}
+		if (warnings.size() < maxWarnings) {
+			warnings.add(new ConversionWarning(kind, path.path, type, value,
+					message));
+		} else {
+			droppedWarnings += 1;
+		}
+		return true;
+	}
+
+	/**
+	 * Make a context converting records of the same document as this one
+	 * stop as this one does and keep its warnings the same way.
+	 */
+	void follow(ConversionContext main) {
+		cancellation = main.cancellation;
+		timed = main.timed;
+		deadline = main.deadline;
+		maxWarnings = main.maxWarnings;
+	}
+
+	/**
+	 * Add the counts and the warnings of a context that converted records of
+	 * the same document.
+	 */
+	void merge(ConversionContext records) {
+		elements += records.elements;
+		attributes += records.attributes;
+		maxDepth = Math.max(maxDepth, records.maxDepth);
+		for (int i = 0; i < typed.length; i += 1) {
+			typed[i] += records.typed[i];
+			typingFailures[i] += records.typingFailures[i];
+		}
+		droppedWarnings += records.droppedWarnings;
+		recordAllocatedBytes += records.recordAllocatedBytes;
+		if (records.warnings != null) {
+			for (ConversionWarning warning : records.warnings) {
+				if (warnings == null) {
+					warnings = new ArrayList<ConversionWarning>();
+				}
+				if (warnings.size() < maxWarnings) {
+					warnings.add(warning);
+				} else {
+					droppedWarnings += 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count an element.
+	 *
+	 * @param path
+	 *            The path of the element.
+	 */
+	void element(Path path) {
+		elements += 1;
+		if (path.depth > maxDepth) {
+			maxDepth = path.depth;
+		}
+	}
+
+	/**
+	 * Let go of the document that was converted, and of the buffers that
+	 * grew past the limits.
+	 */
+	void reset() {
+		if (tokener != null) {
+			tokener.reset(EMPTY, 0, 0);
+		}
+		if (indexedTokener != null) {
+			indexedTokener.reset(EMPTY, 0, 0);
+		}
+		if (output != null && output.capacity() > maxChars) {
+			output = null;
+		}
+		if (chars != null && chars.length > maxChars) {
+			chars = null;
+		}
+		if (scratch != null && scratch.length > maxChars) {
+			scratch = null;
+		}
+	}
+
+	/**
+	 * A node of the trie of the dotted paths of the elements and attributes
+	 * met in the documents, as they are written in the type mapping: a path
+	 * is made once and then found by the name of the element or attribute.
+	 */
+	static final class Path {
+
+		private final ConversionContext owner;
+
+		/** The dotted path, or null for the root. */
+		final String path;
+
+		/** The key of the value in its JSONObject. */
+		final String key;
+
+		/**
+		 * The number of elements of the path: 0 for the root, 1 for the
+		 * document element. An attribute or a content has the depth of its
+		 * element.
+		 */
+		final int depth;
+
+		/** Whether the descendants of the node are kept in the trie. */
+		private final boolean kept;
+
+		/** The profile whose counters of the path are cached. */
+		PathProfile profile;
+
+		PathProfile.Entry profileEntry;
+
+		private Map<String, Path> children;
+
+		private Map<String, Path> attributes;
+
+		private Path content;
+
+		Path(ConversionContext pOwner, String pPath, String pKey, int pDepth,
+				boolean pKept) {
+			owner = pOwner;
+			path = pPath;
+			key = pKey;
+			depth = pDepth;
+			kept = pKept;
+		}
+
+		/**
+		 * Get the context the path belongs to.
+		 *
+		 * @return The context.
+		 */
+		ConversionContext context() {
+			return owner;
+		}
+
+		/**
+		 * Get the path of a child element.
+		 *
+		 * @param name
+		 *            The name of the element.
+		 * @return The path.
+		 */
+		Path child(String name) {
+			Path child = children == null ? null : children.get(name);
+			if (child == null) {
+				child = new Path(owner, path == null ? name : path + "."
+						+ name, name, depth + 1, kept);
+				if (keep()) {
+					if (children == null) {
+						children = new HashMap<String, Path>();
+					}
+					children.put(name, child);
+				}
+			}
+			return child;
+		}
+
+		/**
+		 * Get the path of an attribute. Its key is the name prefixed with
+		 * "@".
+		 *
+		 * @param name
+		 *            The name of the attribute.
+		 * @return The path.
+		 */
+		Path attribute(String name) {
+			Path attribute = attributes == null ? null : attributes.get(name);
+			if (attribute == null) {
+				String key = "@" + name;
+				attribute = new Path(owner, path == null ? key : path + "."
+						+ key, key, depth, kept);
+				if (keep()) {
+					if (attributes == null) {
+						attributes = new HashMap<String, Path>();
+					}
+					attributes.put(name, attribute);
+				}
+			}
+			return attribute;
+		}
+
+		/**
+		 * Get the path of the text of the element.
+		 *
+		 * @return The path, whose key is "$content".
+		 */
+		Path content() {
+			if (content == null) {
+				Path node = new Path(owner, path == null ? "$content" : path
+						+ ".$content", "$content", depth, kept);
+				if (!keep()) {
+					return node;
+				}
+				content = node;
+			}
+			return content;
+		}
+
+		private boolean keep() {
+			if (!kept || owner.paths >= MAX_PATHS) {
+				return false;
+			}
+			owner.paths += 1;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package com.pagesjaunes.json.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A Flight Recorder event for the conversion of a document, disabled by
+ * default. Its threshold keeps only the slow conversions. See
+ * {@link ConversionEvents}.
+ *
+ * @author pagesjaunes
+ *
+ */
+@Name("com.pagesjaunes.json.Conversion")
+@Label("XML to JSON Conversion")
+@Category("xml2json")
+@Description("The conversion of an XML document by a XmlToJsonService")
+@Enabled(false)
+@Threshold("0 ms")
+@StackTrace(false)
+final class ConversionEvent extends Event {
+
+	@Label("Engine")
+	String engine;
+
+	@Label("Input Characters")
+	int inputCharacters;
+
+	@Label("Elements")
+	int elements;
+
+	@Label("Attributes")
+	int attributes;
+
+	@Label("Depth")
+	@Description("The depth of the deepest element, the document element being 1")
+	int depth;
+
+	@Label("Error")
+	@Description("The syntax error that stopped the conversion, if any")
+	String error;
+}
@@ -0,0 +1,114 @@
+package com.pagesjaunes.json.service;
+
+import com.pagesjaunes.json.config.Types;
+
+/**
+ * Emits the Flight Recorder events of the conversions, so that a slow
+ * conversion can be lined up with the collections and safepoints of a
+ * recording. The events are disabled by default; enable them in the
+ * settings of the recording, with a threshold to record only the
+ * conversions slower than it:
+ *
+ * <pre>
+ * &lt;event name="com.pagesjaunes.json.Conversion"&gt;
+ *   &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ *   &lt;setting name="threshold"&gt;20 ms&lt;/setting&gt;
+ * &lt;/event&gt;
+ * &lt;event name="com.pagesjaunes.json.TypingFailure"&gt;
+ *   &lt;setting name="enabled"&gt;true&lt;/setting&gt;
+ * &lt;/event&gt;
+ * </pre>
+ *
+ * A disabled event costs a check of a flag. The event classes are only
+ * loaded when the JVM has the <code>jdk.jfr</code> API, so the service
+ * still runs on a JVM without it.
+ *
+ * @author pagesjaunes
+ *
+ */
+final class ConversionEvents {
+
+	/** Whether the JVM has the Flight Recorder API. */
+	static final boolean AVAILABLE = available();
+
+	private static final int MAX_VALUE = 64;
+
+	private ConversionEvents() {
+	}
+
+	private static boolean available() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Start the event of a conversion.
+	 *
+	 * @return The event, or null if it is disabled.
+	 */
+	static Object begin() {
+		ConversionEvent event = new ConversionEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * End the event of a conversion, and record it if it lasted longer than
+	 * its threshold.
+	 *
+	 * @param begun
+	 *            The event returned by {@link #begin()}.
+	 * @param engine
+	 *            The engine of the conversion.
+	 * @param context
+	 *            The context of the conversion, holding its counts.
+	 * @param length
+	 *            The number of characters of the document.
+	 * @param error
+	 *            The syntax error that stopped the conversion, or null.
+	 */
+	static void end(Object begun, Engine engine, ConversionContext context,
+			int length, String error) {
+		ConversionEvent event = (ConversionEvent) begun;
+		event.end();
+		if (event.shouldCommit()) {
+			event.engine = engine.name();
+			event.inputCharacters = length;
+			event.elements = context.elements;
+			event.attributes = context.attributes;
+			event.depth = context.maxDepth;
+			event.error = error;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Record a value that could not be converted to the type of its path.
+	 *
+	 * @param path
+	 *            The dotted path.
+	 * @param type
+	 *            The type of the path.
+	 * @param value
+	 *            The value.
+	 */
+	static void typingFailure(String path, Types type, String value) {
+		TypingFailureEvent event = new TypingFailureEvent();
+		if (event.shouldCommit()) {
+			event.path = path;
+			event.type = type.name();
+			event.value = value.length() > MAX_VALUE ? value.substring(0,
+					MAX_VALUE) : value;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.pagesjaunes.json.service;
+
+import com.pagesjaunes.json.LimitExceededException;
+
+/**
+ * The bounds a {@link XmlToJsonService} puts on the documents it converts,
+ * so that a single oversized document fails fast instead of filling the
+ * heap. Each limit is checked as soon as the value it bounds is known, and
+ * before the value is made, and fails with a {@link LimitExceededException}
+ * telling which limit was exceeded. All the limits are off by default.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class ConversionLimits {
+
+	private int maxInputCharacters = Integer.MAX_VALUE;
+
+	private int maxDepth = Integer.MAX_VALUE;
+
+	private int maxAttributes = Integer.MAX_VALUE;
+
+	private int maxSiblings = Integer.MAX_VALUE;
+
+	private int maxTextLength = Integer.MAX_VALUE;
+
+	private int maxOutputCharacters = Integer.MAX_VALUE;
+
+	public int getMaxInputCharacters() {
+		return maxInputCharacters;
+	}
+
+	/**
+	 * Refuse the documents longer than a number of characters, before they
+	 * are copied or indexed.
+	 *
+	 * @param pMaxInputCharacters
+	 *            The number of characters.
+	 */
+	public void setMaxInputCharacters(int pMaxInputCharacters) {
+		maxInputCharacters = pMaxInputCharacters;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Stop at an element nested deeper than a depth, the document element
+	 * being at depth 1. This also bounds the recursion of the parser.
+	 *
+	 * @param pMaxDepth
+	 *            The depth.
+	 */
+	public void setMaxDepth(int pMaxDepth) {
+		maxDepth = pMaxDepth;
+	}
+
+	public int getMaxAttributes() {
+		return maxAttributes;
+	}
+
+	/**
+	 * Stop at an element with more than a number of attributes.
+	 *
+	 * @param pMaxAttributes
+	 *            The number of attributes of an element.
+	 */
+	public void setMaxAttributes(int pMaxAttributes) {
+		maxAttributes = pMaxAttributes;
+	}
+
+	public int getMaxSiblings() {
+		return maxSiblings;
+	}
+
+	/**
+	 * Stop at an element with more than a number of siblings of the same
+	 * name, which would make an array longer than that, before the element
+	 * is read.
+	 *
+	 * @param pMaxSiblings
+	 *            The number of elements of the same name under a parent.
+	 */
+	public void setMaxSiblings(int pMaxSiblings) {
+		maxSiblings = pMaxSiblings;
+	}
+
+	public int getMaxTextLength() {
+		return maxTextLength;
+	}
+
+	/**
+	 * Stop at a text, CDATA section or attribute value longer than a number
+	 * of characters, before it is copied. See
+	 * {@link com.pagesjaunes.json.XMLTokener#setMaxTextLength(int)}.
+	 *
+	 * @param pMaxTextLength
+	 *            The number of characters.
+	 */
+	public void setMaxTextLength(int pMaxTextLength) {
+		maxTextLength = pMaxTextLength;
+	}
+
+	public int getMaxOutputCharacters() {
+		return maxOutputCharacters;
+	}
+
+	/**
+	 * Refuse a JSON text longer than a number of characters. The writer
+	 * stops as soon as the text goes past it, after the member or element
+	 * that made it too long, before the String is made.
+	 *
+	 * @param pMaxOutputCharacters
+	 *            The number of characters.
+	 */
+	public void setMaxOutputCharacters(int pMaxOutputCharacters) {
+		maxOutputCharacters = pMaxOutputCharacters;
+	}
+}
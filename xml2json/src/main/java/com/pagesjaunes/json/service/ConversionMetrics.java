@@ -0,0 +1,345 @@
+package com.pagesjaunes.json.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.pagesjaunes.json.config.Types;
+
+/**
+ * The counters of the conversions of a {@link XmlToJsonService}, readable
+ * through JMX once {@link #register(String)} is called.
+ *
+ * The counters are {@link LongAdder}s, which the converting threads update
+ * without contending with each other. A conversion counts its elements,
+ * attributes and typed values in its {@link ConversionContext}, and adds
+ * them to the counters once, when it completes.
+ *
+ * The conversion times are kept in {@link #BUCKETS} buckets of
+ * {@link #BUCKET_SECONDS} seconds each, the oldest of which is cleared when
+ * a new one starts, so the average and the maximum are those of the last
+ * minute or so. A conversion that completes while its bucket is being
+ * cleared may be lost. The conversion times are also counted, since the
+ * start or the last {@link #reset()}, in a {@link LatencyHistogram} for
+ * each {@link SizeClass} of documents.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class ConversionMetrics implements ConversionMetricsMBean {
+
+	static final int BUCKETS = 6;
+
+	static final int BUCKET_SECONDS = 10;
+
+	private static final long BUCKET_NANOS = BUCKET_SECONDS * 1000000000L;
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder documents = new LongAdder();
+
+	private final LongAdder parseErrors = new LongAdder();
+
+	private final LongAdder cancellations = new LongAdder();
+
+	private final LongAdder limitsExceeded = new LongAdder();
+
+	private final LongAdder inputCharacters = new LongAdder();
+
+	private final LongAdder outputCharacters = new LongAdder();
+
+	private final LongAdder elements = new LongAdder();
+
+	private final LongAdder attributes = new LongAdder();
+
+	private final LongAdder[] conversions = adders();
+
+	private final LongAdder[] failures = adders();
+
+	private final Bucket[] buckets = new Bucket[BUCKETS];
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[SizeClass
+			.values().length];
+
+	private ObjectName objectName;
+
+	public ConversionMetrics() {
+		for (int i = 0; i < BUCKETS; i += 1) {
+			buckets[i] = new Bucket();
+		}
+		for (int i = 0; i < latencies.length; i += 1) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	private static LongAdder[] adders() {
+		LongAdder[] adders = new LongAdder[Types.values().length];
+		for (int i = 0; i < adders.length; i += 1) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Count a conversion that completed.
+	 *
+	 * @param context
+	 *            The context of the conversion, holding its counts.
+	 * @param pInputCharacters
+	 *            The length of the document.
+	 * @param nanos
+	 *            The duration of the conversion.
+	 */
+	void record(ConversionContext context, int pInputCharacters, long nanos) {
+		documents.increment();
+		inputCharacters.add(pInputCharacters);
+		elements.add(context.elements);
+		attributes.add(context.attributes);
+		for (int i = 0; i < conversions.length; i += 1) {
+			if (context.typed[i] > 0) {
+				conversions[i].add(context.typed[i]);
+			}
+			if (context.typingFailures[i] > 0) {
+				failures[i].add(context.typingFailures[i]);
+			}
+		}
+		long epoch = System.nanoTime() / BUCKET_NANOS;
+		Bucket bucket = buckets[(int) Math.floorMod(epoch, (long) BUCKETS)];
+		long bucketEpoch = bucket.epoch.get();
+		if (bucketEpoch != epoch && bucket.epoch.compareAndSet(bucketEpoch, epoch)) {
+			bucket.count.reset();
+			bucket.nanos.reset();
+			bucket.max.reset();
+		}
+		bucket.count.increment();
+		bucket.nanos.add(nanos);
+		bucket.max.accumulate(nanos);
+		latencies[SizeClass.of(pInputCharacters).ordinal()].record(nanos);
+	}
+
+	/**
+	 * Count the JSON text written for a document.
+	 *
+	 * @param pOutputCharacters
+	 *            The length of the text.
+	 */
+	void recordOutput(int pOutputCharacters) {
+		outputCharacters.add(pOutputCharacters);
+	}
+
+	/**
+	 * Count a conversion that failed on a syntax error.
+	 */
+	void recordError() {
+		parseErrors.increment();
+	}
+
+	/**
+	 * Count a conversion that was cancelled or ran past its deadline.
+	 */
+	void recordCancellation() {
+		cancellations.increment();
+	}
+
+	/**
+	 * Count a conversion refused for exceeding one of the limits.
+	 */
+	void recordLimitExceeded() {
+		limitsExceeded.increment();
+	}
+
+	public long getDocuments() {
+		return documents.sum();
+	}
+
+	public long getParseErrors() {
+		return parseErrors.sum();
+	}
+
+	public long getCancellations() {
+		return cancellations.sum();
+	}
+
+	public long getLimitsExceeded() {
+		return limitsExceeded.sum();
+	}
+
+	public long getInputCharacters() {
+		return inputCharacters.sum();
+	}
+
+	public long getOutputCharacters() {
+		return outputCharacters.sum();
+	}
+
+	public long getElements() {
+		return elements.sum();
+	}
+
+	public long getAttributes() {
+		return attributes.sum();
+	}
+
+	/**
+	 * @param type
+	 *            A type of the mapping.
+	 * @return The number of values converted to that type.
+	 */
+	public long getTypedConversions(Types type) {
+		return conversions[type.ordinal()].sum();
+	}
+
+	/**
+	 * @param type
+	 *            A type of the mapping.
+	 * @return The number of values that could not be converted to that type,
+	 *         and were kept as text.
+	 */
+	public long getTypingFailures(Types type) {
+		return failures[type.ordinal()].sum();
+	}
+
+	public long getNumberConversions() {
+		return getTypedConversions(Types.NUMBER);
+	}
+
+	public long getNumberFailures() {
+		return getTypingFailures(Types.NUMBER);
+	}
+
+	public long getBooleanConversions() {
+		return getTypedConversions(Types.BOOLEAN);
+	}
+
+	public long getDateConversions() {
+		return getTypedConversions(Types.DATE);
+	}
+
+	public long getDateFailures() {
+		return getTypingFailures(Types.DATE);
+	}
+
+	public double getAverageConversionMillis() {
+		long epoch = System.nanoTime() / BUCKET_NANOS;
+		long count = 0;
+		long nanos = 0;
+		for (Bucket bucket : buckets) {
+			if (bucket.epoch.get() > epoch - BUCKETS) {
+				count += bucket.count.sum();
+				nanos += bucket.nanos.sum();
+			}
+		}
+		return count == 0 ? 0 : nanos / 1e6 / count;
+	}
+
+	public double getMaxConversionMillis() {
+		long epoch = System.nanoTime() / BUCKET_NANOS;
+		long max = 0;
+		for (Bucket bucket : buckets) {
+			if (bucket.epoch.get() > epoch - BUCKETS) {
+				max = Math.max(max, bucket.max.get());
+			}
+		}
+		return max / 1e6;
+	}
+
+	/**
+	 * @param sizeClass
+	 *            A class of document sizes.
+	 * @return The conversion times of the documents of that class.
+	 */
+	public LatencyHistogram.Snapshot getLatencies(SizeClass sizeClass) {
+		return latencies[sizeClass.ordinal()].snapshot();
+	}
+
+	public int getWindowSeconds() {
+		return BUCKETS * BUCKET_SECONDS;
+	}
+
+	public void reset() {
+		documents.reset();
+		parseErrors.reset();
+		cancellations.reset();
+		limitsExceeded.reset();
+		inputCharacters.reset();
+		outputCharacters.reset();
+		elements.reset();
+		attributes.reset();
+		for (int i = 0; i < conversions.length; i += 1) {
+			conversions[i].reset();
+			failures[i].reset();
+		}
+		for (Bucket bucket : buckets) {
+			bucket.epoch.set(Long.MIN_VALUE);
+			bucket.count.reset();
+			bucket.nanos.reset();
+			bucket.max.reset();
+		}
+		for (LatencyHistogram histogram : latencies) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * Register the metrics in the platform MBean server, as
+	 * <code>com.pagesjaunes.json:type=XmlToJsonService,name=</code><i>name</i>.
+	 *
+	 * @param name
+	 *            The name of the service, unique in the JVM.
+	 * @return The name of the MBean.
+	 * @throws JMException
+	 *             If the name is taken or the MBean cannot be registered.
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		ObjectName registered = new ObjectName(
+				"com.pagesjaunes.json:type=XmlToJsonService,name="
+						+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				registered);
+		objectName = registered;
+		return registered;
+	}
+
+	/**
+	 * Remove the metrics from the platform MBean server, if they were
+	 * registered.
+	 *
+	 * @throws JMException
+	 *             If the MBean cannot be unregistered.
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * The conversions completed in a period of {@link #BUCKET_SECONDS}
+	 * seconds.
+	 */
+	private static final class Bucket {
+
+		/** The number of the period, in units of BUCKET_SECONDS. */
+		final AtomicLong epoch = new AtomicLong(Long.MIN_VALUE);
+
+		final LongAdder count = new LongAdder();
+
+		final LongAdder nanos = new LongAdder();
+
+		final LongAccumulator max = new LongAccumulator(MAX, 0);
+	}
+}
@@ -0,0 +1,69 @@
+package com.pagesjaunes.json.service;
+
+/**
+ * The management interface of {@link ConversionMetrics}.
+ *
+ * @author pagesjaunes
+ *
+ */
+public interface ConversionMetricsMBean {
+
+	/** @return The number of documents converted. */
+	long getDocuments();
+
+	/** @return The number of conversions that failed on a syntax error. */
+	long getParseErrors();
+
+	/** @return The number of conversions cancelled or past their deadline. */
+	long getCancellations();
+
+	/** @return The number of conversions refused for exceeding a limit. */
+	long getLimitsExceeded();
+
+	/** @return The number of characters of the XML documents converted. */
+	long getInputCharacters();
+
+	/** @return The number of characters of the JSON texts written. */
+	long getOutputCharacters();
+
+	/** @return The number of elements read. */
+	long getElements();
+
+	/** @return The number of attributes read. */
+	long getAttributes();
+
+	/** @return The number of values converted to numbers. */
+	long getNumberConversions();
+
+	/** @return The number of values that could not be converted to numbers. */
+	long getNumberFailures();
+
+	/** @return The number of values converted to booleans. */
+	long getBooleanConversions();
+
+	/** @return The number of values converted to dates. */
+	long getDateConversions();
+
+	/** @return The number of values that could not be converted to dates. */
+	long getDateFailures();
+
+	/**
+	 * @return The average time of the conversions of the last
+	 *         {@link #getWindowSeconds()} seconds, in milliseconds.
+	 */
+	double getAverageConversionMillis();
+
+	/**
+	 * @return The longest conversion of the last {@link #getWindowSeconds()}
+	 *         seconds, in milliseconds.
+	 */
+	double getMaxConversionMillis();
+
+	/** @return The length of the window of the conversion times. */
+	int getWindowSeconds();
+
+	/**
+	 * Set all the counters to 0.
+	 */
+	void reset();
+}
@@ -0,0 +1,34 @@
+package com.pagesjaunes.json.service;
+
+import com.pagesjaunes.json.JSONException;
+
+/**
+ * Thrown when an {@link AdmissionController} refuses a document, because
+ * its memory budget is used up and its policy does not let the document
+ * wait, or because the document waited too long.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class ConversionRejectedException extends JSONException {
+
+	private static final long serialVersionUID = 0;
+
+	private final long cost;
+
+	/**
+	 * @param message
+	 *            Detail about the reason for the exception.
+	 * @param pCost
+	 *            The estimated memory cost of the document, in bytes.
+	 */
+	public ConversionRejectedException(String message, long pCost) {
+		super(message);
+		cost = pCost;
+	}
+
+	/** @return The estimated memory cost of the document, in bytes. */
+	public long getCost() {
+		return cost;
+	}
+}
@@ -0,0 +1,130 @@
+package com.pagesjaunes.json.service;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.config.Types;
+
+/**
+ * The JSONObject of a document along with what its conversion counted and
+ * the values it had to keep as text. See
+ * {@link XmlToJsonService#convert(String)}.
+ *
+ * The counts are those the conversion keeps anyway for the metrics of the
+ * service, so making a result costs little more than the JSONObject; the
+ * caller decides what to log, sample or alert on.
+ *
+ * @author pagesjaunes
+ *
+ */
+public final class ConversionResult {
+
+	private final JSONObject jsonObject;
+
+	private final int inputCharacters;
+
+	private final int elements;
+
+	private final int attributes;
+
+	private final int maxDepth;
+
+	private final int[] typed;
+
+	private final int[] typingFailures;
+
+	private final long nanos;
+
+	private final long allocatedBytes;
+
+	private final List<ConversionWarning> warnings;
+
+	private final int droppedWarnings;
+
+	ConversionResult(JSONObject pJsonObject, ConversionContext context,
+			int pInputCharacters, long pNanos, long pAllocatedBytes) {
+		jsonObject = pJsonObject;
+		inputCharacters = pInputCharacters;
+		elements = context.elements;
+		attributes = context.attributes;
+		maxDepth = context.maxDepth;
+		typed = context.typed.clone();
+		typingFailures = context.typingFailures.clone();
+		nanos = pNanos;
+		allocatedBytes = pAllocatedBytes;
+		warnings = context.warnings == null ? Collections
+				.<ConversionWarning> emptyList() : Collections
+				.unmodifiableList(context.warnings);
+		droppedWarnings = context.droppedWarnings;
+	}
+
+	/** @return The JSONObject of the document. */
+	public JSONObject getJSONObject() {
+		return jsonObject;
+	}
+
+	/** @return The number of characters of the document. */
+	public int getInputCharacters() {
+		return inputCharacters;
+	}
+
+	/** @return The number of elements of the document. */
+	public int getElements() {
+		return elements;
+	}
+
+	/** @return The number of attributes of the document. */
+	public int getAttributes() {
+		return attributes;
+	}
+
+	/** @return The depth of the deepest element, the document element being 1. */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * @param type
+	 *            A type of the mapping.
+	 * @return The number of values converted to that type.
+	 */
+	public int getTypedValues(Types type) {
+		return typed[type.ordinal()];
+	}
+
+	/**
+	 * @param type
+	 *            A type of the mapping.
+	 * @return The number of values that could not be converted to that type.
+	 */
+	public int getTypingFailures(Types type) {
+		return typingFailures[type.ordinal()];
+	}
+
+	/** @return The duration of the conversion, in nanoseconds. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * @return The bytes the converting thread allocated during the
+	 *         conversion, or -1 if the JVM does not tell.
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return The first warnings of the conversion, at most
+	 *         {@link XmlToJsonService#getMaxWarnings()}.
+	 */
+	public List<ConversionWarning> getWarnings() {
+		return warnings;
+	}
+
+	/** @return The number of warnings past the first ones, which were not kept. */
+	public int getDroppedWarnings() {
+		return droppedWarnings;
+	}
+}
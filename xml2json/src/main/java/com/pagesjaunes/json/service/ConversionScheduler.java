@@ -0,0 +1,439 @@
+package com.pagesjaunes.json.service;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.pagesjaunes.json.JSONObject;
+
+/**
+ * Runs the conversions of a {@link XmlToJsonService} on two lanes of
+ * threads chosen by the size of the documents, so that small documents are
+ * not queued behind large ones: the small lane converts the documents of
+ * less than {@link #getThreshold()} characters, the large lane the others,
+ * with a bounded queue.
+ *
+ * A thread of the large lane with nothing to do takes the small documents
+ * waiting. A thread of the small lane takes the large documents waiting
+ * only if {@link #setStealLarge(boolean)} is set, and then never with its
+ * last free thread, so that a small document always finds one.
+ *
+ * The threads are daemons, started with the scheduler and stopped by
+ * {@link #shutdown()}.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class ConversionScheduler {
+
+	/** The default of {@link #getThreshold()}. */
+	public static final int DEFAULT_THRESHOLD = SizeClass.MEDIUM.getLimit();
+
+	private final XmlToJsonService service;
+
+	private final int threshold;
+
+	private final int maxLargeQueued;
+
+	private final Lane small;
+
+	private final Lane large;
+
+	private volatile boolean stealLarge;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition work = lock.newCondition();
+
+	private final Condition terminated = lock.newCondition();
+
+	private boolean shutdown;
+
+	private int alive;
+
+	/**
+	 * @param pService
+	 *            The service that converts the documents.
+	 * @param smallThreads
+	 *            The number of threads of the small lane.
+	 * @param largeThreads
+	 *            The number of threads of the large lane.
+	 * @param pThreshold
+	 *            The number of characters from which a document is large.
+	 * @param pMaxLargeQueued
+	 *            The number of large documents that may wait.
+	 * @throws IllegalArgumentException
+	 *             If a lane has no thread, since its documents would wait
+	 *             for ever, or if pMaxLargeQueued is negative.
+	 */
+	public ConversionScheduler(XmlToJsonService pService, int smallThreads,
+			int largeThreads, int pThreshold, int pMaxLargeQueued) {
+		if (smallThreads < 1 || largeThreads < 1) {
+			throw new IllegalArgumentException("Each lane needs a thread: "
+					+ smallThreads + " small, " + largeThreads + " large");
+		}
+		if (pMaxLargeQueued < 0) {
+			throw new IllegalArgumentException("Negative queue of large documents: "
+					+ pMaxLargeQueued);
+		}
+		service = pService;
+		threshold = pThreshold;
+		maxLargeQueued = pMaxLargeQueued;
+		small = new Lane("small", smallThreads);
+		large = new Lane("large", largeThreads);
+		start(small);
+		start(large);
+	}
+
+	private void start(final Lane lane) {
+		for (int i = 0; i < lane.threads; i += 1) {
+			Thread thread = new Thread("xml2json-" + lane.name + "-" + (i + 1)) {
+				@Override
+				public void run() {
+					work(lane);
+				}
+			};
+			thread.setDaemon(true);
+			alive += 1;
+			thread.start();
+		}
+	}
+
+	public XmlToJsonService getService() {
+		return service;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public int getMaxLargeQueued() {
+		return maxLargeQueued;
+	}
+
+	public boolean isStealLarge() {
+		return stealLarge;
+	}
+
+	/**
+	 * Let the idle threads of the small lane convert large documents, all
+	 * but one of them.
+	 *
+	 * @param pStealLarge
+	 *            true to let them.
+	 */
+	public void setStealLarge(boolean pStealLarge) {
+		stealLarge = pStealLarge;
+	}
+
+	/** @return The lane of the small documents. */
+	public Lane getSmallLane() {
+		return small;
+	}
+
+	/** @return The lane of the large documents. */
+	public Lane getLargeLane() {
+		return large;
+	}
+
+	/**
+	 * Convert an XML string with {@link XmlToJsonService#toJSONObject(String)}
+	 * on the lane of its size.
+	 *
+	 * @param string
+	 *            The XML source string.
+	 * @return The JSONObject, to come.
+	 * @throws RejectedExecutionException
+	 *             If the document is large and the large lane is full, or if
+	 *             the scheduler is shut down.
+	 */
+	public Future<JSONObject> toJSONObject(final String string) {
+		return submit(string.length(), new Callable<JSONObject>() {
+			public JSONObject call() throws Exception {
+				return service.toJSONObject(string);
+			}
+		});
+	}
+
+	/**
+	 * Convert an XML string with {@link XmlToJsonService#toJSONString(String)}
+	 * on the lane of its size.
+	 *
+	 * @param string
+	 *            The XML source string.
+	 * @return The JSON text, to come.
+	 * @throws RejectedExecutionException
+	 *             If the document is large and the large lane is full, or if
+	 *             the scheduler is shut down.
+	 */
+	public Future<String> toJSONString(final String string) {
+		return submit(string.length(), new Callable<String>() {
+			public String call() throws Exception {
+				return service.toJSONString(string);
+			}
+		});
+	}
+
+	/**
+	 * Run some work on the lane of the size of a document, for instance a
+	 * conversion through an {@link AdmissionController}.
+	 *
+	 * @param characters
+	 *            The number of characters of the document.
+	 * @param task
+	 *            The work.
+	 * @return The result of the work, to come.
+	 * @throws RejectedExecutionException
+	 *             If the document is large and the large lane is full, or if
+	 *             the scheduler is shut down.
+	 */
+	public <T> Future<T> submit(int characters, Callable<T> task) {
+		Lane lane = characters < threshold ? small : large;
+		Task<T> future = new Task<T>(task);
+		lock.lock();
+		try {
+			if (shutdown) {
+				throw new RejectedExecutionException("Scheduler shut down");
+			}
+			if (lane == large && large.queue.size() >= maxLargeQueued) {
+				large.rejected += 1;
+				throw new RejectedExecutionException(maxLargeQueued
+						+ " large documents already queued");
+			}
+			lane.queue.addLast(future);
+			lane.submitted += 1;
+			work.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		return future;
+	}
+
+	private void work(Lane lane) {
+		Lane other = lane == small ? large : small;
+		for (;;) {
+			Task<?> task;
+			Lane from;
+			lock.lock();
+			try {
+				for (;;) {
+					from = lane;
+					task = lane.queue.pollFirst();
+					if (task == null && mayTake(lane, other)) {
+						from = other;
+						task = other.queue.pollFirst();
+					}
+					if (task != null) {
+						break;
+					}
+					if (shutdown) {
+						alive -= 1;
+						terminated.signalAll();
+						return;
+					}
+					work.awaitUninterruptibly();
+				}
+				lane.active += 1;
+				if (from != lane) {
+					from.stolen += 1;
+				}
+			} finally {
+				lock.unlock();
+			}
+			from.waits.record(System.nanoTime() - task.submitted);
+			try {
+				task.run();
+			} finally {
+				lock.lock();
+				try {
+					lane.active -= 1;
+					from.completed += 1;
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether an idle thread of a lane may take the work of the other.
+	 */
+	private boolean mayTake(Lane lane, Lane other) {
+		if (other.queue.isEmpty()) {
+			return false;
+		}
+		if (lane == large) {
+			return true;
+		}
+		return stealLarge && lane.active < lane.threads - 1;
+	}
+
+	/**
+	 * Stop taking documents. The documents already submitted are converted,
+	 * then the threads end.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			shutdown = true;
+			work.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait for the threads to end after {@link #shutdown()}.
+	 *
+	 * @param timeout
+	 *            The longest wait.
+	 * @param unit
+	 *            The unit of the timeout.
+	 * @return true if the threads ended, false if the timeout passed.
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long remaining = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (alive > 0) {
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = terminated.awaitNanos(remaining);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * A submitted conversion, with the time it was submitted at.
+	 */
+	private static final class Task<T> extends FutureTask<T> {
+
+		final long submitted = System.nanoTime();
+
+		Task(Callable<T> callable) {
+			super(callable);
+		}
+	}
+
+	/**
+	 * A lane of threads and the documents waiting for them.
+	 */
+	public final class Lane {
+
+		final String name;
+
+		final int threads;
+
+		final ArrayDeque<Task<?>> queue = new ArrayDeque<Task<?>>();
+
+		final LatencyHistogram waits = new LatencyHistogram();
+
+		int active;
+
+		long submitted;
+
+		long completed;
+
+		long stolen;
+
+		long rejected;
+
+		Lane(String pName, int pThreads) {
+			name = pName;
+			threads = pThreads;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getThreads() {
+			return threads;
+		}
+
+		/** @return The number of documents waiting. */
+		public int getQueued() {
+			lock.lock();
+			try {
+				return queue.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** @return The number of documents the threads of the lane convert. */
+		public int getActive() {
+			lock.lock();
+			try {
+				return active;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** @return The number of documents submitted to the lane. */
+		public long getSubmitted() {
+			lock.lock();
+			try {
+				return submitted;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return The number of documents of the lane converted, by its
+		 *         threads or by those of the other lane.
+		 */
+		public long getCompleted() {
+			lock.lock();
+			try {
+				return completed;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return The number of documents of the lane converted by the
+		 *         threads of the other lane.
+		 */
+		public long getStolen() {
+			lock.lock();
+			try {
+				return stolen;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** @return The number of documents refused because the lane was full. */
+		public long getRejected() {
+			lock.lock();
+			try {
+				return rejected;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return The times the documents of the lane waited before a thread
+		 *         took them.
+		 */
+		public LatencyHistogram.Snapshot getWaits() {
+			return waits.snapshot();
+		}
+	}
+}
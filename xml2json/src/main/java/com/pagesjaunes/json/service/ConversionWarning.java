@@ -0,0 +1,78 @@
+package com.pagesjaunes.json.service;
+
+import com.pagesjaunes.json.config.Types;
+
+/**
+ * A value of a document that was kept as text although its path is typed
+ * in the mapping. See {@link ConversionResult#getWarnings()}.
+ *
+ * @author pagesjaunes
+ *
+ */
+public final class ConversionWarning {
+
+	/** The longest value kept by a warning. */
+	static final int MAX_VALUE = 64;
+
+	/**
+	 * Why the value was kept as text.
+	 */
+	public enum Kind {
+
+		/** The value could not be converted to the type of its path. */
+		TYPING_FAILURE,
+
+		/** The path is typed DATE, but the mapping gives no date format. */
+		MISSING_FORMAT
+	}
+
+	private final Kind kind;
+
+	private final String path;
+
+	private final Types type;
+
+	private final String value;
+
+	private final String message;
+
+	ConversionWarning(Kind pKind, String pPath, Types pType, String pValue,
+			String pMessage) {
+		kind = pKind;
+		path = pPath;
+		type = pType;
+		value = pValue.length() > MAX_VALUE ? pValue.substring(0, MAX_VALUE)
+				: pValue;
+		message = pMessage;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/** @return The dotted path of the value. */
+	public String getPath() {
+		return path;
+	}
+
+	/** @return The type of the path in the mapping. */
+	public Types getType() {
+		return type;
+	}
+
+	/** @return The value, cut after {@value #MAX_VALUE} characters. */
+	public String getValue() {
+		return value;
+	}
+
+	/** @return The message of the conversion error, or null. */
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return kind + " " + path + " (" + type + ") : " + value
+				+ (message != null ? " : " + message : "");
+	}
+}
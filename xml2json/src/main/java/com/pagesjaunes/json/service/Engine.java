@@ -0,0 +1,38 @@
+package com.pagesjaunes.json.service;
+
+/**
+ * The ways {@link XmlToJsonService} can read an XML document. Every engine
+ * produces the same JSON; they differ in how the input is tokenized.
+ *
+ * @author pagesjaunes
+ *
+ */
+public enum Engine {
+
+	/**
+	 * Tokenize the characters of the document one markup token at a time.
+	 */
+	DEFAULT,
+
+	/**
+	 * Build a structural index of the document first, then tokenize it by
+	 * jumping from one indexed markup character to the next.
+	 */
+	INDEXED,
+
+	/**
+	 * Index the document, then convert the children of the document element
+	 * as records, in parallel, and gather them in document order. Documents
+	 * that cannot be split so, because the document element has attributes
+	 * or text of its own or too few children, are converted as with
+	 * INDEXED.
+	 */
+	PARALLEL,
+
+	/**
+	 * Pick one of the other engines for each document, by its size. See
+	 * {@link EngineSelector}.
+	 */
+	AUTO;
+
+}
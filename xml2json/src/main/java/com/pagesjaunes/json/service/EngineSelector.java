@@ -0,0 +1,134 @@
+package com.pagesjaunes.json.service;
+
+import java.util.Properties;
+
+/**
+ * Picks the engine of a document for {@link Engine#AUTO}, by its number of
+ * characters: {@link Engine#DEFAULT} for the small ones,
+ * {@link Engine#INDEXED} from {@link #getIndexedCharacters()}, and
+ * {@link Engine#PARALLEL} from {@link #getParallelCharacters()} when
+ * there is more than one thread to convert the records, which falls back
+ * to INDEXED when the document has fewer than {@link #getMinRecords()}
+ * records.
+ *
+ * The default thresholds are conservative. The
+ * <code>EngineCalibration</code> tool of the benchmarks module measures
+ * those of a machine and prints them as properties that
+ * {@link #load(Properties)} reads.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class EngineSelector {
+
+	/** The property of {@link #getIndexedCharacters()}. */
+	public static final String INDEXED_CHARACTERS = "engine.auto.indexed.characters";
+
+	/** The property of {@link #getParallelCharacters()}. */
+	public static final String PARALLEL_CHARACTERS = "engine.auto.parallel.characters";
+
+	/** The property of {@link #getMinRecords()}. */
+	public static final String MIN_RECORDS = "engine.auto.min.records";
+
+	private int indexedCharacters = 1 << 14;
+
+	private int parallelCharacters = 1 << 20;
+
+	private int minRecords = 16;
+
+	public int getIndexedCharacters() {
+		return indexedCharacters;
+	}
+
+	/**
+	 * Set the size from which a document is indexed before it is read.
+	 *
+	 * @param pIndexedCharacters
+	 *            The number of characters.
+	 */
+	public void setIndexedCharacters(int pIndexedCharacters) {
+		indexedCharacters = pIndexedCharacters;
+	}
+
+	public int getParallelCharacters() {
+		return parallelCharacters;
+	}
+
+	/**
+	 * Set the size from which the records of a document are converted in
+	 * parallel.
+	 *
+	 * @param pParallelCharacters
+	 *            The number of characters.
+	 */
+	public void setParallelCharacters(int pParallelCharacters) {
+		parallelCharacters = pParallelCharacters;
+	}
+
+	public int getMinRecords() {
+		return minRecords;
+	}
+
+	/**
+	 * Set the number of children the document element needs to be converted
+	 * in parallel.
+	 *
+	 * @param pMinRecords
+	 *            The number of records.
+	 */
+	public void setMinRecords(int pMinRecords) {
+		minRecords = pMinRecords;
+	}
+
+	/**
+	 * Pick the engine of a document.
+	 *
+	 * @param characters
+	 *            The number of characters of the document.
+	 * @param parallelism
+	 *            The number of threads that would convert the records.
+	 * @return DEFAULT, INDEXED or PARALLEL.
+	 */
+	public Engine select(int characters, int parallelism) {
+		if (characters >= parallelCharacters && parallelism > 1) {
+			return Engine.PARALLEL;
+		} else if (characters >= indexedCharacters) {
+			return Engine.INDEXED;
+		}
+		return Engine.DEFAULT;
+	}
+
+	/**
+	 * Override the thresholds given by properties, such as those printed by
+	 * the calibration tool. The thresholds without a property are kept.
+	 *
+	 * @param properties
+	 *            The properties.
+	 */
+	public void load(Properties properties) {
+		indexedCharacters = property(properties, INDEXED_CHARACTERS,
+				indexedCharacters);
+		parallelCharacters = property(properties, PARALLEL_CHARACTERS,
+				parallelCharacters);
+		minRecords = property(properties, MIN_RECORDS, minRecords);
+	}
+
+	private static int property(Properties properties, String name,
+			int defaultValue) {
+		String value = properties.getProperty(name);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * @return The thresholds, as properties {@link #load(Properties)} reads.
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		properties.setProperty(INDEXED_CHARACTERS,
+				Integer.toString(indexedCharacters));
+		properties.setProperty(PARALLEL_CHARACTERS,
+				Integer.toString(parallelCharacters));
+		properties.setProperty(MIN_RECORDS, Integer.toString(minRecords));
+		return properties;
+	}
+}
@@ -0,0 +1,173 @@
+package com.pagesjaunes.json.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, in nanoseconds, with log-linear buckets: the
+ * durations below 2 * {@link #SUB_BUCKETS} nanoseconds each have their
+ * bucket, and each power of two above is split into {@link #SUB_BUCKETS}
+ * buckets, so a duration is known within 1 / {@link #SUB_BUCKETS} (about
+ * 3%) whatever its magnitude. Durations past {@link #MAX_NANOS} (about half
+ * an hour) are counted in the last bucket.
+ *
+ * The buckets are a fixed array of counters, incremented without locks, so
+ * a histogram takes under 10 KB and can be left on. A {@link Snapshot}
+ * copies the counters; it may miss the conversions recorded while it is
+ * taken.
+ *
+ * @author pagesjaunes
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+
+	/** The number of buckets each power of two is split into. */
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private static final int MAX_SHIFT = 35;
+
+	/** The largest duration told apart from the larger ones. */
+	static final long MAX_NANOS = (1L << (SUB_BITS + 1 + MAX_SHIFT)) - 1;
+
+	static final int BUCKETS = SUB_BUCKETS * (MAX_SHIFT + 2);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder totalNanos = new LongAdder();
+
+	LatencyHistogram() {
+	}
+
+	/**
+	 * Get the bucket of a duration.
+	 */
+	static int index(long nanos) {
+		long value = nanos < 0 ? 0 : Math.min(nanos, MAX_NANOS);
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value)
+				- SUB_BITS);
+		return SUB_BUCKETS * shift + (int) (value >>> shift);
+	}
+
+	/**
+	 * Get the largest duration of a bucket.
+	 */
+	static long highest(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (index - SUB_BUCKETS * shift) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	/**
+	 * Count a duration.
+	 *
+	 * @param nanos
+	 *            The duration, in nanoseconds.
+	 */
+	void record(long nanos) {
+		counts.incrementAndGet(index(nanos));
+		totalNanos.add(nanos);
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i += 1) {
+			counts.set(i, 0);
+		}
+		totalNanos.reset();
+	}
+
+	/**
+	 * Copy the counters.
+	 *
+	 * @return The durations counted so far.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i += 1) {
+			copy[i] = counts.get(i);
+		}
+		return new Snapshot(copy, totalNanos.sum());
+	}
+
+	/**
+	 * The durations counted by a histogram at some point.
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+
+		private final long count;
+
+		private final long totalNanos;
+
+		Snapshot(long[] pCounts, long pTotalNanos) {
+			counts = pCounts;
+			long total = 0;
+			for (long bucket : pCounts) {
+				total += bucket;
+			}
+			count = total;
+			totalNanos = pTotalNanos;
+		}
+
+		/** @return The number of durations. */
+		public long getCount() {
+			return count;
+		}
+
+		/** @return The mean duration, in nanoseconds, or 0 if none. */
+		public double getMeanNanos() {
+			return count == 0 ? 0 : (double) totalNanos / count;
+		}
+
+		/**
+		 * Get a percentile of the durations, as the largest duration of the
+		 * bucket it falls in.
+		 *
+		 * @param percentile
+		 *            The percentile, from 0 to 100.
+		 * @return The duration, in nanoseconds, or 0 if none.
+		 */
+		public long getPercentileNanos(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1,
+					(long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i += 1) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return highest(i);
+				}
+			}
+			return MAX_NANOS;
+		}
+
+		/** @return The longest duration, within a bucket, or 0 if none. */
+		public long getMaxNanos() {
+			for (int i = counts.length - 1; i >= 0; i -= 1) {
+				if (counts[i] > 0) {
+					return highest(i);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms",
+					Long.valueOf(count), Double.valueOf(getMeanNanos() / 1e6),
+					Double.valueOf(getPercentileNanos(50) / 1e6),
+					Double.valueOf(getPercentileNanos(90) / 1e6),
+					Double.valueOf(getPercentileNanos(99) / 1e6),
+					Double.valueOf(getPercentileNanos(99.9) / 1e6),
+					Double.valueOf(getMaxNanos() / 1e6));
+		}
+	}
+}
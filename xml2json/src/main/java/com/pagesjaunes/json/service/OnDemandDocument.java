@@ -0,0 +1,224 @@
+package com.pagesjaunes.json.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.pagesjaunes.json.IndexedXMLTokener;
+import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.XMLStructuralIndex;
+
+/**
+ * An on-demand view of an XML document, obtained from
+ * {@link XmlToJsonService#onDemand(String)}.
+ * 
+ * Values are looked up by the dotted paths used in the type mapping
+ * properties: <code>bloc.blocid</code> for the value of an element,
+ * <code>bloc.blocid.@attr</code> for an attribute and
+ * <code>bloc.blocid.$content</code> for the text of an element that also
+ * has attributes. Each lookup walks the document only as far as the first
+ * element on that path, stepping over the subtrees that cannot contain it,
+ * and converts only that element. The values are typed as in the
+ * JSONObject of the whole document, which {@link #toJSONObject()} can still
+ * produce from the same buffer.
+ * 
+ * A view is not thread safe.
+ * 
+ * @author pagesjaunes
+ * 
+ */
+public class OnDemandDocument {
+
+	private static final Object NOT_FOUND = new Object();
+
+	private final XmlToJsonService service;
+
+	private final XMLStructuralIndex index;
+
+	/** The virtual parent of the top level elements of the document. */
+	private final Element root;
+
+	private final Map<String, Object> values = new HashMap<String, Object>();
+
+	private JSONObject jsonObject;
+
+	OnDemandDocument(XmlToJsonService pService, XMLStructuralIndex pIndex) {
+		service = pService;
+		index = pIndex;
+		root = new Element(null, null, -1, pIndex.offset());
+	}
+
+	/**
+	 * Get the value of the first element or attribute on a path.
+	 * 
+	 * @param path
+	 *            A dotted path.
+	 * @return The typed value, or null if the document has no such value.
+	 * @throws JSONException
+	 *             If the document is not well formed up to that value.
+	 */
+	public Object opt(String path) throws JSONException {
+		Object value = values.get(path);
+		if (value == null) {
+			String[] segments = path.split("\\.");
+			int length = segments.length;
+			String leaf = segments[length - 1];
+			if (leaf.startsWith("@") || "$content".equals(leaf)) {
+				length -= 1;
+			} else {
+				leaf = null;
+			}
+			value = length == 0 ? null : find(root, segments, 0, length, leaf);
+			values.put(path, value == null ? NOT_FOUND : value);
+		}
+		return value == NOT_FOUND ? null : value;
+	}
+
+	/**
+	 * Get the value of the first element or attribute on a path.
+	 * 
+	 * @param path
+	 *            A dotted path.
+	 * @return The typed value.
+	 * @throws JSONException
+	 *             If the document has no such value, or is not well formed
+	 *             up to that value.
+	 */
+	public Object get(String path) throws JSONException {
+		Object value = opt(path);
+		if (value == null) {
+			throw new JSONException("Document[" + JSONObject.quote(path)
+					+ "] not found.");
+		}
+		return value;
+	}
+
+	/**
+	 * Get the value of the first element or attribute on a path, as a
+	 * string.
+	 * 
+	 * @param path
+	 *            A dotted path.
+	 * @param defaultValue
+	 *            The value returned if the document has no such value.
+	 * @return The value converted to a string.
+	 * @throws JSONException
+	 *             If the document is not well formed up to that value.
+	 */
+	public String optString(String path, String defaultValue)
+			throws JSONException {
+		Object value = opt(path);
+		return value == null || JSONObject.NULL.equals(value) ? defaultValue
+				: value.toString();
+	}
+
+	/**
+	 * Tell whether the document has a value on a path.
+	 * 
+	 * @param path
+	 *            A dotted path.
+	 * @return true if {@link #opt(String)} finds a value.
+	 * @throws JSONException
+	 *             If the document is not well formed up to that value.
+	 */
+	public boolean has(String path) throws JSONException {
+		return opt(path) != null;
+	}
+
+	/**
+	 * Convert the whole document, reusing the buffer and the structural
+	 * index of the view. The result is computed once and then returned by
+	 * every call.
+	 * 
+	 * @return The JSONObject of the document, as returned by
+	 *         {@link XmlToJsonService#toJSONObject(String)}.
+	 * @throws JSONException
+	 */
+	public JSONObject toJSONObject() throws JSONException {
+		if (jsonObject == null) {
+			jsonObject = service.toJSONObject(new IndexedXMLTokener(index));
+		}
+		return jsonObject;
+	}
+
+	/**
+	 * Search the children of an element, in document order, for the first
+	 * one on the remaining segments of a path that has a value.
+	 */
+	private Object find(Element parent, String[] segments, int depth,
+			int length, String leaf) throws JSONException {
+		String name = segments[depth];
+		for (int i = 0;; i += 1) {
+			Element child = parent.child(i);
+			if (child == null) {
+				return null;
+			}
+			if (!name.equals(child.name)) {
+				continue;
+			}
+			Object value = depth + 1 == length ? value(parent, child, leaf)
+					: find(child, segments, depth + 1, length, leaf);
+			if (value != null) {
+				return value;
+			}
+		}
+	}
+
+	private Object value(Element parent, Element element, String leaf)
+			throws JSONException {
+		Object value = service.parseElement(index, element.start, parent.path);
+		if (leaf == null || value == null) {
+			return value;
+		}
+		if (!(value instanceof JSONObject)) {
+			return "$content".equals(leaf) ? value : null;
+		}
+		JSONObject jo = (JSONObject) value;
+		if ("$content".equals(leaf) && jo.length() == 1 && jo.has("$date")) {
+			return jo;
+		}
+		return jo.opt(leaf);
+	}
+
+	/**
+	 * An element of the document whose children are discovered one at a
+	 * time, by jumping from one sibling to the next through the index.
+	 */
+	private final class Element {
+
+		final String name;
+
+		final String path;
+
+		final int start;
+
+		/** Where to look for the next child, or -1 once they are all known. */
+		int next;
+
+		final List<Element> children = new ArrayList<Element>();
+
+		Element(String pName, String pPath, int pStart, int pNext) {
+			name = pName;
+			path = pPath;
+			start = pStart;
+			next = pNext;
+		}
+
+		Element child(int i) throws JSONException {
+			while (children.size() <= i && next >= 0) {
+				int p = index.nextElement(next);
+				if (p < 0) {
+					next = -1;
+					break;
+				}
+				String childName = index.name(p);
+				children.add(new Element(childName, path == null ? childName
+						: path + "." + childName, p, index.contentStart(p)));
+				next = index.elementEnd(p);
+			}
+			return i < children.size() ? children.get(i) : null;
+		}
+	}
+}
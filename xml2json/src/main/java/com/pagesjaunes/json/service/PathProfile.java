@@ -0,0 +1,196 @@
+package com.pagesjaunes.json.service;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts, for each dotted path of the documents converted by a
+ * {@link XmlToJsonService}, how often it occurs, how many characters of
+ * text or attribute values it carries and how long the conversion of its
+ * values to their mapped type takes, and tells which keys of a type mapping
+ * no document matched. See {@link XmlToJsonService#setProfile(PathProfile)}.
+ *
+ * A conversion finds the counters of a path through the node of the path
+ * in its {@link ConversionContext}, so the map of the paths is only looked
+ * up the first time a thread meets a path.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class PathProfile {
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The counters of a path.
+	 */
+	public static final class Entry {
+
+		final String path;
+
+		final LongAdder occurrences = new LongAdder();
+
+		final LongAdder characters = new LongAdder();
+
+		final LongAdder typedValues = new LongAdder();
+
+		final LongAdder typingNanos = new LongAdder();
+
+		Entry(String pPath) {
+			path = pPath;
+		}
+
+		/** @return The dotted path, as it is written in a type mapping. */
+		public String getPath() {
+			return path;
+		}
+
+		/** @return The number of elements, attributes or texts of the path. */
+		public long getOccurrences() {
+			return occurrences.sum();
+		}
+
+		/** @return The number of characters of the values of the path. */
+		public long getCharacters() {
+			return characters.sum();
+		}
+
+		/** @return The number of values converted to the type of the path. */
+		public long getTypedValues() {
+			return typedValues.sum();
+		}
+
+		/** @return The time spent converting the values, in nanoseconds. */
+		public long getTypingNanos() {
+			return typingNanos.sum();
+		}
+	}
+
+	/**
+	 * Get the counters of a path.
+	 */
+	Entry entry(ConversionContext.Path path) {
+		if (path.profile != this) {
+			path.profileEntry = entry(path.path);
+			path.profile = this;
+		}
+		return path.profileEntry;
+	}
+
+	private Entry entry(String path) {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			Entry created = new Entry(path);
+			entry = entries.putIfAbsent(path, created);
+			if (entry == null) {
+				entry = created;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Get the counters of the paths met so far, the most frequent first.
+	 *
+	 * @return A snapshot of the paths.
+	 */
+	public List<Entry> getEntries() {
+		List<Entry> list = new ArrayList<Entry>(entries.values());
+		final Map<Entry, Long> occurrences = new IdentityHashMap<Entry, Long>();
+		for (Entry entry : list) {
+			occurrences.put(entry, Long.valueOf(entry.getOccurrences()));
+		}
+		Collections.sort(list, new Comparator<Entry>() {
+			public int compare(Entry left, Entry right) {
+				int order = occurrences.get(right).compareTo(
+						occurrences.get(left));
+				return order != 0 ? order : left.path.compareTo(right.path);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * Get the counters of a path.
+	 *
+	 * @param path
+	 *            The dotted path.
+	 * @return The counters, or null if the path was not met.
+	 */
+	public Entry getEntry(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Get the keys of a type mapping that no path of the documents matched.
+	 *
+	 * @param mapping
+	 *            The type mapping of the service.
+	 * @return The keys, sorted.
+	 */
+	public SortedSet<String> getUnmatchedKeys(Map<String, ?> mapping) {
+		SortedSet<String> unmatched = new TreeSet<String>();
+		for (String key : mapping.keySet()) {
+			Entry entry = entries.get(key);
+			if (entry == null || entry.getOccurrences() == 0) {
+				unmatched.add(key);
+			}
+		}
+		return unmatched;
+	}
+
+	/**
+	 * Set the counters of all the paths to 0. The paths are kept, since the
+	 * conversion contexts of the threads keep their counters.
+	 */
+	public void reset() {
+		for (Entry entry : entries.values()) {
+			entry.occurrences.reset();
+			entry.characters.reset();
+			entry.typedValues.reset();
+			entry.typingNanos.reset();
+		}
+	}
+
+	/**
+	 * Print the most frequent paths and the unmatched keys of a mapping.
+	 *
+	 * @param out
+	 *            Where to print.
+	 * @param mapping
+	 *            The type mapping of the service.
+	 * @param limit
+	 *            The number of paths to print.
+	 */
+	public void print(PrintStream out, Map<String, ?> mapping, int limit) {
+		out.println(String.format("%14s %14s %12s %12s  %s", "occurrences",
+				"characters", "typed", "typing ms", "path"));
+		int n = 0;
+		for (Entry entry : getEntries()) {
+			if (n++ == limit) {
+				break;
+			}
+			out.println(String.format("%14d %14d %12d %12.3f  %s",
+					Long.valueOf(entry.getOccurrences()),
+					Long.valueOf(entry.getCharacters()),
+					Long.valueOf(entry.getTypedValues()),
+					Double.valueOf(entry.getTypingNanos() / 1e6), entry.path));
+		}
+		SortedSet<String> unmatched = getUnmatchedKeys(mapping);
+		out.println(unmatched.size() + " of " + mapping.size()
+				+ " mapping keys never matched");
+		for (String key : unmatched) {
+			out.println("  " + key);
+		}
+	}
+}
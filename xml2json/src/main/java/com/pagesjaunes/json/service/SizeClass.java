@@ -0,0 +1,53 @@
+package com.pagesjaunes.json.service;
+
+/**
+ * The classes of document sizes the conversion times are kept by, since the
+ * time of a 1 KB document says nothing of that of a 50 MB one. See
+ * {@link XmlToJsonService#getLatencies(SizeClass)}.
+ *
+ * @author pagesjaunes
+ *
+ */
+public enum SizeClass {
+
+	/** Less than 4 K characters. */
+	SMALL(1 << 12),
+
+	/** Less than 64 K characters. */
+	MEDIUM(1 << 16),
+
+	/** Less than 1 M characters. */
+	LARGE(1 << 20),
+
+	/** 1 M characters or more. */
+	HUGE(Integer.MAX_VALUE);
+
+	private final int limit;
+
+	private SizeClass(int pLimit) {
+		limit = pLimit;
+	}
+
+	/** @return The number of characters the documents of the class are below. */
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Get the class of a document.
+	 *
+	 * @param characters
+	 *            The number of characters of the document.
+	 * @return The class of the document.
+	 */
+	public static SizeClass of(int characters) {
+		if (characters < SMALL.limit) {
+			return SMALL;
+		} else if (characters < MEDIUM.limit) {
+			return MEDIUM;
+		} else if (characters < LARGE.limit) {
+			return LARGE;
+		}
+		return HUGE;
+	}
+}
@@ -0,0 +1,51 @@
+package com.pagesjaunes.json.service;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the bytes allocated by the current thread, on the JVMs whose
+ * {@link ThreadMXBean} counts them. The <code>com.sun.management</code>
+ * interface is only touched when the bean implements it, so the service
+ * still runs on a JVM without it.
+ *
+ * @author pagesjaunes
+ *
+ */
+final class ThreadAllocations {
+
+	private static final Object THREADS = threads();
+
+	private ThreadAllocations() {
+	}
+
+	private static Object threads() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (bean instanceof com.sun.management.ThreadMXBean
+					&& ((com.sun.management.ThreadMXBean) bean)
+							.isThreadAllocatedMemorySupported()) {
+				((com.sun.management.ThreadMXBean) bean)
+						.setThreadAllocatedMemoryEnabled(true);
+				return bean;
+			}
+		} catch (LinkageError e) {
+			// no com.sun.management
+		} catch (UnsupportedOperationException e) {
+			// not supported by this JVM
+		}
+		return null;
+	}
+
+	/**
+	 * @return The bytes allocated so far by the current thread, or -1 if the
+	 *         JVM does not tell.
+	 */
+	static long current() {
+		if (THREADS == null) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean) THREADS)
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,35 @@
+package com.pagesjaunes.json.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for a value that could not be converted to the
+ * type of its path, disabled by default. See {@link ConversionEvents}.
+ *
+ * @author pagesjaunes
+ *
+ */
+@Name("com.pagesjaunes.json.TypingFailure")
+@Label("XML to JSON Typing Failure")
+@Category("xml2json")
+@Description("A value kept as text because it could not be converted to the type of its path")
+@Enabled(false)
+@StackTrace(false)
+final class TypingFailureEvent extends Event {
+
+	@Label("Path")
+	String path;
+
+	@Label("Type")
+	String type;
+
+	@Label("Value")
+	@Description("The value, cut after 64 characters")
+	String value;
+}
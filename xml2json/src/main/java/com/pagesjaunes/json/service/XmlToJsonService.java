@@ -25,16 +25,33 @@ package com.pagesjaunes.json.service;
  */
 
 import java.math.BigDecimal;
-import java.text.SimpleDateFormat;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Logger;
 
+import com.pagesjaunes.json.CharSlice;
+import com.pagesjaunes.json.IndexedXMLTokener;
 import com.pagesjaunes.json.JSONArray;
+import com.pagesjaunes.json.JSONBooleanArray;
 import com.pagesjaunes.json.JSONException;
+import com.pagesjaunes.json.JSONLazyNumber;
+import com.pagesjaunes.json.JSONLongArray;
 import com.pagesjaunes.json.JSONObject;
+import com.pagesjaunes.json.JSONTape;
+import com.pagesjaunes.json.JSONTapeSymbols;
+import com.pagesjaunes.json.LimitExceededException;
+import com.pagesjaunes.json.LimitExceededException.Limit;
+import com.pagesjaunes.json.XMLStructuralIndex;
 import com.pagesjaunes.json.XMLTokener;
 import com.pagesjaunes.json.config.JsonConf;
 import com.pagesjaunes.json.config.Types;
@@ -87,6 +104,33 @@ public class XmlToJsonService {
 
 	protected Map<String, JsonConf> configurationMap;
 
+	protected Engine engine = Engine.DEFAULT;
+
+	protected boolean sliceValues;
+
+	protected boolean lazyNumbers;
+
+	protected JSONTapeSymbols tapeSymbols = new JSONTapeSymbols();
+
+	protected int contextMaxChars = ConversionContext.MAX_CHARS;
+
+	protected ConversionMetrics metrics = new ConversionMetrics();
+
+	protected PathProfile profile;
+
+	protected int maxWarnings = 16;
+
+	protected long timeoutMillis;
+
+	protected ConversionLimits limits = new ConversionLimits();
+
+	protected EngineSelector engineSelector = new EngineSelector();
+
+	protected ExecutorService recordExecutor;
+
+	/** The conversion context of each thread. */
+	private final ThreadLocal<ConversionContext> contexts = new ThreadLocal<ConversionContext>();
+
 	/**
 	 * @param pConfigurationMap
 	 */
@@ -94,6 +138,218 @@ public class XmlToJsonService {
 		configurationMap = pConfigurationMap;
 	}
 
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public void setEngine(Engine pEngine) {
+		engine = pEngine;
+	}
+
+	public EngineSelector getEngineSelector() {
+		return engineSelector;
+	}
+
+	/**
+	 * Set the thresholds by which {@link Engine#AUTO} picks the engine of a
+	 * document.
+	 * 
+	 * @param pEngineSelector
+	 *            The thresholds.
+	 */
+	public void setEngineSelector(EngineSelector pEngineSelector) {
+		engineSelector = pEngineSelector;
+	}
+
+	/**
+	 * @return The executor of the records of {@link Engine#PARALLEL}, the
+	 *         common fork/join pool unless one is set.
+	 */
+	public ExecutorService getRecordExecutor() {
+		ExecutorService executor = recordExecutor;
+		return executor != null ? executor : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Set the executor that converts the records of the documents read with
+	 * {@link Engine#PARALLEL}. A conversion waits for its records, so the
+	 * executor must not be one whose threads run the conversions.
+	 * 
+	 * @param pRecordExecutor
+	 *            The executor, or null for the common fork/join pool.
+	 */
+	public void setRecordExecutor(ExecutorService pRecordExecutor) {
+		recordExecutor = pRecordExecutor;
+	}
+
+	public JSONTapeSymbols getTapeSymbols() {
+		return tapeSymbols;
+	}
+
+	public void setTapeSymbols(JSONTapeSymbols pTapeSymbols) {
+		tapeSymbols = pTapeSymbols;
+	}
+
+	public int getContextMaxChars() {
+		return contextMaxChars;
+	}
+
+	/**
+	 * Each thread keeps the buffers of its last conversion, the tokener, the
+	 * dotted paths met so far and the builder of the JSON text, and reuses
+	 * them for its next document, so that converting a small document
+	 * allocates little more than its values. The buffers are only kept
+	 * after converting a document of at most this many characters: a larger
+	 * document is converted with buffers that are dropped afterwards.
+	 * 
+	 * @param pContextMaxChars
+	 *            The size of the largest document whose buffers are kept, 0
+	 *            to keep nothing from one conversion to the next.
+	 */
+	public void setContextMaxChars(int pContextMaxChars) {
+		contextMaxChars = pContextMaxChars;
+	}
+
+	public ConversionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * The metrics count the documents, characters, elements, attributes and
+	 * typed values converted, the syntax errors and the conversion times.
+	 * Call {@link ConversionMetrics#register(String)} to read them through
+	 * JMX.
+	 * 
+	 * @param pMetrics
+	 *            The metrics of the service, which may be shared with other
+	 *            services, or null to count nothing.
+	 */
+	public void setMetrics(ConversionMetrics pMetrics) {
+		metrics = pMetrics;
+	}
+
+	/**
+	 * Get the conversion times of a class of documents, as counted by the
+	 * metrics of the service since they were last reset. For instance
+	 * <code>getLatencies(SizeClass.SMALL).getPercentileNanos(99)</code>.
+	 * 
+	 * @param sizeClass
+	 *            A class of document sizes.
+	 * @return The conversion times, or null if the metrics are disabled.
+	 */
+	public LatencyHistogram.Snapshot getLatencies(SizeClass sizeClass) {
+		ConversionMetrics current = metrics;
+		return current == null ? null : current.getLatencies(sizeClass);
+	}
+
+	public PathProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Count, for each path of the documents, its occurrences, the characters
+	 * of its values and the time spent converting them to their type, and
+	 * find the keys of the mapping that no document matches. Profiling
+	 * looks up a counter for each element, attribute and text, so it is
+	 * meant to be turned on for a while and then off.
+	 * 
+	 * @param pProfile
+	 *            The profile to count into, or null to stop profiling.
+	 */
+	public void setProfile(PathProfile pProfile) {
+		profile = pProfile;
+	}
+
+	public int getMaxWarnings() {
+		return maxWarnings;
+	}
+
+	/**
+	 * Set the number of warnings a {@link ConversionResult} keeps. The
+	 * warnings past it are only counted.
+	 * 
+	 * @param pMaxWarnings
+	 *            The number of warnings kept by a result.
+	 */
+	public void setMaxWarnings(int pMaxWarnings) {
+		maxWarnings = pMaxWarnings;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Stop the conversions that last longer than a timeout with a
+	 * {@link ConversionCancelledException}, so that a pathological document
+	 * does not hold its thread. The time is checked every
+	 * {@link ConversionContext#CHECK_INTERVAL} tags, attributes, texts or
+	 * written JSON values, and every
+	 * {@link com.pagesjaunes.json.XMLTokener#CHECK_CHARACTERS} characters of
+	 * a comment, processing instruction or CDATA section. A
+	 * {@link Cancellation} given to a conversion may set an earlier
+	 * deadline.
+	 * 
+	 * @param pTimeoutMillis
+	 *            The timeout of each conversion, or 0 for none.
+	 */
+	public void setTimeoutMillis(long pTimeoutMillis) {
+		timeoutMillis = pTimeoutMillis;
+	}
+
+	public ConversionLimits getLimits() {
+		return limits;
+	}
+
+	/**
+	 * Set the bounds of the documents the service converts.
+	 * 
+	 * @param pLimits
+	 *            The limits of the conversions.
+	 */
+	public void setLimits(ConversionLimits pLimits) {
+		limits = pLimits;
+	}
+
+	public boolean isLazyNumbers() {
+		return lazyNumbers;
+	}
+
+	/**
+	 * Keep the values typed NUMBER as {@link JSONLazyNumber}s: their digits
+	 * are checked, but they are only parsed if a getter asks for the value,
+	 * and they are written as they were read. The JSON text is the same as
+	 * with BigDecimals, and so are the values of get, which parses them;
+	 * only opt returns the JSONLazyNumbers. Texts that are not plain decimal
+	 * numbers are still parsed into BigDecimals.
+	 * 
+	 * @param pLazyNumbers
+	 *            true to keep the numbers as text.
+	 */
+	public void setLazyNumbers(boolean pLazyNumbers) {
+		lazyNumbers = pLazyNumbers;
+	}
+
+	public boolean isSliceValues() {
+		return sliceValues;
+	}
+
+	/**
+	 * Keep the text and attribute values that are not converted to another
+	 * type as {@link CharSlice}s of the source instead of copying them into
+	 * Strings. The values are copied once, when the JSON text is written.
+	 * This lowers the allocation of a conversion, but appending characters
+	 * to the JSON text is slower than copying a String, so it pays off when
+	 * the garbage collector is the bottleneck. The resulting JSONObject
+	 * keeps the source characters reachable.
+	 * 
+	 * @param pSliceValues
+	 *            true to keep the values as slices.
+	 */
+	public void setSliceValues(boolean pSliceValues) {
+		sliceValues = pSliceValues;
+	}
+
 	/**
 	 * Scan the content following the named tag, attaching it to the context.
 	 * 
@@ -103,17 +359,26 @@ public class XmlToJsonService {
 	 *            The JSONObject that will include the new material.
 	 * @param name
 	 *            The tag name.
+	 * @param namePath
+	 *            The path of the named tag.
 	 * @return true if the close tag is processed.
 	 * @throws JSONException
 	 */
 	private boolean parse(XMLTokener x, JSONObject context, String name,
-			Deque<String> queue) throws JSONException {
+			ConversionContext.Path namePath) throws JSONException {
 		char c;
 		int i;
 		JSONObject jsonobject = null;
 		String string;
+		CharSequence text;
 		String tagName;
+		ConversionContext.Path path;
 		Object token;
+		int attributes = 0;
+
+		// Every markup token counts, comments and declarations as well, so
+		// that a flood of them is cancelled too.
+		namePath.context().tick();
 
 		// Test for and skip past these forms:
 		// <!-- ... -->
@@ -125,7 +390,7 @@ public class XmlToJsonService {
 		// <=
 		// <<
 
-		token = x.nextToken();
+		token = name(x.nextToken());
 		// <!
 
 		if (token == BANG) {
@@ -137,7 +402,7 @@ public class XmlToJsonService {
 				}
 				x.back();
 			} else if (c == '[') {
-				token = x.nextToken();
+				token = name(x.nextToken());
 				if ("CDATA".equals(token)) {
 					if (x.next() == '[') {
 						string = x.nextCDATA();
@@ -151,6 +416,7 @@ public class XmlToJsonService {
 			}
 			i = 1;
 			do {
+				namePath.context().tick();
 				token = x.nextMeta();
 				if (token == null) {
 					throw x.syntaxError("Missing '>' after '<!'.");
@@ -171,8 +437,7 @@ public class XmlToJsonService {
 
 			// Close tag </
 
-			token = x.nextToken();
-			queue.removeLast();
+			token = name(x.nextToken());
 			if (name == null) {
 				throw x.syntaxError("Mismatched close tag " + token);
 			}
@@ -191,48 +456,63 @@ public class XmlToJsonService {
 
 		} else {
 			tagName = (String) token;
-			addQueue(queue, tagName);
+			path = namePath.child(tagName);
+			checkElement(x, context, tagName, path);
+			path.context().element(path);
+			PathProfile pathProfile = profile;
+			if (pathProfile != null) {
+				pathProfile.entry(path).occurrences.increment();
+			}
 			token = null;
 			jsonobject = new JSONObject();
 
-			JsonConf jsonConf = configurationMap.get(queue.getLast());
-			LOG.debug("Queue = "+ queue.getLast());
-			if (LOG.isDebugEnabled() && null != jsonConf) {
-				LOG.debug("Queue = " + queue.getLast() + ", " + jsonConf);
+			JsonConf jsonConf = configurationMap.get(path.path);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Queue = " + path.path);
+				if (null != jsonConf) {
+					LOG.debug("Queue = " + path.path + ", " + jsonConf);
+				}
 			}
 			boolean isArray = (jsonConf != null ? jsonConf.getTypes().equals(
 					Types.ARRAY) : false);
 
 			for (;;) {
 				if (token == null) {
-					token = x.nextToken();
+					token = name(x.nextToken());
 				}
 
 				// attribute = value
 
 				if (token instanceof String) {
-					string = "@" + token;
-					addQueue(queue, string);
-					token = x.nextToken();
+					ConversionContext.Path attribute = path
+							.attribute((String) token);
+					path.context().attributes += 1;
+					path.context().tick();
+					attributes += 1;
+					if (attributes > path.context().limits.getMaxAttributes()) {
+						int max = path.context().limits.getMaxAttributes();
+						throw new LimitExceededException(Limit.ATTRIBUTES, max,
+								"Element " + path.path + " with more than "
+										+ max + " attributes" + x);
+					}
+					token = name(x.nextToken());
 					if (token == EQ) {
 						token = x.nextToken();
-						if (!(token instanceof String)) {
+						if (!(token instanceof CharSequence)) {
 							throw x.syntaxError("Missing value");
 						}
 						jsonobject.accumulate(
-								string,
-								stringToValue(tagName, (String) token,
-										queue.getLast()), false);
+								attribute.key,
+								stringToValue(tagName, (CharSequence) token,
+										attribute), false);
 						token = null;
 					} else {
-						jsonobject.accumulate(string, "", false);
+						jsonobject.accumulate(attribute.key, "", false);
 					}
-					queue.removeLast();
 
 					// Empty tag <.../>
 
 				} else if (token == SLASH) {
-					queue.removeLast();
 					if (x.nextToken() != GT) {
 						throw x.syntaxError("Misshaped tag");
 					}
@@ -254,32 +534,32 @@ public class XmlToJsonService {
 								throw x.syntaxError("Unclosed tag " + tagName);
 							}
 							return false;
-						} else if (token instanceof String) {
-							string = (String) token;
-							addQueue(queue, "$content");
-							if (string.length() > 0) {
+						} else if (token instanceof CharSequence) {
+							path.context().tick();
+							text = (CharSequence) token;
+							if (text.length() > 0) {
 								jsonobject.accumulate(
 										"$content",
-										stringToValue(tagName, string,
-												queue.getLast()), false);
+										stringToValue(tagName, text,
+												path.content()), false);
 							}
-							queue.removeLast();
 
 							// Nested element
 
 						} else if (token == LT) {
-							if (parse(x, jsonobject, tagName, queue)) {
+							if (parse(x, jsonobject, tagName, path)) {
 								if (jsonobject.length() == 0) {
 									// Les blocs vides ne sont pas ajoutés au
 									// flux JSON
 									// context.accumulate(tagName, "");
 								} else if (jsonobject.length() == 1
 										&& jsonobject.opt("$content") != null) {
-									context.accumulate(tagName,
-											jsonobject.opt("$content"), isArray);
+									accumulate(context, tagName,
+											jsonobject.opt("$content"),
+											isArray, path);
 								} else {
-									context.accumulate(tagName, jsonobject,
-											isArray);
+									accumulate(context, tagName, jsonobject,
+											isArray, path);
 								}
 								return false;
 							}
@@ -292,14 +572,67 @@ public class XmlToJsonService {
 		}
 	}
 
-	private void addQueue(Deque<String> queue, String tagName) {
-		String before = queue.peekLast();
-		if (null != before) {
-			queue.add(new StringBuilder(before).append(".").append(tagName)
-					.toString());
+	/**
+	 * Check the depth of an element and the number of its siblings of the
+	 * same name, before the element is read.
+	 */
+	private static void checkElement(XMLTokener x, JSONObject parent,
+			String tagName, ConversionContext.Path path)
+			throws LimitExceededException {
+		ConversionLimits bounds = path.context().limits;
+		if (path.depth > bounds.getMaxDepth()) {
+			throw new LimitExceededException(Limit.DEPTH, bounds.getMaxDepth(),
+					"Element " + path.path + " deeper than "
+							+ bounds.getMaxDepth() + x);
+		}
+		int maxSiblings = bounds.getMaxSiblings();
+		if (maxSiblings != Integer.MAX_VALUE) {
+			Object siblings = parent.opt(tagName);
+			int count = siblings == null ? 0
+					: siblings instanceof JSONArray ? ((JSONArray) siblings)
+							.length() : 1;
+			if (count >= maxSiblings) {
+				throw new LimitExceededException(Limit.SIBLINGS, maxSiblings,
+						"More than " + maxSiblings + " elements " + path.path
+								+ x);
+			}
+		}
+	}
+
+	/**
+	 * Accumulate the value of an element. The array of a path configured as
+	 * ARRAY is made with its first value, as a {@link JSONLongArray} or a
+	 * {@link JSONBooleanArray} when the content of the elements is typed
+	 * NUMBER or BOOLEAN. Such an array widens by itself if a value of
+	 * another type comes.
+	 */
+	private void accumulate(JSONObject context, String tagName, Object value,
+			boolean isArray, ConversionContext.Path path) throws JSONException {
+		if (isArray && context.opt(tagName) == null) {
+			JSONObject.testValidity(value);
+			context.put(tagName, newArray(path).put(value));
 		} else {
-			queue.add(tagName);
+			context.accumulate(tagName, value, isArray);
+		}
+	}
+
+	private JSONArray newArray(ConversionContext.Path path) {
+		JsonConf jsonConf = configurationMap.get(path.content().path);
+		if (jsonConf != null && Types.NUMBER.equals(jsonConf.getTypes())) {
+			return new JSONLongArray();
+		} else if (jsonConf != null
+				&& Types.BOOLEAN.equals(jsonConf.getTypes())) {
+			return new JSONBooleanArray();
 		}
+		return new JSONArray();
+	}
+
+	/**
+	 * Names are compared as Strings, so a quoted name read as a slice is
+	 * turned into one.
+	 */
+	private static Object name(Object token) {
+		return token instanceof CharSlice ? token.toString() : token;
 	}
 
 	/**
@@ -309,70 +642,808 @@ public class XmlToJsonService {
 	 * convert plus forms, octal forms, hex forms, or E forms lacking decimal
 	 * points.
 	 * 
-	 * @param value
-	 *            A String.
+	 * @param text
+	 *            A String, or a slice of the source.
+	 * @param path
+	 *            The path of the value.
 	 * @return A simple JSON value.
 	 */
-	private Object stringToValue(String field, String value,
-			String completeField) {
+	private Object stringToValue(String field, CharSequence text,
+			ConversionContext.Path path) {
+		String completeField = path.path;
+		PathProfile.Entry profiled = null;
+		PathProfile pathProfile = profile;
+		if (pathProfile != null && text != null) {
+			profiled = pathProfile.entry(path);
+			profiled.occurrences.increment();
+			profiled.characters.add(text.length());
+		}
 		if (LOG.isDebugEnabled()) {
-			LOG.debug(field + ", " + value + ", " + completeField + ", "
+			LOG.debug(field + ", " + text + ", " + completeField + ", "
 					+ configurationMap.get(completeField));
 		}
+		if (null == text || text.length() == 0 || null == completeField) {
+			return text;
+		}
+		JsonConf jsonConf = configurationMap.get(completeField);
+		if (null == jsonConf || null == jsonConf.getTypes()
+				|| jsonConf.getTypes().equals(Types.UNKNOW)) {
+			return text;
+		}
+		String value = text.toString();
+		Types type = jsonConf.getTypes();
+		ConversionContext conversion = path.context();
+		long start = profiled != null ? System.nanoTime() : 0;
+		Object typed;
 		try {
-			if (null == value || "".equals(value) || null == completeField) {
-				return value;
+			if ("null".equalsIgnoreCase(value)) {
+				typed = JSONObject.NULL;
+			} else {
+				switch (type) {
+				case BOOLEAN:
+					if ("true".equalsIgnoreCase(value) || "1".equals(value)) {
+						typed = Boolean.TRUE;
+					} else {
+						typed = Boolean.FALSE;
+					}
+					break;
+				case DATE:
+					if (jsonConf.getFormat() != null) {
+						typed = conversion.dateFormat(jsonConf.getFormat())
+								.parse(value);
+					} else {
+						conversion.warn(ConversionWarning.Kind.MISSING_FORMAT,
+								path, type, value, null);
+						return text;
+					}
+					break;
+				case NUMBER:
+					typed = lazyNumbers ? JSONLazyNumber.valueOf(value) : null;
+					if (typed == null) {
+						int length = value.length();
+						char[] digits = conversion.scratch(length);
+						value.getChars(0, length, digits, 0);
+						typed = new BigDecimal(digits, 0, length);
+					}
+					break;
+				default:
+					return text;
+				}
+			}
+		} catch (Exception e) {
+			conversion.typingFailures[type.ordinal()] += 1;
+			if (profiled != null) {
+				profiled.typingNanos.add(System.nanoTime() - start);
 			}
+			if (ConversionEvents.AVAILABLE) {
+				ConversionEvents.typingFailure(completeField, type, value);
+			}
+			if (!conversion.warn(ConversionWarning.Kind.TYPING_FAILURE, path,
+					type, value, e.getMessage())) {
+				LOG.warn("Erreur lors du parsing de la valeur du champ " + field
+						+ " : " + value + "(" + completeField + ")", e);
+			}
+			return text;
+		}
+		conversion.typed[type.ordinal()] += 1;
+		if (profiled != null) {
+			profiled.typedValues.increment();
+			profiled.typingNanos.add(System.nanoTime() - start);
+		}
+		return typed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public JSONObject toJSONObject(String string) throws JSONException {
+		return toJSONObject(string, null);
+	}
+
+	/**
+	 * Convert an XML string into a JSONObject, unless the conversion is
+	 * cancelled or runs past its deadline.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @param cancellation
+	 *            The token the conversion can be stopped with, or null.
+	 * @return A JSONObject containing the structured data from the XML
+	 *         string.
+	 * @throws ConversionCancelledException
+	 *             If the conversion was stopped.
+	 * @throws JSONException
+	 */
+	public JSONObject toJSONObject(String string, Cancellation cancellation)
+			throws JSONException {
+		checkInput(string.length());
+		ConversionContext context = acquire();
+		try {
+			context.cancellation = cancellation;
+			return toJSONObject(context.tokener(string, engine(string.length()), sliceValues),
+					context, string.length());
+		} finally {
+			release(context);
+		}
+	}
+
+	/**
+	 * Convert an XML string into a JSONObject, along with the counts of the
+	 * conversion and the values that had to be kept as text. Unlike
+	 * {@link #toJSONObject(String)}, the conversion does not log these
+	 * values: they are handed to the caller as the warnings of the result.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @return The result of the conversion.
+	 * @throws JSONException
+	 */
+	public ConversionResult convert(String string) throws JSONException {
+		return convert(string, null);
+	}
 
-			JsonConf jsonConf = configurationMap.get(completeField);
-			if (null == jsonConf || null == jsonConf.getTypes()
-					|| jsonConf.getTypes().equals(Types.UNKNOW)) {
-				return value;
+	/**
+	 * Convert an XML string as {@link #convert(String)} does, unless the
+	 * conversion is cancelled or runs past its deadline.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @param cancellation
+	 *            The token the conversion can be stopped with, or null.
+	 * @return The result of the conversion.
+	 * @throws ConversionCancelledException
+	 *             If the conversion was stopped.
+	 * @throws JSONException
+	 */
+	public ConversionResult convert(String string, Cancellation cancellation)
+			throws JSONException {
+		checkInput(string.length());
+		ConversionContext context = acquire();
+		try {
+			long allocated = ThreadAllocations.current();
+			context.cancellation = cancellation;
+			context.maxWarnings = Math.max(maxWarnings, 0);
+			JSONObject jo = toJSONObject(
+					context.tokener(string, engine(string.length()), sliceValues), context,
+					string.length());
+			return result(jo, context, string.length(), allocated);
+		} finally {
+			release(context);
+		}
+	}
+
+	/**
+	 * Convert the XML text held in a character array, as
+	 * {@link #toJSONObject(char[], int, int)} does, along with the counts of
+	 * the conversion and the values that had to be kept as text.
+	 * 
+	 * @param buffer
+	 *            The XML source characters.
+	 * @param offset
+	 *            The offset of the first character of the document.
+	 * @param length
+	 *            The number of characters of the document.
+	 * @return The result of the conversion.
+	 * @throws JSONException
+	 */
+	public ConversionResult convert(char[] buffer, int offset, int length)
+			throws JSONException {
+		checkInput(length);
+		ConversionContext context = acquire();
+		try {
+			long allocated = ThreadAllocations.current();
+			context.maxWarnings = Math.max(maxWarnings, 0);
+			JSONObject jo = toJSONObject(
+					context.tokener(buffer, offset, length, indexedEngine(length)),
+					context, length);
+			return result(jo, context, length, allocated);
+		} finally {
+			release(context);
+		}
+	}
+
+	/**
+	 * Refuse a document longer than the limit, before it is copied.
+	 */
+	private void checkInput(int length) throws LimitExceededException {
+		int maxInput = limits.getMaxInputCharacters();
+		if (length > maxInput) {
+			if (metrics != null) {
+				metrics.recordLimitExceeded();
 			}
+			throw new LimitExceededException(Limit.INPUT_CHARACTERS, maxInput,
+					"Document longer than " + maxInput + " characters");
+		}
+	}
+
+	private static ConversionResult result(JSONObject jo,
+			ConversionContext context, int length, long allocated) {
+		if (allocated >= 0) {
+			allocated = ThreadAllocations.current() - allocated
+					+ context.recordAllocatedBytes;
+		}
+		return new ConversionResult(jo, context, length, context.nanos,
+				allocated);
+	}
+
+	/**
+	 * Convert an XML string into the JSON text of
+	 * {@link JSONObject#toString()}. The text is written to the builder of
+	 * the conversion context of the thread, so only the resulting String is
+	 * made.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @return The JSON text.
+	 * @throws JSONException
+	 */
+	public String toJSONString(String string) throws JSONException {
+		return toJSONString(string, null);
+	}
 
-			String valueLowerCase = value.toLowerCase();
-			if ("null".equals(valueLowerCase)) {
-				return JSONObject.NULL;
+	/**
+	 * Convert an XML string into the JSON text of
+	 * {@link JSONObject#toString()}, unless the conversion is cancelled or
+	 * runs past its deadline. The deadline is checked once more before the
+	 * text is written, and while it is written.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @param cancellation
+	 *            The token the conversion can be stopped with, or null.
+	 * @return The JSON text.
+	 * @throws ConversionCancelledException
+	 *             If the conversion was stopped.
+	 * @throws JSONException
+	 */
+	public String toJSONString(String string, Cancellation cancellation)
+			throws JSONException {
+		checkInput(string.length());
+		ConversionContext context = acquire();
+		try {
+			context.cancellation = cancellation;
+			JSONObject jo = toJSONObject(
+					context.tokener(string, engine(string.length()), sliceValues), context,
+					string.length());
+			StringBuilder output;
+			try {
+				if (context.timed || context.cancellation != null) {
+					context.check(System.nanoTime());
+				}
+				output = jo.write(context.output(), 0, false, context);
+				context.written(output.length());
+			} catch (ConversionCancelledException e) {
+				if (metrics != null) {
+					metrics.recordCancellation();
+				}
+				throw e;
+			} catch (LimitExceededException e) {
+				if (metrics != null) {
+					metrics.recordLimitExceeded();
+				}
+				throw e;
 			}
+			if (metrics != null) {
+				metrics.recordOutput(output.length());
+			}
+			return output.toString();
+		} finally {
+			release(context);
+		}
+	}
+
+	/**
+	 * Convert the XML text held in a character array, using the
+	 * {@link Engine#INDEXED} engine whatever the configured one: the array is
+	 * indexed in a first pass, then tokenized by walking the index. The array
+	 * is not copied and must not be modified during the conversion.
+	 * 
+	 * @param buffer
+	 *            The XML source characters.
+	 * @param offset
+	 *            The offset of the first character of the document.
+	 * @param length
+	 *            The number of characters of the document.
+	 * @return A JSONObject containing the structured data from the XML text.
+	 * @throws JSONException
+	 */
+	public JSONObject toJSONObject(char[] buffer, int offset, int length)
+			throws JSONException {
+		checkInput(length);
+		ConversionContext context = acquire();
+		try {
+			return toJSONObject(
+					context.tokener(buffer, offset, length, indexedEngine(length)),
+					context, length);
+		} finally {
+			release(context);
+		}
+	}
+
+	/**
+	 * Open an on-demand view of an XML document. The view reads only as
+	 * much of the document as the values asked for require, and can still
+	 * produce the whole JSONObject afterwards.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @return An on-demand view of the document.
+	 */
+	public OnDemandDocument onDemand(String string) {
+		char[] buffer = string.toCharArray();
+		return onDemand(buffer, 0, buffer.length);
+	}
+
+	/**
+	 * Open an on-demand view of the XML text held in a character array. The
+	 * array is not copied and must not be modified while the view is in use.
+	 * 
+	 * @param buffer
+	 *            The XML source characters.
+	 * @param offset
+	 *            The offset of the first character of the document.
+	 * @param length
+	 *            The number of characters of the document.
+	 * @return An on-demand view of the document.
+	 */
+	public OnDemandDocument onDemand(char[] buffer, int offset, int length) {
+		return new OnDemandDocument(this, new XMLStructuralIndex(buffer,
+				offset, length));
+	}
+
+	/**
+	 * Convert an XML string into a {@link JSONTape}, a compact encoding of
+	 * the JSONObject meant to be kept in a cache. The keys are shared
+	 * through the symbol table of the service.
+	 * 
+	 * @param string
+	 *            The XML source string.
+	 * @param direct
+	 *            true to allocate the tape outside of the heap.
+	 * @return The tape of the document.
+	 * @throws JSONException
+	 */
+	public JSONTape toJSONTape(String string, boolean direct)
+			throws JSONException {
+		return JSONTape.encode(toJSONObject(string), tapeSymbols, direct);
+	}
 
-			switch (jsonConf.getTypes()) {
-			case BOOLEAN:
-				if ("true".equals(valueLowerCase) || "1".equals(valueLowerCase)) {
-					return Boolean.TRUE;
+	JSONObject toJSONObject(IndexedXMLTokener x) throws JSONException {
+		ConversionContext context = acquire();
+		try {
+			return toJSONObject(x, context, x.index().limit()
+					- x.index().offset());
+		} finally {
+			release(context);
+		}
+	}
+
+	/**
+	 * Convert a document and count it in the metrics.
+	 * 
+	 * @param length
+	 *            The number of characters of the document.
+	 */
+	private JSONObject toJSONObject(XMLTokener x, ConversionContext context,
+			int length) throws JSONException {
+		long start = System.nanoTime();
+		Object event = ConversionEvents.AVAILABLE ? ConversionEvents.begin()
+				: null;
+		JSONObject jo = new JSONObject();
+		x.setSliceValues(sliceValues);
+		x.setMaxTextLength(context.limits.getMaxTextLength());
+		x.setReadCheck(context);
+		try {
+			context.start(start, timeoutMillis * 1000000L);
+			if (context.engine != Engine.PARALLEL
+					|| !(x instanceof IndexedXMLTokener)
+					|| !parseRecords((IndexedXMLTokener) x, jo, context)) {
+				while (x.more() && x.skipPast("<")) {
+					parse(x, jo, null, context.root());
+				}
+			}
+		} catch (JSONException e) {
+			if (metrics != null) {
+				if (e instanceof ConversionCancelledException) {
+					metrics.recordCancellation();
+				} else if (e instanceof LimitExceededException) {
+					metrics.recordLimitExceeded();
 				} else {
-					return Boolean.FALSE;
+					metrics.recordError();
 				}
-			case DATE:
-				if (jsonConf.getFormat() != null) {
-					SimpleDateFormat dateFormat = new SimpleDateFormat(
-							jsonConf.getFormat());
-					return dateFormat.parse(value);
+			}
+			if (event != null) {
+				ConversionEvents.end(event, engine(x, context), context, length,
+						e.getMessage());
+			}
+			throw e;
+		}
+		context.nanos = System.nanoTime() - start;
+		if (metrics != null) {
+			metrics.record(context, length, context.nanos);
+		}
+		if (event != null) {
+			ConversionEvents.end(event, engine(x, context), context, length, null);
+		}
+		return jo;
+	}
+
+	private static Engine engine(XMLTokener x, ConversionContext context) {
+		if (context.engine != null) {
+			return context.engine;
+		}
+		return x instanceof IndexedXMLTokener ? Engine.INDEXED : Engine.DEFAULT;
+	}
+
+	/**
+	 * Get the engine of a document, picking one by its size for AUTO.
+	 */
+	private Engine engine(int length) {
+		return engine == Engine.AUTO ? engineSelector.select(length,
+				recordParallelism(getRecordExecutor())) : engine;
+	}
+
+	/**
+	 * Tell whether the records of a document may be converted by the
+	 * threads of the record executor, whose allocations the thread of the
+	 * conversion does not see.
+	 */
+	boolean mayConvertRecords(int length) {
+		return engine(length) == Engine.PARALLEL;
+	}
+
+	/**
+	 * Get the engine of a document held in a character array, which is
+	 * always indexed.
+	 */
+	private Engine indexedEngine(int length) {
+		return engine(length) == Engine.PARALLEL ? Engine.PARALLEL
+				: Engine.INDEXED;
+	}
+
+	/**
+	 * Convert the children of the document element as records, in
+	 * parallel, and gather their values in document order, as
+	 * {@link #parse(XMLTokener, JSONObject, String, ConversionContext.Path)}
+	 * would. The document element must have no attributes and no text of
+	 * its own, and nothing but blanks may come between its children.
+	 * 
+	 * @return false if the document cannot be split so, in which case
+	 *         nothing was read.
+	 */
+	private boolean parseRecords(IndexedXMLTokener x, JSONObject jo,
+			ConversionContext context) throws JSONException {
+		XMLStructuralIndex index = x.index();
+		char[] buffer = index.buffer();
+		String name;
+		int[] records;
+		String[] names;
+		try {
+			int root = index.nextElement(index.offset());
+			if (root < 0) {
+				return false;
+			}
+			name = index.name(root);
+			int content = index.contentStart(root);
+			if (content < 0
+					|| !blank(buffer, root + 1 + name.length(), content - 1)) {
+				return false;
+			}
+			int end = index.elementEnd(root);
+			int close = end - 1;
+			while (buffer[close] != '<') {
+				close -= 1;
+			}
+			if (close < content || buffer[close + 1] != '/'
+					|| !name.equals(index.name(close + 1))
+					|| !blank(buffer, close + 2 + name.length(), end - 1)
+					|| !blank(buffer, end, index.limit())) {
+				return false;
+			}
+			records = index.childElements(root);
+			if (records.length < engineSelector.getMinRecords()) {
+				return false;
+			}
+			names = new String[records.length];
+			int from = content;
+			for (int i = 0; i < records.length; i += 1) {
+				if (!blank(buffer, from, records[i])) {
+					return false;
+				}
+				names[i] = index.name(records[i]);
+				from = index.elementEnd(records[i]);
+			}
+			if (!blank(buffer, from, close)) {
+				return false;
+			}
+		} catch (JSONException e) {
+			// Malformed: the sequential parser tells where.
+			return false;
+		}
+		int maxSiblings = context.limits.getMaxSiblings();
+		if (maxSiblings != Integer.MAX_VALUE) {
+			Map<String, int[]> siblings = new HashMap<String, int[]>();
+			for (int i = 0; i < records.length; i += 1) {
+				int[] count = siblings.get(names[i]);
+				if (count == null) {
+					count = new int[1];
+					siblings.put(names[i], count);
+				}
+				if (++count[0] > maxSiblings) {
+					// The sequential parser fails at the right element.
+					return false;
+				}
+			}
+		}
+
+		ConversionContext.Path rootPath = context.root().child(name);
+		checkElement(x, jo, name, rootPath);
+		context.element(rootPath);
+		context.tick();
+		PathProfile pathProfile = profile;
+		if (pathProfile != null) {
+			pathProfile.entry(rootPath).occurrences.increment();
+		}
+
+		Object[] values;
+		try {
+			values = convertRecords(index, records, rootPath.path, context);
+		} catch (ConversionCancelledException e) {
+			throw e;
+		} catch (JSONException e) {
+			failRecords(x, context);
+			throw e;
+		} catch (RuntimeException e) {
+			failRecords(x, context);
+			throw e;
+		}
+		JSONObject record = new JSONObject();
+		for (int i = 0; i < records.length; i += 1) {
+			if (values[i] != null) {
+				ConversionContext.Path path = rootPath.child(names[i]);
+				JsonConf jsonConf = configurationMap.get(path.path);
+				if (jsonConf == null
+						|| !Types.ARRAY.equals(jsonConf.getTypes())) {
+					accumulate(record, names[i], values[i], false, path);
+				} else if (values[i] instanceof JSONArray) {
+					accumulate(record, names[i],
+							((JSONArray) values[i]).opt(0), true, path);
 				} else {
-					return value;
+					// An empty tag with attributes, which parse() does not
+					// wrap.
+					record.accumulate(names[i], values[i], false);
 				}
-			case NUMBER:
-				return new BigDecimal(value);
-			default:
-				return value;
 			}
-		} catch (Exception e) {
-			LOG.warn("Erreur lors du parsing de la valeur du champ " + field
-					+ " : " + value + "(" + completeField + ")", e);
-			return value;
 		}
+		if (record.length() > 0) {
+			JsonConf jsonConf = configurationMap.get(rootPath.path);
+			boolean isArray = jsonConf != null
+					&& Types.ARRAY.equals(jsonConf.getTypes());
+			if (record.length() == 1 && record.opt("$content") != null) {
+				accumulate(jo, name, record.opt("$content"), isArray, rootPath);
+			} else {
+				accumulate(jo, name, record, isArray, rootPath);
+			}
+		}
+		return true;
 	}
 
 	/**
-	 * {@inheritDoc}
+	 * Get the number of threads of an executor of records, or the number of
+	 * processors when it does not tell.
 	 */
-	public JSONObject toJSONObject(String string) throws JSONException {
-		JSONObject jo = new JSONObject();
-		Deque<String> queue = new ArrayDeque<String>();
-		XMLTokener x = new XMLTokener(string);
-		while (x.more() && x.skipPast("<")) {
-			parse(x, jo, null, queue);
+	private static int recordParallelism(ExecutorService executor) {
+		if (executor instanceof ForkJoinPool) {
+			return ((ForkJoinPool) executor).getParallelism();
+		} else if (executor instanceof ThreadPoolExecutor) {
+			return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
 		}
-		return jo;
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Read again a document a record of which failed, as the sequential
+	 * parser does, so that it fails the same way, at the same place: a
+	 * record read on its own does not know the line it starts at. The
+	 * counts of this reading are dropped.
+	 */
+	private void failRecords(IndexedXMLTokener x, ConversionContext context)
+			throws JSONException {
+		ConversionContext conversion = acquire();
+		try {
+			conversion.follow(context);
+			JSONObject jo = new JSONObject();
+			while (x.more() && x.skipPast("<")) {
+				parse(x, jo, null, conversion.root());
+			}
+		} finally {
+			release(conversion);
+		}
+	}
+
+	/**
+	 * Convert records on the executor, a share of them per task. The shares
+	 * stop at the first record that fails, and its error is thrown.
+	 * 
+	 * @return The value of each record, as parse() puts it in its parent,
+	 *         or null if it is empty.
+	 */
+	private Object[] convertRecords(final XMLStructuralIndex index,
+			final int[] records, final String parentPath,
+			final ConversionContext context) throws JSONException {
+		final Object[] values = new Object[records.length];
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ExecutorService executor = getRecordExecutor();
+		int tasks = Math.min(records.length,
+				Math.max(1, recordParallelism(executor) * 4));
+		List<Callable<Void>> shares = new ArrayList<Callable<Void>>(tasks);
+		for (int t = 0; t < tasks; t += 1) {
+			final int from = (int) ((long) records.length * t / tasks);
+			final int to = (int) ((long) records.length * (t + 1) / tasks);
+			shares.add(new Callable<Void>() {
+				public Void call() {
+					ConversionContext conversion = acquire();
+					long allocated = ThreadAllocations.current();
+					try {
+						conversion.follow(context);
+						ConversionContext.Path parent = conversion
+								.path(parentPath);
+						// One tokener for the share, and its names.
+						IndexedXMLTokener x = null;
+						for (int i = from; i < to && failure.get() == null; i += 1) {
+							if (x == null) {
+								x = elementTokener(index, records[i], parent);
+							} else {
+								x.restart(records[i] + 1);
+							}
+							values[i] = parseElement(x, parent);
+						}
+						if (allocated >= 0) {
+							conversion.recordAllocatedBytes = ThreadAllocations
+									.current() - allocated;
+						}
+						synchronized (context) {
+							context.merge(conversion);
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						release(conversion);
+					}
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> share : executor.invokeAll(shares)) {
+				share.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConversionCancelledException(
+					"Conversion interrupted", false);
+		} catch (ExecutionException e) {
+			throw new JSONException(e.getCause());
+		}
+		Throwable error = failure.get();
+		if (error instanceof JSONException) {
+			throw (JSONException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error != null) {
+			throw (Error) error;
+		}
+		return values;
+	}
+
+	/**
+	 * Tell whether the characters of a range are all blanks, which the
+	 * tokener trims away.
+	 */
+	private static boolean blank(char[] buffer, int from, int to) {
+		for (int i = from; i < to; i += 1) {
+			char c = buffer[i];
+			if (c > ' ' || c == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the conversion context of the thread, or a new one if it is
+	 * already in use or if contexts are not kept.
+	 */
+	private ConversionContext acquire() {
+		ConversionContext context = contextMaxChars <= 0 ? null : contexts
+				.get();
+		if (contextMaxChars <= 0 || (context != null && context.busy)) {
+			context = new ConversionContext(Math.max(contextMaxChars, 0));
+		} else {
+			if (context == null) {
+				context = new ConversionContext(contextMaxChars);
+				contexts.set(context);
+			}
+			context.maxChars = contextMaxChars;
+			context.busy = true;
+			context.begin();
+		}
+		context.limits = limits;
+		return context;
+	}
+
+	private void release(ConversionContext context) {
+		context.reset();
+		context.busy = false;
+	}
+
+	/**
+	 * Convert a single element of an indexed document, as it would appear in
+	 * the JSONObject of the whole document.
+	 * 
+	 * @param index
+	 *            The structural index of the document.
+	 * @param start
+	 *            The buffer offset of the '&lt;' opening the element.
+	 * @param parentPath
+	 *            The dotted path of the parent element, or null for the
+	 *            document element.
+	 * @return The value of the element, or null if the element is empty.
+	 * @throws JSONException
+	 */
+	Object parseElement(XMLStructuralIndex index, int start, String parentPath)
+			throws JSONException {
+		ConversionContext conversion = acquire();
+		Object value;
+		String name;
+		try {
+			ConversionContext.Path parent = parentPath == null ? conversion
+					.root() : conversion.path(parentPath);
+			value = parseElement(elementTokener(index, start, parent), parent);
+			if (value == null) {
+				return null;
+			}
+			name = index.name(start);
+		} finally {
+			release(conversion);
+		}
+		JsonConf jsonConf = configurationMap.get(parentPath == null ? name
+				: parentPath + "." + name);
+		if (jsonConf != null && Types.ARRAY.equals(jsonConf.getTypes())
+				&& value instanceof JSONArray) {
+			value = ((JSONArray) value).opt(0);
+		}
+		return value;
+	}
+
+	/**
+	 * Get a tokener reading an element of an indexed document, past its
+	 * '&lt;'.
+	 */
+	private IndexedXMLTokener elementTokener(XMLStructuralIndex index,
+			int start, ConversionContext.Path parent) {
+		IndexedXMLTokener x = new IndexedXMLTokener(index, start + 1);
+		x.setSliceValues(sliceValues);
+		x.setMaxTextLength(parent.context().limits.getMaxTextLength());
+		x.setReadCheck(parent.context());
+		return x;
+	}
+
+	/**
+	 * Convert the element a tokener is at as parse() puts it in its parent:
+	 * wrapped in an array when its path is an array, unless it is an empty
+	 * tag with attributes.
+	 * 
+	 * @return The value, or null if the element is empty.
+	 */
+	private Object parseElement(IndexedXMLTokener x,
+			ConversionContext.Path parent) throws JSONException {
+		JSONObject context = new JSONObject();
+		parse(x, context, null, parent);
+		if (context.length() == 0) {
+			return null;
+		}
+		return context.opt((String) context.keys().next());
 	}
 
 }
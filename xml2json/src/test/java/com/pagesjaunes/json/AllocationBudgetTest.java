@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package com.pagesjaunes.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.XmlToJsonService;
+
+
+/**
+ * Checks the bytes allocated by the conversion of reference documents
+ * against the budgets of <code>allocation-budgets.properties</code>, so
+ * that a change that makes a conversion allocate more has to update its
+ * budget.
+ *
+ * The bytes are those counted by the thread allocation counter of the JVM,
+ * for a conversion made after enough of them for the JIT to have compiled
+ * the conversion. A conversion fails its budget when it allocates more
+ * than the budget plus the tolerance of the file.
+ *
+ * @author pagesjaunes
+ *
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARMUPS = 3000;
+
+    private static final int ROUNDS = 5;
+
+    private static final int CONVERSIONS = 200;
+
+    private ConfigurationMapEnumTypes conf;
+
+    private Properties budgets;
+
+    private com.sun.management.ThreadMXBean threads;
+
+    /**
+     * A conversion measured by the tests.
+     */
+    private interface Conversion {
+        Object convert(XmlToJsonService service, String xml) throws JSONException;
+    }
+
+    private static final Conversion OBJECT = new Conversion() {
+        public Object convert(XmlToJsonService service, String xml) throws JSONException {
+            return service.toJSONObject(xml);
+        }
+    };
+
+    public AllocationBudgetTest() {
+        this.conf = new ConfigurationMapEnumTypes("xml2json-datatype-mapping.properties");
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        this.threads = (com.sun.management.ThreadMXBean) bean;
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+        // Without a configuration log4j logs everything, and the debug
+        // messages of the service would be measured with the conversions.
+        Logger.getLogger(XmlToJsonService.class).setLevel(Level.WARN);
+        this.budgets = new Properties();
+        InputStream in = getClass().getClassLoader().getResourceAsStream("allocation-budgets.properties");
+        try {
+            this.budgets.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void allocationDefaultEngine() throws JSONException {
+        check("default.object", service(Engine.DEFAULT), OBJECT);
+        check("default.string", service(Engine.DEFAULT), new Conversion() {
+            public Object convert(XmlToJsonService service, String xml) throws JSONException {
+                return service.toJSONString(xml);
+            }
+        });
+    }
+
+    @Test
+    public void allocationIndexedEngine() throws JSONException {
+        check("indexed.object", service(Engine.INDEXED), OBJECT);
+    }
+
+    @Test
+    public void allocationParallelEngine() throws JSONException {
+        XmlToJsonService service = service(Engine.PARALLEL);
+        service.getEngineSelector().setMinRecords(2);
+        // The records run on the measured thread, in the four shares of a
+        // single thread executor.
+        service.setRecordExecutor(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        check("parallel.object", service, OBJECT);
+    }
+
+    @Test
+    public void allocationLazyNumbers() throws JSONException {
+        XmlToJsonService service = service(Engine.DEFAULT);
+        service.setLazyNumbers(true);
+        check("lazy.object", service, OBJECT);
+    }
+
+    @Test
+    public void allocationSliceValues() throws JSONException {
+        XmlToJsonService service = service(Engine.DEFAULT);
+        service.setSliceValues(true);
+        check("slices.object", service, OBJECT);
+    }
+
+    @Test
+    public void allocationTape() throws JSONException {
+        check("tape.heap", service(Engine.DEFAULT), new Conversion() {
+            public Object convert(XmlToJsonService service, String xml) throws JSONException {
+                return service.toJSONTape(xml, false);
+            }
+        });
+    }
+
+    private XmlToJsonService service(Engine engine) {
+        XmlToJsonService service = new XmlToJsonService(this.conf.getProperties());
+        service.setEngine(engine);
+        return service;
+    }
+
+    /**
+     * Measure a conversion of each reference document and fail with the
+     * table of all of them if one is over its budget.
+     */
+    private void check(String mode, XmlToJsonService service, Conversion conversion) throws JSONException {
+        double tolerance = Double.parseDouble(this.budgets.getProperty("tolerance"));
+        String[] names = { "small", "medium" };
+        StringBuilder report = new StringBuilder();
+        boolean failed = false;
+        for (String name : names) {
+            String xml = document(name);
+            String key = mode + "." + name;
+            long measured = measure(service, conversion, xml);
+            String budget = this.budgets.getProperty(key);
+            String verdict;
+            if (budget == null) {
+                verdict = "no budget";
+                failed = true;
+            } else {
+                long limit = (long) (Long.parseLong(budget) * (1 + tolerance));
+                if (measured > limit) {
+                    verdict = "OVER BUDGET, limit " + limit;
+                    failed = true;
+                } else {
+                    verdict = "ok";
+                }
+            }
+            report.append(String.format("%n  %-24s %10d bytes, budget %10s  %s", key, Long.valueOf(measured),
+                    budget, verdict));
+        }
+        if (failed) {
+            Assert.fail("Allocations per conversion (tolerance " + Math.round(tolerance * 100) + "%):" + report
+                    + "%nUpdate allocation-budgets.properties if the increase is expected.".replace("%n",
+                            System.getProperty("line.separator")));
+        }
+    }
+
+    /**
+     * Get the smallest average of the bytes allocated by a conversion over a
+     * few rounds, which leaves out the rounds disturbed by a compilation.
+     */
+    private long measure(XmlToJsonService service, Conversion conversion, String xml) throws JSONException {
+        long thread = Thread.currentThread().getId();
+        Object sink = null;
+        for (int i = 0; i < WARMUPS; i += 1) {
+            sink = conversion.convert(service, xml);
+        }
+        long smallest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round += 1) {
+            long start = this.threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < CONVERSIONS; i += 1) {
+                sink = conversion.convert(service, xml);
+            }
+            long allocated = this.threads.getThreadAllocatedBytes(thread) - start;
+            smallest = Math.min(smallest, allocated / CONVERSIONS);
+        }
+        Assert.assertNotNull(sink);
+        return smallest;
+    }
+
+    /**
+     * Build a reference document. The small one is a handful of typed values
+     * of the test mapping, the medium one is a few kilobytes of lists,
+     * typed arrays, attributes and text with entities.
+     */
+    private static String document(String name) {
+        if ("small".equals(name)) {
+            return "<bloc_number>"
+                    + "<blocid attr_number=\"004136950001\" attr2_number=\"-4.50\">12.50</blocid>"
+                    + "<blocid2 attr=\"valeur\">texte &amp; suite</blocid2>"
+                    + "</bloc_number>";
+        }
+        StringBuilder sb = new StringBuilder("<bloc_tableau>");
+        for (int i = 0; i < 64; i += 1) {
+            sb.append("<prix>").append(i * 37 % 1000).append("</prix>");
+            sb.append("<actif>").append(i % 3 == 0).append("</actif>");
+            sb.append("<ligne id=\"").append(i).append("\" type=\"commerce\">")
+                    .append("<nom>Boulangerie ").append(i).append(" &amp; fils</nom>")
+                    .append("<adresse>").append(i).append(" rue de la Paix, Paris</adresse>")
+                    .append("</ligne>");
+        }
+        sb.append("</bloc_tableau>");
+        return sb.toString();
+    }
+}
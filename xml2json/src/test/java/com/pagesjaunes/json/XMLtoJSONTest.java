@@ -3,10 +3,39 @@
  */
 package com.pagesjaunes.json;
 
+import java.math.BigDecimal;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.pagesjaunes.json.config.ConfigurationMapEnumTypes;
+import com.pagesjaunes.json.config.JsonConf;
+import com.pagesjaunes.json.config.Types;
+import com.pagesjaunes.json.service.AdmissionController;
+import com.pagesjaunes.json.service.Cancellation;
+import com.pagesjaunes.json.service.ConversionCancelledException;
+import com.pagesjaunes.json.service.ConversionLimits;
+import com.pagesjaunes.json.service.ConversionMetrics;
+import com.pagesjaunes.json.service.ConversionRejectedException;
+import com.pagesjaunes.json.service.ConversionScheduler;
+import com.pagesjaunes.json.service.ConversionResult;
+import com.pagesjaunes.json.service.ConversionWarning;
+import com.pagesjaunes.json.service.Engine;
+import com.pagesjaunes.json.service.EngineSelector;
+import com.pagesjaunes.json.service.LatencyHistogram;
+import com.pagesjaunes.json.service.OnDemandDocument;
+import com.pagesjaunes.json.service.PathProfile;
+import com.pagesjaunes.json.service.SizeClass;
 import com.pagesjaunes.json.service.XmlToJsonService;
 
 
@@ -401,4 +430,901 @@ public class XMLtoJSONTest {
         Assert.assertEquals("{\"bloc_test\":\"bloc non vide\"}", stXmlToJson.toJSONObject(xml).toString());
     }
 
+    @Test
+    public void convertXMLtoJSONIndexed() throws JSONException {
+        String xml = "<bloc_number>"
+                + "<!-- <blocid>commentaire</blocid> -->"
+                + "<blocid attr_number=\"004136950001\" attr2_number=\"-&#49;\">004136950001</blocid>"
+                + "<blocid2 attr_number=\"1 &gt; 0\"><![CDATA[<cdata>]]> texte &amp; suite </blocid2>"
+                + "</bloc_number>";
+        String expected = stXmlToJson.toJSONObject(xml).toString();
+        XmlToJsonService indexed = new XmlToJsonService(conf.getProperties());
+        indexed.setEngine(Engine.INDEXED);
+        Assert.assertEquals(expected, indexed.toJSONObject(xml).toString());
+
+        char[] buffer = ("<root><a x=\"/>\">1</a><!-- </root> --><b/><c><c>2</c></c></root>").toCharArray();
+        XMLStructuralIndex index = new XMLStructuralIndex(buffer, 0, buffer.length);
+        int[] children = index.childElements(0);
+        Assert.assertEquals(3, children.length);
+        Assert.assertEquals("<a x=\"/>\">1</a>", new String(buffer, children[0], index.elementEnd(children[0]) - children[0]));
+        Assert.assertEquals("<b/>", new String(buffer, children[1], index.elementEnd(children[1]) - children[1]));
+        Assert.assertEquals("<c><c>2</c></c>", new String(buffer, children[2], index.elementEnd(children[2]) - children[2]));
+
+        IndexedXMLTokener x = new IndexedXMLTokener(index);
+        Assert.assertTrue(x.skipPast("<"));
+        Assert.assertEquals("root", x.nextToken());
+        Assert.assertEquals(XmlToJsonService.GT, x.nextToken());
+        Assert.assertEquals(XmlToJsonService.LT, x.nextContent());
+        Assert.assertEquals("a", x.nextToken());
+        Assert.assertEquals("x", x.nextToken());
+        Assert.assertEquals(XmlToJsonService.EQ, x.nextToken());
+        Assert.assertEquals("/>", x.nextToken());
+        Assert.assertEquals(XmlToJsonService.GT, x.nextToken());
+        x.skipElement();
+        Assert.assertEquals(XmlToJsonService.LT, x.nextContent());
+        Assert.assertEquals(XmlToJsonService.BANG, x.nextToken());
+    }
+
+    @Test
+    public void convertXMLtoJSONSyntaxErrorPosition() {
+        String xml = "<?xml version=\"1.0\"?>\r\n<bloc>\n  <blocid>1</blocid>\n  <a>x</b>\n</bloc>";
+        try {
+            stXmlToJson.toJSONObject(xml);
+            Assert.fail();
+        } catch (JSONException e) {
+            Assert.assertEquals("Mismatched a and b at 60 [character 9 line 5]", e.getMessage());
+        }
+
+        xml = "<bloc>\r\n<a>x &nbsp</a></bloc>";
+        try {
+            stXmlToJson.toJSONObject(xml);
+            Assert.fail();
+        } catch (JSONException e) {
+            Assert.assertEquals("Missing ';' in XML entity: &nbsp at 19 [character 11 line 2]", e.getMessage());
+        }
+    }
+
+    @Test
+    public void convertXMLtoJSONOnDemand() throws JSONException {
+        String xml = "<?xml version=\"1.0\"?>"
+                + "<bloc_number>"
+                + "<autre><blocid>ignore</blocid></autre>"
+                + "<blocid attr_number=\"004136950001\">-004136950001</blocid>"
+                + "<blocid2 attr_number=\"1\"><![CDATA[12.50]]></blocid2>"
+                + "<blocid3/>"
+                + "<blocid3>texte</blocid3>"
+                + "</bloc_number>";
+        OnDemandDocument document = stXmlToJson.onDemand(xml);
+        Assert.assertEquals(new BigDecimal("4136950001"), document.get("bloc_number.blocid.@attr_number"));
+        Assert.assertEquals(new BigDecimal("-4136950001"), document.get("bloc_number.blocid.$content"));
+        Assert.assertEquals("12.50", document.get("bloc_number.blocid2.$content"));
+        Assert.assertEquals(new BigDecimal("1"), document.get("bloc_number.blocid2.@attr_number"));
+        Assert.assertEquals("texte", document.get("bloc_number.blocid3"));
+        Assert.assertEquals("ignore", document.optString("bloc_number.autre.blocid", null));
+        Assert.assertNull(document.opt("bloc_number.blocid4"));
+        Assert.assertFalse(document.has("bloc_number.blocid.@absent"));
+        Assert.assertEquals(stXmlToJson.toJSONObject(xml).toString(), document.toJSONObject().toString());
+
+        document = stXmlToJson.onDemand("<bloc><test_liste><test_liste>1</test_liste><test_liste>2</test_liste></test_liste></bloc>");
+        Assert.assertEquals("1", document.get("bloc.test_liste.test_liste"));
+    }
+
+    @Test
+    public void convertXMLtoJSONSliceValues() throws JSONException {
+        String xml = "<bloc_number>"
+                + "<blocid attr_number=\"004136950001\" attr=\"valeur\" attr2=\"a &amp; b\">004136950001</blocid>"
+                + "<blocid2>  texte \"cit\u00e9\" </blocid2>"
+                + "<blocid3>x &lt; y</blocid3>"
+                + "</bloc_number>";
+        String expected = stXmlToJson.toJSONObject(xml).toString();
+        XmlToJsonService slices = new XmlToJsonService(conf.getProperties());
+        slices.setSliceValues(true);
+        JSONObject jo = slices.toJSONObject(xml);
+        Assert.assertEquals(expected, jo.toString());
+        JSONObject bloc = jo.getJSONObject("bloc_number");
+        Assert.assertTrue(bloc.getJSONObject("blocid").opt("@attr") instanceof CharSlice);
+        Assert.assertTrue(bloc.getJSONObject("blocid").opt("@attr2") instanceof String);
+        Assert.assertTrue(bloc.getJSONObject("blocid").opt("@attr_number") instanceof BigDecimal);
+        Assert.assertEquals("texte \"cit\u00e9\"", bloc.getString("blocid2"));
+        Assert.assertEquals("x < y", bloc.getString("blocid3"));
+
+        slices.setEngine(Engine.INDEXED);
+        Assert.assertEquals(expected, slices.toJSONObject(xml).toString());
+    }
+
+    @Test
+    public void convertXMLtoJSONTape() throws JSONException {
+        String xml = "<bloc_number>"
+                + "<blocid attr_number=\"004136950001\" attr2_number=\"-4.50\">004136950001</blocid>"
+                + "<blocid2 attr_number=\"123456789012345678901234567890.5\">texte &amp; \"cit\u00e9\"</blocid2>"
+                + "<blocid3>1</blocid3><blocid3>2</blocid3><blocid3><a>3</a></blocid3>"
+                + "</bloc_number>";
+        JSONObject jo = stXmlToJson.toJSONObject(xml);
+        for (boolean direct : new boolean[] { false, true }) {
+            JSONTape tape = stXmlToJson.toJSONTape(xml, direct);
+            Assert.assertEquals(direct, tape.isDirect());
+            Assert.assertEquals(jo.toString(), tape.toString());
+            Assert.assertEquals(jo.toString(true, 2), tape.root().toString(true, 2));
+            Assert.assertEquals(jo.toString(true, 0), tape.root().toJSONObject().toString(true, 0));
+
+            JSONTapeObject bloc = tape.root().optJSONTapeObject("bloc_number");
+            Assert.assertEquals(3, bloc.length());
+            JSONTapeObject blocid = bloc.optJSONTapeObject("blocid");
+            Assert.assertEquals(new BigDecimal("4136950001"), blocid.opt("@attr_number"));
+            Assert.assertEquals(new BigDecimal("-4.50"), blocid.opt("@attr2_number"));
+            Assert.assertEquals(4136950001L, blocid.optLong("$content", 0));
+            Assert.assertEquals(new BigDecimal("123456789012345678901234567890.5"),
+                    bloc.optJSONTapeObject("blocid2").opt("@attr_number"));
+            Assert.assertEquals("texte & \"cit\u00e9\"", bloc.optJSONTapeObject("blocid2").optString("$content"));
+            JSONTapeArray blocid3 = bloc.optJSONTapeArray("blocid3");
+            Assert.assertEquals(3, blocid3.length());
+            Assert.assertEquals("2", blocid3.opt(1));
+            Assert.assertEquals("3", blocid3.optJSONTapeObject(2).opt("a"));
+            Assert.assertNull(blocid3.opt(3));
+            Assert.assertNull(bloc.opt("absent"));
+            Assert.assertFalse(bloc.has("a"));
+            java.util.Iterator<String> keys = blocid.keys();
+            Assert.assertEquals("@attr_number", keys.next());
+            Assert.assertEquals("@attr2_number", keys.next());
+            Assert.assertEquals("$content", keys.next());
+            Assert.assertFalse(keys.hasNext());
+        }
+    }
+
+    @Test
+    public void convertXMLtoJSONPrimitiveArrays() throws JSONException {
+        String xml = "<bloc_tableau>"
+                + "<prix>1</prix><prix>0042</prix><prix>-7</prix>"
+                + "<actif>true</actif><actif>0</actif>"
+                + "</bloc_tableau>";
+        JSONObject bloc = stXmlToJson.toJSONObject(xml).getJSONObject("bloc_tableau");
+        Assert.assertEquals("{\"prix\":[1,42,-7],\"actif\":[true,false]}", bloc.toString());
+        JSONArray prix = bloc.getJSONArray("prix");
+        Assert.assertTrue(prix instanceof JSONLongArray);
+        Assert.assertTrue(((JSONLongArray) prix).isPrimitive());
+        Assert.assertEquals(42L, prix.getLong(1));
+        Assert.assertEquals(-7.0, prix.optDouble(2), 0);
+        Assert.assertEquals(new BigDecimal("42"), prix.get(1));
+        JSONArray actif = bloc.getJSONArray("actif");
+        Assert.assertTrue(actif instanceof JSONBooleanArray);
+        Assert.assertFalse(actif.getBoolean(1));
+
+        xml = "<bloc_tableau>"
+                + "<prix>1</prix><prix>12.50</prix><prix>null</prix>"
+                + "<actif>true</actif><actif attr=\"1\">1</actif>"
+                + "</bloc_tableau>";
+        bloc = stXmlToJson.toJSONObject(xml).getJSONObject("bloc_tableau");
+        Assert.assertEquals("{\"prix\":[1,12.5,null],"
+                + "\"actif\":[true,{\"@attr\":\"1\",\"$content\":true}]}", bloc.toString());
+        Assert.assertFalse(((JSONLongArray) bloc.getJSONArray("prix")).isPrimitive());
+        Assert.assertEquals(new BigDecimal("12.50"), bloc.getJSONArray("prix").get(1));
+
+        JSONDoubleArray doubles = new JSONDoubleArray();
+        doubles.put(1.5).put(2.0);
+        Assert.assertEquals("[1.5,2]", doubles.toString());
+        Assert.assertEquals(2.0, doubles.getDouble(1), 0);
+        doubles.put(3, "x");
+        Assert.assertFalse(doubles.isPrimitive());
+        Assert.assertEquals("[1.5,2,null,\"x\"]", doubles.toString());
+    }
+
+    @Test
+    public void convertXMLtoJSONLazyNumbers() throws JSONException {
+        String xml = "<bloc_number>"
+                + "<blocid attr_number=\"004136950001\" attr2_number=\"-0.50\">12.50</blocid>"
+                + "<blocid2 attr_number=\"0.0000001\" attr2_number=\"1e3\">+.5</blocid2>"
+                + "</bloc_number>";
+        String expected = stXmlToJson.toJSONObject(xml).toString();
+        XmlToJsonService lazy = new XmlToJsonService(conf.getProperties());
+        lazy.setLazyNumbers(true);
+        JSONObject jo = lazy.toJSONObject(xml);
+        Assert.assertEquals(expected, jo.toString());
+        JSONObject bloc = jo.getJSONObject("bloc_number");
+        JSONObject blocid = bloc.getJSONObject("blocid");
+        Assert.assertTrue(blocid.opt("$content") instanceof JSONLazyNumber);
+        Assert.assertEquals("12.50", blocid.opt("$content").toString());
+        Assert.assertEquals(new BigDecimal("12.50"), (BigDecimal) blocid.get("$content"));
+        Assert.assertEquals(4136950001L, blocid.getLong("@attr_number"));
+        Assert.assertEquals("4136950001", blocid.get("@attr_number").toString());
+        Assert.assertEquals(-0.5, blocid.getDouble("@attr2_number"), 0);
+        JSONObject blocid2 = bloc.getJSONObject("blocid2");
+        Assert.assertTrue(blocid2.opt("@attr_number") instanceof BigDecimal);
+        Assert.assertTrue(blocid2.opt("@attr2_number") instanceof BigDecimal);
+        Assert.assertEquals("0.5", blocid2.get("$content").toString());
+        Assert.assertNull(JSONLazyNumber.valueOf("1.2.3"));
+    }
+
+    @Test
+    public void convertXMLtoJSONReusedContext() throws JSONException {
+        StringBuilder large = new StringBuilder("<bloc>");
+        for (int i = 0; i < 50; i += 1) {
+            large.append("<test_liste attr=\"").append(i).append("\">texte ").append(i).append("</test_liste>");
+        }
+        large.append("</bloc>");
+        String[] xmls = {
+                "<bloc_number><blocid attr_number=\"0042\">12.50</blocid><blocid2>x &amp; y</blocid2></bloc_number>",
+                "<bloc_date><blocid attr_date=\"2014-01-02 10:11:12\">2014-01-02</blocid></bloc_date>",
+                large.toString(),
+                "<bloc_boolean><blocid attr_bool=\"1\">TRUE</blocid><blocid2>Null</blocid2></bloc_boolean>" };
+        XmlToJsonService single = new XmlToJsonService(conf.getProperties());
+        single.setContextMaxChars(0);
+        XmlToJsonService reused = new XmlToJsonService(conf.getProperties());
+        reused.setContextMaxChars(200);
+        for (Engine engine : Engine.values()) {
+            reused.setEngine(engine);
+            for (int n = 0; n < 2; n += 1) {
+                for (String xml : xmls) {
+                    String expected = single.toJSONObject(xml).toString();
+                    Assert.assertEquals(expected, reused.toJSONObject(xml).toString());
+                    Assert.assertEquals(expected, reused.toJSONString(xml));
+                    try {
+                        reused.toJSONObject("<bloc><blocid>1</bloc>");
+                        Assert.fail();
+                    } catch (JSONException e) {
+                        Assert.assertTrue(e.getMessage().startsWith("Mismatched blocid and bloc"));
+                    }
+                }
+            }
+        }
+
+        reused.setSliceValues(true);
+        JSONObject first = reused.toJSONObject(xmls[0]);
+        reused.toJSONObject(xmls[3]);
+        Assert.assertEquals(single.toJSONObject(xmls[0]).toString(), first.toString());
+    }
+
+    @Test
+    public void convertXMLtoJSONMetrics() throws Exception {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        ConversionMetrics metrics = service.getMetrics();
+        String xml = "<bloc_number>"
+                + "<blocid attr_number=\"0042\" attr2_number=\"abc\">12.50</blocid>"
+                + "<blocid2><a>1</a></blocid2>"
+                + "</bloc_number>";
+        String json = service.toJSONString(xml);
+        service.toJSONObject("<bloc_date><blocid attr_date=\"2014-01-02 10:11:12\">2014-01-02</blocid></bloc_date>");
+        try {
+            service.toJSONObject("<bloc><blocid>1</bloc>");
+            Assert.fail();
+        } catch (JSONException e) {
+            Assert.assertEquals(1, metrics.getParseErrors());
+        }
+        Assert.assertEquals(2, metrics.getDocuments());
+        Assert.assertEquals(xml.length() + 82, metrics.getInputCharacters());
+        Assert.assertEquals(json.length(), metrics.getOutputCharacters());
+        Assert.assertEquals(6, metrics.getElements());
+        Assert.assertEquals(3, metrics.getAttributes());
+        Assert.assertEquals(2, metrics.getNumberConversions());
+        Assert.assertEquals(1, metrics.getNumberFailures());
+        Assert.assertEquals(2, metrics.getDateConversions());
+        Assert.assertEquals(0, metrics.getTypedConversions(Types.BOOLEAN));
+        Assert.assertTrue(metrics.getMaxConversionMillis() >= metrics.getAverageConversionMillis());
+        Assert.assertTrue(metrics.getAverageConversionMillis() > 0);
+
+        javax.management.ObjectName name = metrics.register("test");
+        try {
+            Assert.assertEquals(Long.valueOf(2), java.lang.management.ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(name, "Documents"));
+        } finally {
+            metrics.unregister();
+        }
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getDocuments());
+        Assert.assertEquals(0, metrics.getAverageConversionMillis(), 0);
+    }
+
+    @Test
+    public void convertXMLtoJSONFlightRecorderEvents() throws Exception {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        String xml = "<bloc_number><blocid attr_number=\"abc\">12</blocid><blocid2><a>1</a></blocid2></bloc_number>";
+        for (long threshold : new long[] { 0, 3600000 }) {
+            jdk.jfr.Recording recording = new jdk.jfr.Recording();
+            recording.enable("com.pagesjaunes.json.Conversion").withThreshold(java.time.Duration.ofMillis(threshold));
+            recording.enable("com.pagesjaunes.json.TypingFailure");
+            recording.start();
+            service.toJSONObject(xml);
+            try {
+                service.toJSONObject("<bloc><blocid>1</bloc>");
+                Assert.fail();
+            } catch (JSONException e) {
+                // Recorded with its error.
+            }
+            recording.stop();
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("xml2json", ".jfr");
+            try {
+                recording.dump(file);
+                java.util.List<jdk.jfr.consumer.RecordedEvent> conversions = new java.util.ArrayList<jdk.jfr.consumer.RecordedEvent>();
+                int failures = 0;
+                for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file)) {
+                    String name = event.getEventType().getName();
+                    if ("com.pagesjaunes.json.Conversion".equals(name)) {
+                        conversions.add(event);
+                    } else if ("com.pagesjaunes.json.TypingFailure".equals(name)) {
+                        failures += 1;
+                        Assert.assertEquals("bloc_number.blocid.@attr_number", event.getString("path"));
+                        Assert.assertEquals("NUMBER", event.getString("type"));
+                        Assert.assertEquals("abc", event.getString("value"));
+                    }
+                }
+                Assert.assertEquals(1, failures);
+                if (threshold > 0) {
+                    Assert.assertTrue(conversions.isEmpty());
+                } else {
+                    Assert.assertEquals(2, conversions.size());
+                    jdk.jfr.consumer.RecordedEvent conversion = conversions.get(0);
+                    Assert.assertEquals("DEFAULT", conversion.getString("engine"));
+                    Assert.assertEquals(xml.length(), conversion.getInt("inputCharacters"));
+                    Assert.assertEquals(4, conversion.getInt("elements"));
+                    Assert.assertEquals(1, conversion.getInt("attributes"));
+                    Assert.assertEquals(3, conversion.getInt("depth"));
+                    Assert.assertNull(conversion.getString("error"));
+                    Assert.assertTrue(conversions.get(1).getString("error").startsWith("Mismatched blocid and bloc"));
+                }
+            } finally {
+                recording.close();
+                java.nio.file.Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void convertXMLtoJSONPathProfile() throws JSONException {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        PathProfile profile = new PathProfile();
+        service.setProfile(profile);
+        String xml = "<bloc_number>"
+                + "<blocid attr_number=\"0042\" attr=\"abc\">12.50</blocid>"
+                + "<blocid>7</blocid>"
+                + "</bloc_number>";
+        for (int n = 0; n < 3; n += 1) {
+            service.toJSONObject(xml);
+        }
+        Assert.assertEquals(6, profile.getEntry("bloc_number.blocid").getOccurrences());
+        PathProfile.Entry content = profile.getEntry("bloc_number.blocid.$content");
+        Assert.assertEquals(6, content.getOccurrences());
+        Assert.assertEquals(18, content.getCharacters());
+        Assert.assertEquals(6, content.getTypedValues());
+        Assert.assertTrue(content.getTypingNanos() > 0);
+        Assert.assertEquals(0, profile.getEntry("bloc_number.blocid.@attr").getTypedValues());
+        Assert.assertEquals("bloc_number.blocid", profile.getEntries().get(0).getPath());
+
+        java.util.SortedSet<String> unmatched = profile.getUnmatchedKeys(conf.getProperties());
+        Assert.assertFalse(unmatched.contains("bloc_number.blocid.$content"));
+        Assert.assertFalse(unmatched.contains("bloc_number.blocid.@attr_number"));
+        Assert.assertTrue(unmatched.contains("bloc_number.blocid.@attr2_number"));
+        Assert.assertTrue(unmatched.contains("bloc_date.blocid.$content"));
+        Assert.assertEquals(conf.getProperties().size() - 2, unmatched.size());
+
+        profile.reset();
+        service.toJSONObject(xml);
+        Assert.assertEquals(2, profile.getEntry("bloc_number.blocid").getOccurrences());
+        service.setProfile(null);
+        service.toJSONObject(xml);
+        Assert.assertEquals(2, profile.getEntry("bloc_number.blocid").getOccurrences());
+    }
+
+    @Test
+    public void convertXMLtoJSONResult() throws JSONException {
+        java.util.Map<String, JsonConf> mapping = new java.util.HashMap<String, JsonConf>(conf.getProperties());
+        JsonConf unformatted = new JsonConf();
+        unformatted.setTypes(Types.DATE);
+        mapping.put("bloc_number.blocid2.$content", unformatted);
+        XmlToJsonService service = new XmlToJsonService(mapping);
+        service.setMaxWarnings(2);
+        String xml = "<bloc_number>"
+                + "<blocid attr_number=\"x1\" attr2_number=\"x2\">x3</blocid>"
+                + "<blocid2 attr_number=\"7\"><a/>2014-01-02</blocid2>"
+                + "</bloc_number>";
+        ConversionResult result = service.convert(xml);
+        Assert.assertEquals(service.toJSONObject(xml).toString(), result.getJSONObject().toString());
+        Assert.assertEquals(xml.length(), result.getInputCharacters());
+        Assert.assertEquals(4, result.getElements());
+        Assert.assertEquals(3, result.getAttributes());
+        Assert.assertEquals(3, result.getMaxDepth());
+        Assert.assertEquals(1, result.getTypedValues(Types.NUMBER));
+        Assert.assertEquals(3, result.getTypingFailures(Types.NUMBER));
+        Assert.assertTrue(result.getNanos() > 0);
+        Assert.assertTrue(result.getAllocatedBytes() != 0);
+        Assert.assertEquals(2, result.getWarnings().size());
+        Assert.assertEquals(2, result.getDroppedWarnings());
+        ConversionWarning warning = result.getWarnings().get(0);
+        Assert.assertEquals(ConversionWarning.Kind.TYPING_FAILURE, warning.getKind());
+        Assert.assertEquals("bloc_number.blocid.@attr_number", warning.getPath());
+        Assert.assertEquals(Types.NUMBER, warning.getType());
+        Assert.assertEquals("x1", warning.getValue());
+
+        service.setMaxWarnings(10);
+        char[] buffer = xml.toCharArray();
+        result = service.convert(buffer, 0, buffer.length);
+        Assert.assertEquals(4, result.getWarnings().size());
+        Assert.assertEquals(0, result.getDroppedWarnings());
+        warning = result.getWarnings().get(3);
+        Assert.assertEquals(ConversionWarning.Kind.MISSING_FORMAT, warning.getKind());
+        Assert.assertEquals("bloc_number.blocid2.$content", warning.getPath());
+        Assert.assertEquals("2014-01-02", warning.getValue());
+    }
+
+    @Test
+    public void convertXMLtoJSONLatencies() throws JSONException {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        StringBuilder medium = new StringBuilder("<bloc_number>");
+        while (medium.length() < 8000) {
+            medium.append("<blocid attr_number=\"42\">12.50</blocid>");
+        }
+        medium.append("</bloc_number>");
+        long slowest = 0;
+        for (int n = 0; n < 100; n += 1) {
+            service.toJSONObject("<bloc_number><blocid>1</blocid></bloc_number>");
+            ConversionResult result = service.convert(medium.toString());
+            slowest = Math.max(slowest, result.getNanos());
+        }
+        LatencyHistogram.Snapshot small = service.getLatencies(SizeClass.SMALL);
+        LatencyHistogram.Snapshot large = service.getLatencies(SizeClass.MEDIUM);
+        Assert.assertEquals(100, small.getCount());
+        Assert.assertEquals(100, large.getCount());
+        Assert.assertEquals(0, service.getLatencies(SizeClass.HUGE).getCount());
+        Assert.assertEquals(0, service.getLatencies(SizeClass.HUGE).getPercentileNanos(99));
+        Assert.assertTrue(large.getPercentileNanos(50) > 0);
+        Assert.assertTrue(large.getPercentileNanos(50) <= large.getPercentileNanos(99));
+        Assert.assertTrue(large.getPercentileNanos(99) <= large.getMaxNanos());
+        Assert.assertEquals(large.getMaxNanos(), large.getPercentileNanos(100));
+        Assert.assertTrue(large.getMaxNanos() >= slowest);
+        Assert.assertTrue(large.getMaxNanos() <= slowest + slowest / 32);
+        Assert.assertTrue(large.getMeanNanos() <= slowest);
+        Assert.assertTrue(large.toString().startsWith("count=100 "));
+        service.getMetrics().reset();
+        Assert.assertEquals(0, service.getLatencies(SizeClass.MEDIUM).getCount());
+        service.setMetrics(null);
+        Assert.assertNull(service.getLatencies(SizeClass.SMALL));
+    }
+
+    @Test
+    public void convertXMLtoJSONCancellation() throws JSONException {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        StringBuilder xml = new StringBuilder("<bloc_number>");
+        for (int n = 0; n < 1000; n += 1) {
+            xml.append("<blocid attr_number=\"").append(n).append("\">").append(n).append("</blocid>");
+        }
+        xml.append("</bloc_number>");
+        String document = xml.toString();
+
+        Cancellation cancelled = new Cancellation();
+        cancelled.cancel();
+        try {
+            service.toJSONObject(document, cancelled);
+            Assert.fail();
+        } catch (ConversionCancelledException e) {
+            Assert.assertFalse(e.isDeadlineExceeded());
+        }
+        try {
+            service.toJSONString(document, Cancellation.within(1, TimeUnit.NANOSECONDS));
+            Assert.fail();
+        } catch (ConversionCancelledException e) {
+            Assert.assertTrue(e.isDeadlineExceeded());
+        }
+        StringBuilder large = new StringBuilder("<bloc_number>");
+        for (int n = 0; n < 200; n += 1) {
+            large.append(document, 13, document.length() - 14);
+        }
+        large.append("</bloc_number>");
+        service.setTimeoutMillis(1);
+        try {
+            service.convert(large.toString());
+            Assert.fail();
+        } catch (ConversionCancelledException e) {
+            Assert.assertTrue(e.isDeadlineExceeded());
+        }
+        StringBuilder comments = new StringBuilder("<bloc_number>");
+        for (int n = 0; n < 300000; n += 1) {
+            comments.append("t<!-- c --><?p?>");
+        }
+        comments.append("</bloc_number>");
+        try {
+            service.toJSONObject(comments.toString());
+            Assert.fail();
+        } catch (ConversionCancelledException e) {
+            Assert.assertTrue(e.isDeadlineExceeded());
+        }
+        Assert.assertEquals(4, service.getMetrics().getCancellations());
+        Assert.assertEquals(0, service.getMetrics().getDocuments());
+
+        // A single comment, PI or CDATA section is checked while it is read.
+        StringBuilder filler = new StringBuilder();
+        for (int n = 0; n < 1 << 17; n += 1) {
+            filler.append("c<d> ");
+        }
+        String[] longs = { "<bloc_number><!--" + filler + "--></bloc_number>",
+                "<bloc_number><?p " + filler + "?></bloc_number>",
+                "<bloc_number><![CDATA[" + filler + "]]></bloc_number>" };
+        XmlToJsonService indexed = new XmlToJsonService(conf.getProperties());
+        indexed.setEngine(Engine.INDEXED);
+        for (XmlToJsonService each : new XmlToJsonService[] { new XmlToJsonService(conf.getProperties()), indexed }) {
+            for (String xmlLong : longs) {
+                try {
+                    each.toJSONObject(xmlLong, cancelled);
+                    Assert.fail();
+                } catch (ConversionCancelledException e) {
+                    Assert.assertFalse(e.isDeadlineExceeded());
+                }
+            }
+        }
+
+        service.setTimeoutMillis(60000);
+        Cancellation open = Cancellation.within(1, TimeUnit.MINUTES);
+        Assert.assertEquals(service.toJSONObject(document).toString(), service.toJSONObject(document, open).toString());
+        Assert.assertEquals(1000, service.convert(document, open).getAttributes());
+        Assert.assertEquals(1000, service.convert(document).getAttributes());
+    }
+
+    @Test
+    public void convertXMLtoJSONLimits() throws JSONException {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        ConversionLimits limits = new ConversionLimits();
+        limits.setMaxInputCharacters(100);
+        limits.setMaxDepth(2);
+        limits.setMaxAttributes(1);
+        limits.setMaxSiblings(2);
+        limits.setMaxTextLength(5);
+        limits.setMaxOutputCharacters(20);
+        service.setLimits(limits);
+        for (Engine engine : Engine.values()) {
+            service.setEngine(engine);
+            this.assertLimit(service, "<a>" + new String(new char[100]).replace('\0', ' ') + "</a>",
+                    LimitExceededException.Limit.INPUT_CHARACTERS);
+            this.assertLimit(service, "<a><b><c>1</c></b></a>", LimitExceededException.Limit.DEPTH);
+            this.assertLimit(service, "<a x=\"1\" y=\"2\"/>", LimitExceededException.Limit.ATTRIBUTES);
+            this.assertLimit(service, "<a><b>1</b><b>2</b><b>3</b></a>", LimitExceededException.Limit.SIBLINGS);
+            this.assertLimit(service, "<a><b>1</b><c/><b>2</b><b/><b>3</b></a>", LimitExceededException.Limit.SIBLINGS);
+            this.assertLimit(service, "<a>123456</a>", LimitExceededException.Limit.TEXT_LENGTH);
+            this.assertLimit(service, "<a>1&amp;23456</a>", LimitExceededException.Limit.TEXT_LENGTH);
+            this.assertLimit(service, "<a x=\"123456\"/>", LimitExceededException.Limit.TEXT_LENGTH);
+            this.assertLimit(service, "<a x=\"12&amp;3456\"/>", LimitExceededException.Limit.TEXT_LENGTH);
+            this.assertLimit(service, "<a><![CDATA[123456]]></a>", LimitExceededException.Limit.TEXT_LENGTH);
+
+            Assert.assertEquals("{\"b\":[\"1\",\"2\"]}",
+                    service.toJSONObject("<a><b>1</b><b>2</b></a>").toString());
+            Assert.assertEquals("{\"b\":[\"1\",\"2\"]}",
+                    service.toJSONObject("<a><b>1</b><b>2</b></a>".toCharArray(), 0, 23).toString());
+            Assert.assertEquals("{\"@x\":\"12345\"}", service.toJSONString("<a x=\"12345\"/>"));
+            try {
+                service.toJSONString("<a><b>12345</b><c>12345</c></a>");
+                Assert.fail();
+            } catch (LimitExceededException e) {
+                Assert.assertEquals(LimitExceededException.Limit.OUTPUT_CHARACTERS, e.getLimit());
+                Assert.assertEquals(20, e.getMax());
+            }
+        }
+        Assert.assertEquals(Engine.values().length * 11, service.getMetrics().getLimitsExceeded());
+        Assert.assertEquals(0, service.getMetrics().getParseErrors());
+        JSONObject large = new JSONObject();
+        for (int i = 0; i < 1000; i += 1) {
+            large.accumulate("b", "12345", false);
+        }
+        StringBuilder sb = new StringBuilder();
+        try {
+            large.write(sb, 0, true, new JSONWriteCheck() {
+                public void written(int length) throws JSONException {
+                    if (length > 50) {
+                        throw new JSONException("Too long");
+                    }
+                }
+            });
+            Assert.fail();
+        } catch (JSONException e) {
+            Assert.assertTrue(sb.length() <= 50 + 8);
+        }
+        Assert.assertEquals(large.write(new StringBuilder(), 0, true).toString(),
+                large.write(new StringBuilder(), 0, true, null).toString());
+    }
+
+    private void assertLimit(XmlToJsonService service, String xml, LimitExceededException.Limit limit)
+            throws JSONException {
+        try {
+            service.toJSONObject(xml);
+            Assert.fail(xml);
+        } catch (LimitExceededException e) {
+            Assert.assertEquals(xml, limit, e.getLimit());
+        }
+    }
+
+    @Test
+    public void convertXMLtoJSONAdmission() throws Exception {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        final AdmissionController reject = new AdmissionController(service, 1000, AdmissionController.Policy.REJECT);
+        reject.setRatio(10);
+        long first = reject.admit(50);
+        Assert.assertEquals(500, first);
+        try {
+            reject.admit(60);
+            Assert.fail();
+        } catch (ConversionRejectedException e) {
+            Assert.assertEquals(600, e.getCost());
+        }
+        long second = reject.admit(50);
+        Assert.assertEquals(1000, reject.getInUse());
+        reject.release(first);
+        reject.release(second);
+        long oversized = reject.admit(500);
+        Assert.assertEquals(5000, reject.getInUse());
+        reject.release(oversized);
+        Assert.assertEquals(3, reject.getAdmitted());
+        Assert.assertEquals(1, reject.getRejected());
+
+        final AdmissionController queue = new AdmissionController(service, 1000, AdmissionController.Policy.QUEUE);
+        queue.setRatio(10);
+        queue.setMaxQueued(1);
+        long held = queue.admit(80);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.release(queue.admit(50));
+                    done.countDown();
+                } catch (ConversionRejectedException e) {
+                    // the assertion below fails
+                }
+            }
+        };
+        waiter.start();
+        while (queue.getWaiting() == 0) {
+            Thread.sleep(1);
+        }
+        try {
+            queue.admit(1);
+            Assert.fail("the line is full, and a small document must not pass it");
+        } catch (ConversionRejectedException e) {
+            Assert.assertEquals(10, e.getCost());
+        }
+        Assert.assertEquals(1, done.getCount());
+        queue.release(held);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, queue.getInUse());
+        Assert.assertTrue(queue.getWaitNanos() > 0);
+
+        AdmissionController block = new AdmissionController(service, 1000, AdmissionController.Policy.BLOCK);
+        block.setRatio(10);
+        block.setMaxWaitMillis(20);
+        held = block.admit(80);
+        try {
+            block.admit(50);
+            Assert.fail();
+        } catch (ConversionRejectedException e) {
+            Assert.assertEquals(0, block.getWaiting());
+        }
+        block.release(held);
+
+        String xml = "<bloc_number><blocid attr_number=\"42\">12.50</blocid></bloc_number>";
+        Assert.assertEquals(service.toJSONObject(xml).toString(), block.toJSONObject(xml).toString());
+        Assert.assertEquals(service.toJSONString(xml), block.toJSONString(xml));
+        for (int n = 0; n < 100; n += 1) {
+            block.convert(xml);
+        }
+        if (block.convert(xml).getAllocatedBytes() > 0) {
+            Assert.assertTrue(Math.abs(block.getRatio() - 10) > 0.1);
+        }
+        Assert.assertEquals(0, block.getRunning());
+
+        StringBuilder records = new StringBuilder("<bloc_number>");
+        for (int n = 0; n < 2000; n += 1) {
+            records.append("<blocid attr_number=\"").append(n).append("\">").append(n).append(".5</blocid>");
+        }
+        String document = records.append("</bloc_number>").toString();
+        XmlToJsonService parallel = new XmlToJsonService(conf.getProperties());
+        parallel.setEngine(Engine.PARALLEL);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        parallel.setRecordExecutor(executor);
+        try {
+            AdmissionController learning = new AdmissionController(parallel, 1 << 30,
+                    AdmissionController.Policy.BLOCK);
+            learning.setRatio(10);
+            learning.toJSONObject(document);
+            learning.toJSONString(document);
+            Assert.assertEquals(10, learning.getRatio(), 0);
+            long sequential = service.convert(document).getAllocatedBytes();
+            if (sequential > 0) {
+                Assert.assertTrue(parallel.convert(document).getAllocatedBytes() > sequential / 2);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void convertXMLtoJSONScheduler() throws Exception {
+        XmlToJsonService service = new XmlToJsonService(conf.getProperties());
+        ConversionScheduler scheduler = new ConversionScheduler(service, 1, 1, 100, 1);
+        final CountDownLatch largeBlocked = new CountDownLatch(1);
+        Callable<Object> blockLarge = new Callable<Object>() {
+            public Object call() throws Exception {
+                return largeBlocked.await(10, TimeUnit.SECONDS);
+            }
+        };
+        Future<Object> large = scheduler.submit(1000, blockLarge);
+        while (scheduler.getLargeLane().getActive() == 0) {
+            Thread.sleep(1);
+        }
+        Future<Object> queued = scheduler.submit(1000, blockLarge);
+        try {
+            scheduler.submit(1000, blockLarge);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            Assert.assertEquals(1, scheduler.getLargeLane().getRejected());
+        }
+        String xml = "<bloc_number><blocid attr_number=\"42\">12.50</blocid></bloc_number>";
+        Assert.assertEquals(service.toJSONString(xml),
+                scheduler.toJSONString(xml).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1, scheduler.getLargeLane().getQueued());
+
+        final CountDownLatch smallBlocked = new CountDownLatch(1);
+        scheduler.submit(10, new Callable<Object>() {
+            public Object call() throws Exception {
+                return smallBlocked.await(10, TimeUnit.SECONDS);
+            }
+        });
+        while (scheduler.getSmallLane().getActive() == 0) {
+            Thread.sleep(1);
+        }
+        Future<JSONObject> stolen = scheduler.toJSONObject(xml);
+        largeBlocked.countDown();
+        Assert.assertEquals(Boolean.TRUE, large.get());
+        Assert.assertEquals(Boolean.TRUE, queued.get());
+        Assert.assertEquals(service.toJSONObject(xml).toString(), stolen.get().toString());
+        Assert.assertEquals(1, scheduler.getSmallLane().getStolen());
+        smallBlocked.countDown();
+
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, scheduler.getSmallLane().getCompleted());
+        Assert.assertEquals(2, scheduler.getLargeLane().getCompleted());
+        Assert.assertEquals(3, scheduler.getSmallLane().getWaits().getCount());
+        Assert.assertTrue(scheduler.getLargeLane().getWaits().getMaxNanos() > 0);
+        try {
+            scheduler.toJSONObject(xml);
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // shut down
+        }
+        // A lane without threads would never run its documents.
+        for (int[] arguments : new int[][] { { 0, 1, 1 }, { 1, 0, 1 }, { 1, 1, -1 } }) {
+            try {
+                new ConversionScheduler(service, arguments[0], arguments[1], 100, arguments[2]);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                // rejected
+            }
+        }
+    }
+
+    @Test
+    public void convertXMLtoJSONAutoEngine() throws Exception {
+        StringBuilder numbers = new StringBuilder("<bloc_number>\n");
+        for (int i = 0; i < 40; i += 1) {
+            numbers.append("  <blocid attr_number=\"").append(i).append("\">").append(i).append(".5</blocid>\n");
+            if (i % 3 == 0) {
+                numbers.append("  <blocid2>").append(i).append("</blocid2>\n");
+            }
+            if (i % 7 == 0) {
+                numbers.append("  <empty/>\n");
+            }
+        }
+        StringBuilder tableau = new StringBuilder("<bloc_tableau>");
+        for (int i = 0; i < 40; i += 1) {
+            tableau.append("<prix>").append(i).append("</prix><actif>").append(i % 2 == 0).append("</actif>");
+            if (i % 5 == 0) {
+                tableau.append("<prix devise=\"EUR\"/>");
+            }
+        }
+        String[] xmls = {
+                numbers + "</bloc_number>",
+                "<?xml version=\"1.0\"?>\n" + tableau + "</bloc_tableau>\n",
+                "<bloc_tableau><prix>1</prix></bloc_tableau>",
+                "<bloc_tableau><prix>1</prix><prix>2</prix><prix/></bloc_tableau>",
+                "<bloc_tableau><prix x=\"1\"/><actif>t</actif><actif>u</actif></bloc_tableau>",
+                numbers + "  <!-- commentaire -->\n</bloc_number>",
+                "<bloc_number attr=\"1\"><blocid>1</blocid><blocid>2</blocid></bloc_number>",
+                "<bloc_number>texte<blocid>1</blocid><blocid>2</blocid></bloc_number>",
+                numbers + "  <blocid>&x</blocid>\n  <blocid>1</blocid>\n</bloc_number>",
+                numbers + "  <blocid>1</blocid2>\n</bloc_number>",
+                numbers + "</bloc_numbers>" };
+        XmlToJsonService sequential = new XmlToJsonService(conf.getProperties());
+        XmlToJsonService parallel = new XmlToJsonService(conf.getProperties());
+        parallel.setEngine(Engine.PARALLEL);
+        parallel.getEngineSelector().setMinRecords(2);
+        final AtomicInteger shares = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(3, 3, 0,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                shares.incrementAndGet();
+            }
+        };
+        parallel.setRecordExecutor(executor);
+        XmlToJsonService auto = new XmlToJsonService(conf.getProperties());
+        auto.setEngine(Engine.AUTO);
+        auto.getEngineSelector().setIndexedCharacters(100);
+        auto.getEngineSelector().setParallelCharacters(1000);
+        auto.getEngineSelector().setMinRecords(2);
+        auto.setRecordExecutor(executor);
+        try {
+            for (XmlToJsonService service : new XmlToJsonService[] { parallel, auto }) {
+                for (String xml : xmls) {
+                    String expected;
+                    try {
+                        expected = sequential.toJSONObject(xml).toString();
+                    } catch (JSONException e) {
+                        expected = e.getMessage();
+                    }
+                    try {
+                        Assert.assertEquals(expected, service.toJSONObject(xml).toString());
+                        Assert.assertEquals(expected, service.toJSONString(xml));
+                        char[] buffer = xml.toCharArray();
+                        Assert.assertEquals(expected, service.toJSONObject(buffer, 0, buffer.length).toString());
+                    } catch (JSONException e) {
+                        Assert.assertEquals(expected, e.getMessage());
+                    }
+                }
+                // Split in records, not read again by the index; AUTO reads
+                // the small documents with the index.
+                for (int i : service == parallel ? new int[] { 0, 1, 3, 4 } : new int[] { 0, 1 }) {
+                    int before = shares.get();
+                    service.toJSONObject(xmls[i]);
+                    Assert.assertTrue(shares.get() > before);
+                }
+                int before = shares.get();
+                for (int i : new int[] { 2, 5, 6, 7 }) {
+                    service.toJSONObject(xmls[i]);
+                }
+                Assert.assertEquals(before, shares.get());
+                try {
+                    service.toJSONObject(xmls[8]);
+                    Assert.fail();
+                } catch (JSONException e) {
+                    Assert.assertTrue(shares.get() > before);
+                }
+                ConversionResult expected = sequential.convert(xmls[0]);
+                int previous = shares.get();
+                ConversionResult result = service.convert(xmls[0]);
+                Assert.assertTrue(shares.get() > previous);
+                Assert.assertEquals(expected.getJSONObject().toString(), result.getJSONObject().toString());
+                Assert.assertEquals(expected.getElements(), result.getElements());
+                Assert.assertEquals(expected.getAttributes(), result.getAttributes());
+                Assert.assertEquals(expected.getMaxDepth(), result.getMaxDepth());
+                Assert.assertEquals(expected.getTypedValues(Types.NUMBER), result.getTypedValues(Types.NUMBER));
+            }
+
+            ConversionLimits limits = new ConversionLimits();
+            limits.setMaxTextLength(2);
+            parallel.setLimits(limits);
+            sequential.setLimits(limits);
+            try {
+                sequential.toJSONObject(xmls[0]);
+                Assert.fail();
+            } catch (LimitExceededException e) {
+                try {
+                    parallel.toJSONObject(xmls[0]);
+                    Assert.fail();
+                } catch (LimitExceededException f) {
+                    Assert.assertEquals(e.getMessage(), f.getMessage());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        EngineSelector selector = auto.getEngineSelector();
+        Assert.assertEquals(Engine.DEFAULT, selector.select(99, 4));
+        Assert.assertEquals(Engine.INDEXED, selector.select(100, 4));
+        Assert.assertEquals(Engine.PARALLEL, selector.select(1000, 4));
+        Assert.assertEquals(Engine.INDEXED, selector.select(1000, 1));
+        java.util.Properties properties = new java.util.Properties();
+        properties.setProperty(EngineSelector.PARALLEL_CHARACTERS, " 5000 ");
+        selector.load(properties);
+        Assert.assertEquals(100, selector.getIndexedCharacters());
+        Assert.assertEquals(Engine.INDEXED, selector.select(1000, 4));
+        EngineSelector copy = new EngineSelector();
+        copy.load(selector.toProperties());
+        Assert.assertEquals(5000, copy.getParallelCharacters());
+        Assert.assertEquals(2, copy.getMinRecords());
+    }
 }